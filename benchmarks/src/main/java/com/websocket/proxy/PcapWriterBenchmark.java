@@ -0,0 +1,76 @@
+package com.websocket.proxy;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PcapWriterBenchmark {
+    @Param({"64", "4096", "1048576"})
+    public int size;
+
+    // 0 writes every packet through to the file, as the proxy did before buffered flushing
+    @Param({"0", "200"})
+    public long flushMs;
+
+    // pcapng writes through a connection interface of a session file, with a comment per packet
+    @Param({"pcap", "pcapng"})
+    public String format;
+
+    private File output;
+    private PcapNgWriter pcapNgWriter;
+    private PcapWriter pcapWriter;
+    private byte[] payload;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        // Measure encoding rather than disk bandwidth where the platform allows it
+        File devNull = new File("/dev/null");
+        if (devNull.exists()) {
+            output = devNull;
+        } else {
+            output = File.createTempFile("pcap-bench", ".pcap");
+            output.deleteOnExit();
+        }
+        if ("pcapng".equals(format)) {
+            pcapNgWriter = new PcapNgWriter(output.getPath(), null);
+            pcapWriter = pcapNgWriter.openConnection(1, "localhost", 40000, 8080);
+        } else {
+            pcapWriter = new PcapWriter(output.getPath(), "localhost", 40000, 8080);
+        }
+        pcapWriter.setFlushIntervalMs(flushMs);
+
+        payload = new byte[size];
+        new Random(42).nextBytes(payload);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        pcapWriter.close();
+        if (pcapNgWriter != null) {
+            pcapNgWriter.close();
+            pcapNgWriter = null;
+        }
+        if (!"/dev/null".equals(output.getPath())) {
+            output.delete();
+        }
+    }
+
+    @Benchmark
+    public void writeClientToServer() throws IOException {
+        pcapWriter.writeClientToServer(payload);
+    }
+
+    @Benchmark
+    public void writeServerToClient() throws IOException {
+        pcapWriter.writeServerToClient(payload);
+    }
+}
@@ -0,0 +1,111 @@
+package com.websocket.proxy;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Round trip of one JSON-RPC frame: client -> ProxyServer -> echo server -> ProxyServer -> client
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class ProxyEchoBenchmark {
+    private static final String MESSAGE = "{\"jsonrpc\":\"2.0\",\"method\":\"echo\",\"id\":1,\"params\":{\"value\":\"hello\"}}";
+
+    @Param({"sync", "async"})
+    public String logging;
+
+    private Path logDirectory;
+    private EchoServer echoServer;
+    private ProxyServer proxyServer;
+    private WebSocketClient client;
+    private final BlockingQueue<String> replies = new LinkedBlockingQueue<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        logDirectory = Files.createTempDirectory("proxy-echo-bench");
+        int echoPort = freePort();
+        int proxyPort = freePort();
+
+        echoServer = new EchoServer(new InetSocketAddress("127.0.0.1", echoPort));
+        echoServer.start();
+
+        ProxyConfig config = new ProxyConfig();
+        config.setAsyncLogging("async".equals(logging));
+        proxyServer = new ProxyServer(new InetSocketAddress("127.0.0.1", proxyPort),
+            new URI("ws://127.0.0.1:" + echoPort + "/"), logDirectory.toString(), "bench", config);
+        proxyServer.setReuseAddr(true);
+        proxyServer.start();
+        Thread.sleep(500);
+
+        client = new WebSocketClient(new URI("ws://127.0.0.1:" + proxyPort + "/")) {
+            @Override
+            public void onOpen(ServerHandshake handshake) {
+            }
+
+            @Override
+            public void onMessage(String message) {
+                replies.add(message);
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+            }
+
+            @Override
+            public void onError(Exception ex) {
+            }
+        };
+        client.connectBlocking();
+
+        // Wait until the proxy has its upstream connection before measuring
+        String reply = null;
+        for (int attempt = 0; attempt < 50 && reply == null; attempt++) {
+            client.send(MESSAGE);
+            reply = replies.poll(100, TimeUnit.MILLISECONDS);
+        }
+        if (reply == null) {
+            throw new IllegalStateException("Proxy did not echo the warm-up message");
+        }
+
+        // Late echoes of earlier warm-up attempts must not be mistaken for measured replies
+        Thread.sleep(200);
+        replies.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        client.closeBlocking();
+        proxyServer.stop(1000);
+        echoServer.stop(1000);
+        try (Stream<Path> files = Files.walk(logDirectory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @Benchmark
+    public String roundTrip() throws InterruptedException {
+        client.send(MESSAGE);
+        return replies.take();
+    }
+}
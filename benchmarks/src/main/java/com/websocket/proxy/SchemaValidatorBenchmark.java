@@ -0,0 +1,83 @@
+package com.websocket.proxy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=error")
+public class SchemaValidatorBenchmark {
+    // Number of unrelated method schemas loaded next to the fallback target
+    @Param({"10", "100"})
+    public int extraSchemas;
+
+    private Path schemaDirectory;
+    private SchemaValidator validator;
+    private JsonNode preferredMessage;
+    private JsonNode fallbackMessage;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        schemaDirectory = Files.createTempDirectory("schema-bench");
+        Path clientToServer = Files.createDirectories(schemaDirectory.resolve("client-to-server"));
+        Path other = Files.createDirectories(schemaDirectory.resolve("methods"));
+
+        // Found through getPreferredSchemaKeys: client-to-server/<method>
+        Files.writeString(clientToServer.resolve("initialize.json"), methodSchema("initialize"));
+        // Not a preferred key, so only reachable through the fallback dispatch index
+        Files.writeString(other.resolve("shutdown.json"), methodSchema("shutdown"));
+        for (int i = 0; i < extraSchemas; i++) {
+            Files.writeString(other.resolve("method" + i + ".json"), methodSchema("method" + i));
+        }
+
+        validator = new SchemaValidator(schemaDirectory);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        preferredMessage = objectMapper.readTree(
+            "{\"jsonrpc\":\"2.0\",\"method\":\"initialize\",\"id\":1,\"params\":{\"clientId\":\"bench\"}}");
+        fallbackMessage = objectMapper.readTree(
+            "{\"jsonrpc\":\"2.0\",\"method\":\"shutdown\",\"id\":2,\"params\":{}}");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(schemaDirectory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static String methodSchema(String method) {
+        return "{\n"
+            + "  \"$schema\": \"https://json-schema.org/draft/2020-12/schema\",\n"
+            + "  \"type\": \"object\",\n"
+            + "  \"properties\": {\n"
+            + "    \"jsonrpc\": {\"const\": \"2.0\"},\n"
+            + "    \"method\": {\"const\": \"" + method + "\"},\n"
+            + "    \"params\": {\"type\": \"object\"},\n"
+            + "    \"id\": {\"type\": \"number\"}\n"
+            + "  },\n"
+            + "  \"required\": [\"jsonrpc\", \"method\"]\n"
+            + "}\n";
+    }
+
+    @Benchmark
+    public void preferredSchemaHit() {
+        validator.validateMessage(preferredMessage, "CLIENT_TO_SERVER", "bench", 1);
+    }
+
+    @Benchmark
+    public void fallbackSchemaHit() {
+        validator.validateMessage(fallbackMessage, "CLIENT_TO_SERVER", "bench", 1);
+    }
+}
@@ -0,0 +1,80 @@
+package com.websocket.proxy;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class SessionLoggerBenchmark {
+    private static final String JSON_RPC = "{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didChange\",\"id\":42,"
+        + "\"params\":{\"uri\":\"file:///tmp/a.txt\",\"version\":7,\"changes\":[{\"text\":\"hello world\"}]}}";
+    private static final String PLAIN_JSON = "{\"type\":\"update\",\"seq\":1234,\"items\":[1,2,3,4,5],"
+        + "\"meta\":{\"source\":\"benchmark\",\"ok\":true}}";
+    private static final String NON_JSON = "PING 1234567890 this frame is not JSON at all";
+
+    @Param({"jsonrpc", "json", "text"})
+    public String payload;
+
+    @Param({"sync", "async"})
+    public String mode;
+
+    @Param({"text", "binary"})
+    public String format;
+
+    private Path logDirectory;
+    private AsyncLogWriter asyncLogWriter;
+    private SessionLogger sessionLogger;
+    private String message;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        logDirectory = Files.createTempDirectory("session-logger-bench");
+        ProxyConfig config = new ProxyConfig();
+        config.setLogFormat(SessionLogger.LogFormat.valueOf(format.toUpperCase()));
+        if ("async".equals(mode)) {
+            asyncLogWriter = new AsyncLogWriter(config.getLogQueueSize(), config.getLogBatchSize(),
+                config.getLogFlushIntervalMs(), AsyncLogWriter.OverflowPolicy.BLOCK);
+        }
+        sessionLogger = new SessionLogger(logDirectory.toString(), "bench", 1,
+            "localhost", 40000, 8080, config, asyncLogWriter, new LogStorage(), null, null, new ProxyMetrics());
+
+        switch (payload) {
+            case "jsonrpc":
+                message = JSON_RPC;
+                break;
+            case "json":
+                message = PLAIN_JSON;
+                break;
+            default:
+                message = NON_JSON;
+                break;
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        sessionLogger.close();
+        if (asyncLogWriter != null) {
+            asyncLogWriter.close();
+            asyncLogWriter = null;
+        }
+        try (Stream<Path> files = Files.walk(logDirectory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void logMessage() {
+        sessionLogger.logMessage("CLIENT_TO_SERVER", message);
+    }
+}
@@ -0,0 +1,20 @@
+#!/bin/bash
+
+# JMH Benchmark Launcher Script
+# Builds the proxy and the benchmarks module, then runs JMH and writes
+# the results as JSON so they can be compared across releases
+
+SCRIPT_DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")" && pwd)"
+BENCHMARKS_JAR="$SCRIPT_DIR/benchmarks/target/benchmarks.jar"
+RESULTS_FILE="${JMH_RESULTS:-$SCRIPT_DIR/benchmarks/target/jmh-results.json}"
+
+# Build if needed
+if [ ! -f "$BENCHMARKS_JAR" ]; then
+    echo "Building proxy and benchmarks..."
+    (cd "$SCRIPT_DIR" && mvn -q install -DskipTests) || exit 1
+    (cd "$SCRIPT_DIR/benchmarks" && mvn -q package) || exit 1
+fi
+
+# Extra arguments are passed to JMH, e.g. a benchmark name regex or -p size=64
+echo "Running benchmarks, results will be written to $RESULTS_FILE"
+java -jar "$BENCHMARKS_JAR" -rf json -rff "$RESULTS_FILE" "$@"
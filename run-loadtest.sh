@@ -0,0 +1,18 @@
+#!/bin/bash
+
+# Load Generator Launcher Script
+# Uses standalone JAR with all dependencies included
+
+SCRIPT_DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")" && pwd)"
+STANDALONE_JAR="$SCRIPT_DIR/target/websocket-proxy-1.0.0-standalone.jar"
+
+# Check if build artifacts exist
+if [ ! -f "$STANDALONE_JAR" ]; then
+    echo "Error: Standalone JAR not found at $STANDALONE_JAR"
+    echo "Please run 'mvn clean package' first"
+    exit 1
+fi
+
+# Run the load generator using the standalone JAR
+echo "Starting Load Generator..."
+java -Dorg.slf4j.simpleLogger.defaultLogLevel=warn -cp "$STANDALONE_JAR" com.websocket.proxy.LoadGenerator "$@"
@@ -0,0 +1,188 @@
+package com.websocket.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AsyncLogWriter implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(AsyncLogWriter.class);
+
+    public enum OverflowPolicy {
+        BLOCK, DROP_OLDEST, DROP
+    }
+
+    private final BlockingQueue<LogRecord> queue;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final OverflowPolicy overflowPolicy;
+    private final AtomicLong droppedRecords = new AtomicLong();
+    private final Thread writerThread;
+
+    // Only touched by the writer thread
+    private final Set<SessionLogger> dirtyLoggers = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private volatile boolean running = true;
+
+    public AsyncLogWriter(int queueSize, int batchSize, long flushIntervalMs, OverflowPolicy overflowPolicy) {
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMs = Math.max(1, flushIntervalMs);
+        this.overflowPolicy = overflowPolicy;
+
+        this.writerThread = ThreadSupport.start("session-log-writer", this::run);
+    }
+
+    void submit(LogRecord record) {
+        if (!running) {
+            // Writer is gone, fall back to writing on the caller's thread
+            process(record);
+            if (record.type != LogRecord.Type.CLOSE) {
+                record.sessionLogger.flush();
+            }
+            return;
+        }
+
+        // A close record must never be lost or the log files stay open
+        if (record.type == LogRecord.Type.CLOSE || overflowPolicy == OverflowPolicy.BLOCK) {
+            try {
+                queue.put(record);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                droppedRecords.incrementAndGet();
+            }
+            return;
+        }
+
+        if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+            while (!queue.offer(record)) {
+                if (!evictOldest()) {
+                    // Nothing but close records queued, drop the new one instead
+                    droppedRecords.incrementAndGet();
+                    return;
+                }
+            }
+        } else if (!queue.offer(record)) {
+            droppedRecords.incrementAndGet();
+        }
+    }
+
+    // Removes the oldest record that is not a close. Close records stay where they are, so they are
+    // neither lost nor written ahead of their connection's last records.
+    private boolean evictOldest() {
+        Iterator<LogRecord> it = queue.iterator();
+        while (it.hasNext()) {
+            if (it.next().type != LogRecord.Type.CLOSE) {
+                it.remove();
+                droppedRecords.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+
+    private void run() {
+        List<LogRecord> batch = new ArrayList<>(batchSize);
+        long lastFlush = System.currentTimeMillis();
+
+        while (running || !queue.isEmpty()) {
+            try {
+                long wait = Math.max(1, flushIntervalMs - (System.currentTimeMillis() - lastFlush));
+                LogRecord first = queue.poll(wait, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    for (LogRecord record : batch) {
+                        process(record);
+                        if (record.type == LogRecord.Type.CLOSE) {
+                            dirtyLoggers.remove(record.sessionLogger);
+                        } else {
+                            dirtyLoggers.add(record.sessionLogger);
+                        }
+                    }
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            if (System.currentTimeMillis() - lastFlush >= flushIntervalMs) {
+                flushDirty();
+                lastFlush = System.currentTimeMillis();
+            }
+        }
+
+        flushDirty();
+    }
+
+    private void process(LogRecord record) {
+        SessionLogger sessionLogger = record.sessionLogger;
+        try {
+            switch (record.type) {
+                case MESSAGE:
+                    sessionLogger.writeMessage(record.timestamp, record.direction, record.text);
+                    break;
+                case BINARY:
+                    sessionLogger.writeBinaryMessage(record.timestamp, record.direction, record.data);
+                    break;
+                case EVENT:
+                    sessionLogger.writeEvent(record.timestamp, record.direction, record.text);
+                    break;
+                case CLOSE:
+                    sessionLogger.closeNow(record.timestamp);
+                    break;
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Failed to write session log record", e);
+        }
+    }
+
+    private void flushDirty() {
+        for (SessionLogger sessionLogger : dirtyLoggers) {
+            sessionLogger.flush();
+        }
+        dirtyLoggers.clear();
+    }
+
+    @Override
+    public void close() {
+        // No interrupt here: the writer wakes up within one flush interval and drains the queue
+        running = false;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Records that raced with shutdown are written on the closing thread
+        LogRecord record;
+        while ((record = queue.poll()) != null) {
+            process(record);
+            if (record.type != LogRecord.Type.CLOSE) {
+                record.sessionLogger.flush();
+            }
+        }
+
+        if (droppedRecords.get() > 0) {
+            logger.warn("Session log writer dropped {} records due to queue overflow", droppedRecords.get());
+        }
+    }
+}
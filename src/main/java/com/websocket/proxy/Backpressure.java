@@ -0,0 +1,238 @@
+package com.websocket.proxy;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Keeps a slow side of a connection from buffering the fast side's traffic without limit.
+// Java-WebSocket queues every frame sent on a connection until the socket takes it, so the proxy
+// counts the bytes it has queued towards each side. Above the high watermark it stops reading from
+// the other side until the queue is below the low watermark again, and past the hard limit it
+// closes the connection.
+//
+// Server to client, the upstream's read thread is owned by the connection and simply waits, for
+// at most the maximum wait. Nothing more is queued to the client meanwhile, so a client that
+// stopped reading would never reach the hard limit and is closed once the wait runs out instead.
+// Client to server, reads share the server's selector thread, so the client's selection key stops
+// asking for OP_READ and a scheduler checks the upstream queue until it has drained. The selector
+// turns reads back on whenever it writes to the client, so the pause is asserted again on every
+// check and on every frame that still gets through.
+public class Backpressure implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(Backpressure.class);
+
+    static final long CHECK_INTERVAL_MS = 10;
+
+    private final long highWatermark;
+    private final long lowWatermark;
+    private final long maxBytes;
+    private final long maxWaitNanos;
+    private final ProxyMetrics metrics;
+    private final ScheduledExecutorService scheduler;
+
+    public Backpressure(long highWatermark, long lowWatermark, long maxBytes, long maxWaitMs, ProxyMetrics metrics) {
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.maxBytes = maxBytes;
+        this.maxWaitNanos = maxWaitMs * 1_000_000L;
+        this.metrics = metrics;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "backpressure");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("Backpressure enabled (high watermark: {} bytes, low watermark: {} bytes, limit: {} bytes, 0 = no limit, "
+            + "client drain wait: {}ms)", highWatermark, lowWatermark, maxBytes, maxWaitMs);
+    }
+
+    public Flow open(int connectionId, WebSocket client) {
+        return new Flow(connectionId, client);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    // Payload bytes the proxy queued on a WebSocket that the socket has not taken yet. The library
+    // queues one buffer per frame and removes it once written, without a callback, so the sizes of
+    // the frames sent through here are kept in order and those beyond the queue's length are gone.
+    // Frames the library queues on its own, such as pongs, make the count err on the high side
+    // until the queue runs empty.
+    private static class OutboundBuffer {
+        private final WebSocketImpl socket;
+        private final ArrayDeque<Integer> frames = new ArrayDeque<>();
+        private long bytes;
+
+        OutboundBuffer(WebSocketImpl socket) {
+            this.socket = socket;
+        }
+
+        synchronized long add(int frameBytes) {
+            frames.addLast(frameBytes);
+            bytes += frameBytes;
+            return getBytes();
+        }
+
+        synchronized long getBytes() {
+            int queued = socket.outQueue.size();
+            while (frames.size() > queued) {
+                bytes -= frames.removeFirst();
+            }
+            return bytes;
+        }
+    }
+
+    // The flow control of one proxied connection
+    public class Flow {
+        private final int connectionId;
+        private final WebSocket client;
+        private final OutboundBuffer toClient;
+        private volatile WebSocket upstream;
+        private volatile OutboundBuffer toUpstream;
+
+        // Guarded by this
+        private boolean clientPaused = false;
+        private long clientPausedSince;
+        private ScheduledFuture<?> resumeCheck;
+
+        Flow(int connectionId, WebSocket client) {
+            this.connectionId = connectionId;
+            this.client = client;
+            this.toClient = client instanceof WebSocketImpl ? new OutboundBuffer((WebSocketImpl) client) : null;
+        }
+
+        public void setUpstream(WebSocket upstream) {
+            this.upstream = upstream;
+            this.toUpstream = upstream instanceof WebSocketImpl ? new OutboundBuffer((WebSocketImpl) upstream) : null;
+        }
+
+        // After a frame was queued to the upstream; false once the hard limit is exceeded
+        public boolean sentToUpstream(int bytes) {
+            OutboundBuffer buffer = toUpstream;
+            if (buffer == null) {
+                return true;
+            }
+            long buffered = buffer.add(bytes);
+            if (maxBytes > 0 && buffered > maxBytes) {
+                metrics.recordBackpressureClose(true);
+                return false;
+            }
+            if (buffered > highWatermark) {
+                pauseClient();
+            }
+            return true;
+        }
+
+        // After a frame was queued to the client; waits on the upstream's read thread until the
+        // client has drained to the low watermark. False once the hard limit is exceeded or the
+        // client has not drained within the maximum wait.
+        public boolean sentToClient(int bytes) {
+            if (toClient == null) {
+                return true;
+            }
+            long buffered = toClient.add(bytes);
+            if (maxBytes > 0 && buffered > maxBytes) {
+                metrics.recordBackpressureClose(false);
+                return false;
+            }
+            if (buffered <= highWatermark) {
+                return true;
+            }
+
+            long start = System.nanoTime();
+            metrics.recordBackpressurePause(false);
+            logger.debug("Connection #{}: {} bytes queued to the client, pausing upstream reads", connectionId, buffered);
+            try {
+                while (client.isOpen() && toClient.getBytes() > lowWatermark) {
+                    if (System.nanoTime() - start > maxWaitNanos) {
+                        metrics.recordBackpressureClose(false);
+                        return false;
+                    }
+                    Thread.sleep(CHECK_INTERVAL_MS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                metrics.recordBackpressureResume(false, System.nanoTime() - start);
+            }
+            return true;
+        }
+
+        private synchronized void pauseClient() {
+            setClientReads(false);
+            if (clientPaused) {
+                return;
+            }
+            clientPaused = true;
+            clientPausedSince = System.nanoTime();
+            metrics.recordBackpressurePause(true);
+            logger.debug("Connection #{}: upstream not keeping up, pausing client reads", connectionId);
+            try {
+                resumeCheck = scheduler.scheduleWithFixedDelay(this::checkResume, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS,
+                    TimeUnit.MILLISECONDS);
+            } catch (RuntimeException e) {
+                // Shutting down
+                resumeClient();
+            }
+        }
+
+        private synchronized void checkResume() {
+            if (!clientPaused) {
+                return;
+            }
+            WebSocket current = upstream;
+            OutboundBuffer buffer = toUpstream;
+            if (!client.isOpen() || current == null || !current.isOpen() || buffer.getBytes() <= lowWatermark) {
+                resumeClient();
+            } else {
+                setClientReads(false);
+            }
+        }
+
+        private synchronized void resumeClient() {
+            if (!clientPaused) {
+                return;
+            }
+            clientPaused = false;
+            if (resumeCheck != null) {
+                resumeCheck.cancel(false);
+                resumeCheck = null;
+            }
+            setClientReads(true);
+            metrics.recordBackpressureResume(true, System.nanoTime() - clientPausedSince);
+        }
+
+        private void setClientReads(boolean enabled) {
+            if (!(client instanceof WebSocketImpl)) {
+                return;
+            }
+            SelectionKey key = ((WebSocketImpl) client).getSelectionKey();
+            if (key == null || !key.isValid()) {
+                return;
+            }
+            try {
+                if (enabled) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                    key.selector().wakeup();
+                } else {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                }
+            } catch (CancelledKeyException e) {
+                // Closed meanwhile
+            }
+        }
+
+        public void close() {
+            resumeClient();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.websocket.proxy;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// One record read back from a binary session log
+public class BinaryLogEntry {
+    private final long timeNanos;
+    private final int connectionId;
+    private final byte direction;
+    private final byte opcode;
+    private final byte[] payload;
+
+    BinaryLogEntry(long timeNanos, int connectionId, byte direction, byte opcode, byte[] payload) {
+        this.timeNanos = timeNanos;
+        this.connectionId = connectionId;
+        this.direction = direction;
+        this.opcode = opcode;
+        this.payload = payload;
+    }
+
+    public long getTimeNanos() {
+        return timeNanos;
+    }
+
+    public long getTimeMillis() {
+        return timeNanos / 1_000_000L;
+    }
+
+    public int getConnectionId() {
+        return connectionId;
+    }
+
+    public byte getDirectionCode() {
+        return direction;
+    }
+
+    // CLIENT_TO_SERVER, SERVER_TO_CLIENT or EVENT, as in the text logs
+    public String getDirection() {
+        return BinaryLogFormat.directionName(direction);
+    }
+
+    public byte getOpcode() {
+        return opcode;
+    }
+
+    public boolean isEvent() {
+        return direction == BinaryLogFormat.DIRECTION_EVENT;
+    }
+
+    public boolean isText() {
+        return !isEvent() && opcode == BinaryLogFormat.OPCODE_TEXT;
+    }
+
+    public boolean isBinary() {
+        return !isEvent() && opcode == BinaryLogFormat.OPCODE_BINARY;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public ByteBuffer getPayloadBuffer() {
+        return ByteBuffer.wrap(payload).asReadOnlyBuffer();
+    }
+
+    public String getText() {
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    public String getEventType() {
+        int length = eventTypeLength();
+        return new String(payload, 2, length, StandardCharsets.UTF_8);
+    }
+
+    public String getEventDescription() {
+        int offset = 2 + eventTypeLength();
+        return new String(payload, offset, payload.length - offset, StandardCharsets.UTF_8);
+    }
+
+    private int eventTypeLength() {
+        if (!isEvent()) {
+            throw new IllegalStateException("Not an event record");
+        }
+        return ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF);
+    }
+}
@@ -0,0 +1,80 @@
+package com.websocket.proxy;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+// Layout of the compact session log, shared by BinaryLogWriter and BinaryLogReader.
+//
+// File:   MAGIC (8 bytes), then records until end of file
+// Record: int32 length of the rest of the record
+//         int64 epoch nanoseconds
+//         int32 connection id
+//         int8  direction (CLIENT_TO_SERVER, SERVER_TO_CLIENT or EVENT)
+//         int8  WebSocket opcode (text or binary)
+//         payload bytes; for events a uint16 type length, the type and the description, all UTF-8
+//
+// Sharded logs, and with --log-index also binary and raw text logs, have a sidecar index (.idx)
+// per segment, written by LogIndexWriter. It is sparse: records are grouped into blocks of about
+// INDEX_BLOCK_BYTES of log, and only blocks are indexed.
+//
+// Index:  INDEX_MAGIC (8 bytes), then one entry per block
+// Entry:  int64 offset of the block's first record in the log segment
+//         int64 length of the block in bytes
+//         int64 epoch nanoseconds of the first and of the last record (two fields)
+//         int32 number of records
+//         int32 number of connections, followed by their ids as int32
+//         int32 number of JSON-RPC methods, followed by the methods as strings
+//         int32 number of JSON-RPC ids, followed by the ids as strings, in their JSON form
+//                 (1 or "abc")
+// A string is a uint16 length and UTF-8 bytes. A block with more than INDEX_MAX_KEYS methods or
+// ids stores -1 instead of the list, and may contain any.
+//
+// Blocks follow each other without gaps. Records after the last block, e.g. after a crash,
+// are not in the index and have to be read sequentially.
+//
+// All integers are big-endian.
+public final class BinaryLogFormat {
+    public static final byte[] MAGIC = "WSPXLOG\u0001".getBytes(StandardCharsets.US_ASCII);
+    public static final byte[] INDEX_MAGIC = "WSPXIDX\u0002".getBytes(StandardCharsets.US_ASCII);
+
+    public static final int RECORD_HEADER_SIZE = 8 + 4 + 1 + 1;
+    public static final int INDEX_BLOCK_BYTES = 65536;
+    public static final int INDEX_MAX_KEYS = 1024;
+
+    public static final byte DIRECTION_CLIENT_TO_SERVER = 0;
+    public static final byte DIRECTION_SERVER_TO_CLIENT = 1;
+    public static final byte DIRECTION_EVENT = 2;
+
+    public static final byte OPCODE_TEXT = 0x01;
+    public static final byte OPCODE_BINARY = 0x02;
+
+    private BinaryLogFormat() {
+    }
+
+    public static byte directionCode(String direction) {
+        if ("CLIENT_TO_SERVER".equals(direction)) {
+            return DIRECTION_CLIENT_TO_SERVER;
+        } else if ("SERVER_TO_CLIENT".equals(direction)) {
+            return DIRECTION_SERVER_TO_CLIENT;
+        }
+        throw new IllegalArgumentException("Unknown direction: " + direction);
+    }
+
+    public static String directionName(byte direction) {
+        switch (direction) {
+            case DIRECTION_CLIENT_TO_SERVER:
+                return "CLIENT_TO_SERVER";
+            case DIRECTION_SERVER_TO_CLIENT:
+                return "SERVER_TO_CLIENT";
+            case DIRECTION_EVENT:
+                return "EVENT";
+            default:
+                return "UNKNOWN";
+        }
+    }
+
+    public static long currentTimeNanos() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+}
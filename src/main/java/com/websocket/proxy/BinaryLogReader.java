@@ -0,0 +1,122 @@
+package com.websocket.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+// Streams records out of a binary session log one at a time, without loading the file.
+// Compressed segments (.wslog.gz) are decompressed on the fly.
+public class BinaryLogReader implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(BinaryLogReader.class);
+
+    private final DataInputStream input;
+    private long recordNumber = 0;
+    // Offset of the next record in the uncompressed log
+    private long offset;
+
+    public BinaryLogReader(Path file) throws IOException {
+        this(open(file));
+    }
+
+    static InputStream open(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        if (file.getFileName().toString().endsWith(".gz")) {
+            return new GZIPInputStream(in, 65536);
+        }
+        return in;
+    }
+
+    public BinaryLogReader(InputStream in) throws IOException {
+        this.input = new DataInputStream(new BufferedInputStream(in, 65536));
+        byte[] magic = new byte[BinaryLogFormat.MAGIC.length];
+        try {
+            input.readFully(magic);
+        } catch (EOFException e) {
+            throw new IOException("Not a binary session log: file too short");
+        }
+        if (!Arrays.equals(magic, BinaryLogFormat.MAGIC)) {
+            throw new IOException("Not a binary session log: bad magic");
+        }
+        this.offset = magic.length;
+    }
+
+    public static boolean isBinaryLog(Path file) {
+        byte[] magic = new byte[BinaryLogFormat.MAGIC.length];
+        try (InputStream in = open(file)) {
+            int read = in.readNBytes(magic, 0, magic.length);
+            return read == magic.length && Arrays.equals(magic, BinaryLogFormat.MAGIC);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Returns null at end of file. A record cut short by a crash ends the stream with a warning.
+    public BinaryLogEntry next() throws IOException {
+        int length;
+        try {
+            length = input.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+
+        if (length < BinaryLogFormat.RECORD_HEADER_SIZE) {
+            throw new IOException("Corrupt record " + (recordNumber + 1) + ": length " + length);
+        }
+
+        try {
+            long timeNanos = input.readLong();
+            int connectionId = input.readInt();
+            byte direction = input.readByte();
+            byte opcode = input.readByte();
+            byte[] payload = new byte[length - BinaryLogFormat.RECORD_HEADER_SIZE];
+            input.readFully(payload);
+            recordNumber++;
+            offset += 4 + length;
+            return new BinaryLogEntry(timeNanos, connectionId, direction, opcode, payload);
+        } catch (EOFException e) {
+            logger.warn("Binary session log ends with a truncated record after record {}", recordNumber);
+            return null;
+        }
+    }
+
+    // Skips forward to the record at this offset, e.g. the start of an index block. Plain files
+    // seek, compressed ones are decompressed up to the offset.
+    public void skipTo(long target) throws IOException {
+        if (target < offset) {
+            throw new IOException("Cannot skip back from offset " + offset + " to " + target);
+        }
+        while (offset < target) {
+            long skipped = input.skip(target - offset);
+            if (skipped <= 0) {
+                if (input.read() < 0) {
+                    throw new EOFException("Offset " + target + " is past the end of the log");
+                }
+                skipped = 1;
+            }
+            offset += skipped;
+        }
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    // 1-based number of the last record returned by next()
+    public long getRecordNumber() {
+        return recordNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
@@ -0,0 +1,116 @@
+package com.websocket.proxy;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Writes length-prefixed records in BinaryLogFormat. Not thread-safe: SessionLogger
+// serializes access under its own lock. Each segment of a rolling file starts with the magic,
+// so BinaryLogReader reads every segment on its own. With an index, every record is also passed
+// to the LogIndexWriter, whose file rolls over together with the log.
+public class BinaryLogWriter implements AutoCloseable {
+    private final RollingFile file;
+    private final LogIndexWriter index;
+    private final DataOutputStream output;
+    private final byte[] scratch = new byte[8192];
+    // Offset of the next record in the current segment
+    private long offset;
+
+    public BinaryLogWriter(String filename) throws IOException {
+        this(new LogStorage().open(filename, false), null);
+    }
+
+    public BinaryLogWriter(RollingFile file, LogIndexWriter index) throws IOException {
+        this.file = file;
+        this.index = index;
+        this.output = new DataOutputStream(new BufferedOutputStream(file, 65536));
+        output.write(BinaryLogFormat.MAGIC);
+        this.offset = BinaryLogFormat.MAGIC.length;
+    }
+
+    public void writeText(long timeNanos, int connectionId, byte direction, byte[] payload) throws IOException {
+        writeText(timeNanos, connectionId, direction, payload, null, null);
+    }
+
+    // Method and id are the JSON-RPC keys of the frame for the index, null when there are none
+    public void writeText(long timeNanos, int connectionId, byte direction, byte[] payload,
+                          String method, String id) throws IOException {
+        writeHeader(timeNanos, connectionId, direction, BinaryLogFormat.OPCODE_TEXT, payload.length, method, id);
+        output.write(payload);
+        maybeRoll();
+    }
+
+    public void writeBinary(long timeNanos, int connectionId, byte direction, ByteBuffer payload) throws IOException {
+        ByteBuffer data = payload.duplicate();
+        writeHeader(timeNanos, connectionId, direction, BinaryLogFormat.OPCODE_BINARY, data.remaining(), null, null);
+        if (data.hasArray()) {
+            output.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        } else {
+            while (data.hasRemaining()) {
+                int chunk = Math.min(scratch.length, data.remaining());
+                data.get(scratch, 0, chunk);
+                output.write(scratch, 0, chunk);
+            }
+        }
+        maybeRoll();
+    }
+
+    public void writeEvent(long timeNanos, int connectionId, String eventType, String description) throws IOException {
+        byte[] type = eventType.getBytes(StandardCharsets.UTF_8);
+        byte[] text = description != null ? description.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        writeHeader(timeNanos, connectionId, BinaryLogFormat.DIRECTION_EVENT, BinaryLogFormat.OPCODE_TEXT,
+            2 + type.length + text.length, null, null);
+        output.writeShort(type.length);
+        output.write(type);
+        output.write(text);
+        maybeRoll();
+    }
+
+    // The size check leaves out what is still buffered, so segments end up to a buffer larger
+    private void maybeRoll() throws IOException {
+        if (file.shouldRoll(0)) {
+            output.flush();
+            file.roll();
+            output.write(BinaryLogFormat.MAGIC);
+            offset = BinaryLogFormat.MAGIC.length;
+            if (index != null) {
+                index.roll();
+            }
+        }
+    }
+
+    private void writeHeader(long timeNanos, int connectionId, byte direction, byte opcode,
+                             int payloadLength, String method, String id) throws IOException {
+        long length = 4 + BinaryLogFormat.RECORD_HEADER_SIZE + payloadLength;
+        if (index != null) {
+            index.record(offset, length, timeNanos, connectionId, method, id);
+        }
+        offset += length;
+        output.writeInt(BinaryLogFormat.RECORD_HEADER_SIZE + payloadLength);
+        output.writeLong(timeNanos);
+        output.writeInt(connectionId);
+        output.writeByte(direction);
+        output.writeByte(opcode);
+    }
+
+    public boolean hasIndex() {
+        return index != null;
+    }
+
+    public void flush() throws IOException {
+        output.flush();
+        if (index != null) {
+            index.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        output.close();
+        if (index != null) {
+            index.close();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.websocket.proxy;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Traffic counters for a single proxied connection, also folded into the global ProxyMetrics
+public class ConnectionMetrics {
+    private final int connectionId;
+    private final long openedAt = System.currentTimeMillis();
+
+    private final LongAdder clientToServerFrames = new LongAdder();
+    private final LongAdder clientToServerBytes = new LongAdder();
+    private final LongAdder serverToClientFrames = new LongAdder();
+    private final LongAdder serverToClientBytes = new LongAdder();
+
+    ConnectionMetrics(int connectionId) {
+        this.connectionId = connectionId;
+    }
+
+    void recordClientToServer(int bytes) {
+        clientToServerFrames.increment();
+        clientToServerBytes.add(bytes);
+    }
+
+    void recordServerToClient(int bytes) {
+        serverToClientFrames.increment();
+        serverToClientBytes.add(bytes);
+    }
+
+    public int getConnectionId() {
+        return connectionId;
+    }
+
+    public long getOpenedAt() {
+        return openedAt;
+    }
+
+    public long getClientToServerFrames() {
+        return clientToServerFrames.sum();
+    }
+
+    public long getClientToServerBytes() {
+        return clientToServerBytes.sum();
+    }
+
+    public long getServerToClientFrames() {
+        return serverToClientFrames.sum();
+    }
+
+    public long getServerToClientBytes() {
+        return serverToClientBytes.sum();
+    }
+
+    public String summary() {
+        return String.format("duration %dms, client->server %d frames / %d bytes, server->client %d frames / %d bytes",
+            System.currentTimeMillis() - openedAt,
+            getClientToServerFrames(), getClientToServerBytes(),
+            getServerToClientFrames(), getServerToClientBytes());
+    }
+}
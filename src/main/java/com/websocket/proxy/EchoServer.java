@@ -0,0 +1,85 @@
+package com.websocket.proxy;
+
+import org.apache.commons.cli.*;
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+// Minimal upstream that sends every frame straight back, used for load tests and benchmarks
+public class EchoServer extends WebSocketServer {
+    private static final Logger logger = LoggerFactory.getLogger(EchoServer.class);
+
+    public EchoServer(InetSocketAddress address) {
+        super(address);
+        setReuseAddr(true);
+        setTcpNoDelay(true);
+    }
+
+    @Override
+    public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        logger.debug("Echo connection from {}", conn.getRemoteSocketAddress());
+    }
+
+    @Override
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        logger.debug("Echo connection closed: {} - {}", code, reason);
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, String message) {
+        conn.send(message);
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+        conn.send(message);
+    }
+
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
+        logger.warn("Echo server error", ex);
+    }
+
+    @Override
+    public void onStart() {
+        logger.info("Echo server started on: {}", getAddress());
+    }
+
+    public static void main(String[] args) {
+        Options options = new Options();
+
+        Option port = new Option("p", "port", true, "Port to listen on");
+        port.setRequired(true);
+        options.addOption(port);
+
+        CommandLineParser parser = new DefaultParser();
+        HelpFormatter formatter = new HelpFormatter();
+        CommandLine cmd;
+
+        try {
+            cmd = parser.parse(options, args);
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            formatter.printHelp("echo-server", options);
+            System.exit(1);
+            return;
+        }
+
+        EchoServer server = new EchoServer(new InetSocketAddress("0.0.0.0",
+            Integer.parseInt(cmd.getOptionValue("port"))));
+        server.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.stop(1000);
+            } catch (InterruptedException e) {
+                logger.error("Error during shutdown", e);
+            }
+        }));
+    }
+}
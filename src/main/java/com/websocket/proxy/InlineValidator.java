@@ -0,0 +1,151 @@
+package com.websocket.proxy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Validates text frames against the SchemaValidator's schemas while the proxy forwards them, so
+// no second pass over the logs is needed. Frames are parsed and validated on a fixed pool of
+// threads behind a bounded queue; when the queue is full a frame is counted as dropped instead of
+// holding up forwarding. Results go to the metrics, and frames that match no schema to
+// session_<id>_validation.log in the raw log layout, each after an event line naming the error
+// type, so the file can be validated and queried again like a raw log.
+// One instance per proxy, shared by all connections.
+public class InlineValidator implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(InlineValidator.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final SchemaValidator validator;
+    private final ThreadPoolExecutor executor;
+    private final ProxyMetrics metrics;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock
+    private final RollingFile errorLogFile;
+    private final PrintWriter errorLog;
+    private final SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+    public InlineValidator(Path schemaDirectory, int threads, int queueSize, String errorLogPath,
+                           LogStorage logStorage, ProxyMetrics metrics) throws IOException {
+        this.metrics = metrics;
+        this.validator = new SchemaValidator(schemaDirectory, false, metrics);
+        validator.prepareConcurrentValidation();
+        this.errorLogFile = logStorage.open(errorLogPath, true);
+        this.errorLog = new PrintWriter(new OutputStreamWriter(errorLogFile, StandardCharsets.UTF_8));
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueSize), ThreadSupport.threadFactory("schema-validator"));
+        logger.info("Validating forwarded messages against {} schemas ({} threads, queue {})",
+            validator.getSchemaCount(), threads, queueSize);
+    }
+
+    public void submit(int connectionId, String direction, String message) {
+        long timeMillis = System.currentTimeMillis();
+        try {
+            executor.execute(() -> validate(timeMillis, connectionId, direction, message));
+        } catch (RejectedExecutionException e) {
+            metrics.recordInlineDropped();
+        }
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    private void validate(long timeMillis, int connectionId, String direction, String message) {
+        if (!isPotentialJson(message)) {
+            metrics.recordInlineSkipped();
+            return;
+        }
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(message);
+        } catch (IOException e) {
+            metrics.recordInlineSkipped();
+            return;
+        }
+
+        String errorType;
+        try {
+            errorType = validator.validateInline(node, direction);
+        } catch (RuntimeException e) {
+            logger.warn("Schema validation failed on connection #{}", connectionId, e);
+            metrics.recordInlineSkipped();
+            return;
+        }
+        if (errorType == null) {
+            metrics.recordInlineValid();
+            return;
+        }
+        if ("PARTIAL_MATCH".equals(errorType)) {
+            metrics.recordInlinePartial();
+        } else {
+            metrics.recordInlineInvalid();
+        }
+        writeError(timeMillis, connectionId, direction, errorType, message);
+    }
+
+    // Cheap check that keeps plain text frames away from the JSON parser
+    private static boolean isPotentialJson(String message) {
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return c == '{' || c == '[';
+            }
+        }
+        return false;
+    }
+
+    private void writeError(long timeMillis, int connectionId, String direction, String errorType, String message) {
+        lock.lock();
+        try {
+            if (!errorLogFile.isOpen()) {
+                return;
+            }
+            String timestamp = timestampFormat.format(new Date(timeMillis));
+            errorLog.printf("[%s] [CONN_%d] [EVENT] [%s] %s%n", timestamp, connectionId, errorType, direction);
+            errorLog.printf("[%s] [CONN_%d] [%s] %s%n", timestamp, connectionId, direction, message);
+            errorLog.flush();
+            if (errorLogFile.shouldRoll(0)) {
+                errorLogFile.roll();
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to roll over validation error log", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Validates what is already queued before closing the error log
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warn("Inline validation still running at shutdown, {} messages left", getQueueDepth());
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            errorLog.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
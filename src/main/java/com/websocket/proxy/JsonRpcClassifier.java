@@ -0,0 +1,542 @@
+package com.websocket.proxy;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+// Classifies text frames for the JSON session log in a single token pass, without building a
+// JsonNode tree. Envelope fields (method, id, params, result, error code/message/data) are captured
+// as compact JSON on the way through, while the whole value is copied to a pretty printer.
+//
+// A frame holding an incomplete object or array is kept in a non-blocking parser and continued
+// by the following frames, so a message split across frames is parsed once rather than re-parsed
+// from the start for every fragment. A frame that cannot continue the pending value is a syntax
+// error there; the fragments are then discarded and the frame is parsed on its own. So is a frame
+// holding a whole object or array by itself, even where it could continue the pending value, so
+// that a truncated fragment does not swallow the messages after it. A fragmented
+// message growing past the size limit is still parsed to find where it ends, but nothing more of
+// it is kept and it is counted as an overflow instead of being logged.
+// Not thread-safe; SessionLogger keeps one per direction and calls it under its lock.
+public class JsonRpcClassifier {
+    private static final Logger logger = LoggerFactory.getLogger(JsonRpcClassifier.class);
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private final int maxMessageBytes;
+    private final ProxyMetrics metrics;
+    private Pass pending;
+
+    public JsonRpcClassifier(int maxMessageBytes, ProxyMetrics metrics) {
+        this.maxMessageBytes = maxMessageBytes;
+        this.metrics = metrics;
+    }
+
+    // Returns the envelope of the JSON value completed by this frame, or null if there is none (yet)
+    public Envelope classify(byte[] frame) {
+        if (pending != null && Pass.startsContainer(frame)) {
+            Pass whole = Pass.start(frame);
+            if (whole.status == Status.COMPLETE && whole.endsWithFrame()) {
+                metrics.recordJsonFragmentsDiscarded(pending.bytes);
+                pending = null;
+                return whole.envelope;
+            }
+        }
+        if (pending != null) {
+            Status continued = pending.feed(frame);
+            if (continued == Status.COMPLETE) {
+                Pass reassembled = pending;
+                pending = null;
+                if (reassembled.overflowed) {
+                    logger.warn("Fragmented JSON message of {} bytes exceeds the {} byte limit, not logged as JSON",
+                        reassembled.bytes, maxMessageBytes);
+                    metrics.recordJsonReassemblyOverflow(reassembled.bytes);
+                    return null;
+                }
+                metrics.recordJsonReassembled();
+                return reassembled.envelope;
+            } else if (continued == Status.INCOMPLETE) {
+                if (pending.bytes > maxMessageBytes) {
+                    pending.overflow();
+                }
+                return null;
+            }
+            // Not a continuation: drop the fragments and start over with this frame
+            metrics.recordJsonFragmentsDiscarded(pending.bytes - frame.length);
+            pending = null;
+        }
+
+        Pass standalone = Pass.start(frame);
+        if (standalone.status == Status.COMPLETE) {
+            return standalone.envelope;
+        } else if (standalone.status == Status.INCOMPLETE) {
+            pending = standalone;
+            if (frame.length > maxMessageBytes) {
+                pending.overflow();
+            }
+        }
+        return null;
+    }
+
+    // Root fields of a complete frame without the pretty copy or the captured params and results,
+    // enough for isJsonRpc, isRequest, getMethod and getId. Null when the frame is not a JSON object.
+    public static Envelope peek(byte[] frame) {
+        try (JsonParser parser = jsonFactory.createParser(frame)) {
+            return peek(parser);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // The same for a frame still held as a String, read in place rather than encoded first
+    public static Envelope peek(String frame) {
+        try (JsonParser parser = jsonFactory.createParser(frame)) {
+            return peek(parser);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static Envelope peek(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return null;
+        }
+        Envelope envelope = new Envelope();
+        envelope.rootObject = true;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken token = parser.nextToken();
+            switch (name) {
+                case "jsonrpc":
+                    envelope.hasJsonrpc = true;
+                    break;
+                case "method":
+                    envelope.hasMethod = true;
+                    envelope.method = token.isStructStart() ? "" : parser.getText();
+                    break;
+                case "id":
+                    envelope.hasId = true;
+                    StringWriter id = new StringWriter();
+                    try (JsonGenerator generator = jsonFactory.createGenerator(id)) {
+                        generator.copyCurrentStructure(parser);
+                    }
+                    envelope.id = id.toString();
+                    continue;
+                case "result":
+                    envelope.hasResult = true;
+                    break;
+                case "error":
+                    envelope.hasError = true;
+                    break;
+                default:
+                    break;
+            }
+            parser.skipChildren();
+        }
+        return envelope;
+    }
+
+    // What the session log prints for a JSON value; the has* flags mirror JsonNode.has on the root
+    public static class Envelope {
+        private boolean rootObject;
+        private boolean hasJsonrpc;
+        private boolean hasMethod;
+        private boolean hasId;
+        private boolean hasParams;
+        private boolean hasResult;
+        private boolean hasError;
+        private boolean errorObject;
+        private boolean hasErrorCode;
+        private boolean hasErrorMessage;
+        private boolean hasErrorData;
+        private String method;
+        private String id;
+        private String params;
+        private String result;
+        private int errorCode;
+        private String errorMessage;
+        private String errorData;
+        private String prettyJson;
+
+        public boolean isJsonRpc() {
+            return rootObject && hasJsonrpc && (hasMethod || hasResult || hasError);
+        }
+
+        public boolean isRequest() {
+            return hasMethod;
+        }
+
+        public boolean isResponse() {
+            return !hasMethod && hasResult;
+        }
+
+        public boolean isError() {
+            return !hasMethod && !hasResult && hasError;
+        }
+
+        public boolean hasId() {
+            return hasId;
+        }
+
+        public boolean hasParams() {
+            return hasParams;
+        }
+
+        public boolean hasErrorCode() {
+            return errorObject && hasErrorCode;
+        }
+
+        public boolean hasErrorMessage() {
+            return errorObject && hasErrorMessage;
+        }
+
+        public boolean hasErrorData() {
+            return errorObject && hasErrorData;
+        }
+
+        // Text value of method, as JsonNode.asText
+        public String getMethod() {
+            return method;
+        }
+
+        // Compact JSON of the id
+        public String getId() {
+            return id;
+        }
+
+        public String getParams() {
+            return params;
+        }
+
+        public String getResult() {
+            return result;
+        }
+
+        // As JsonNode.asInt: 0 for anything that is not a number or numeric string
+        public int getErrorCode() {
+            return errorCode;
+        }
+
+        public String getErrorMessage() {
+            return errorMessage;
+        }
+
+        public String getErrorData() {
+            return errorData;
+        }
+
+        public String getPrettyJson() {
+            return prettyJson;
+        }
+    }
+
+    private enum Status {
+        COMPLETE, INCOMPLETE, FAILED
+    }
+
+    // One value being parsed, possibly over several frames
+    private static class Pass {
+        private final JsonParser parser;
+        private final ByteArrayFeeder feeder;
+        private final StringWriter prettyOut = new StringWriter();
+        private final JsonGenerator pretty;
+        private final Envelope envelope = new Envelope();
+        private Status status;
+        private long bytes;
+        private boolean overflowed;
+        private int depth;
+        private String rootField;
+        private String errorField;
+        private boolean inErrorObject;
+        // Compact copy of the envelope value currently being read
+        private final StringWriter captureOut = new StringWriter();
+        private JsonGenerator capture;
+        private String captureKey;
+        private int captureDepth;
+
+        private Pass(JsonParser parser, ByteArrayFeeder feeder) throws IOException {
+            this.parser = parser;
+            this.feeder = feeder;
+            this.pretty = jsonFactory.createGenerator(prettyOut);
+            this.pretty.setPrettyPrinter(new DefaultPrettyPrinter());
+        }
+
+        static Pass start(byte[] frame) {
+            try {
+                // Only objects and arrays are continued in later frames. A scalar ends with its frame
+                // and goes through the blocking parser, which insists on whitespace after a root number.
+                if (startsContainer(frame)) {
+                    JsonParser parser = jsonFactory.createNonBlockingByteArrayParser();
+                    Pass pass = new Pass(parser, (ByteArrayFeeder) parser.getNonBlockingInputFeeder());
+                    pass.status = pass.feed(frame);
+                    return pass;
+                }
+                Pass pass = new Pass(jsonFactory.createParser(frame), null);
+                pass.bytes = frame.length;
+                pass.status = pass.readTokens();
+                return pass;
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static boolean startsContainer(byte[] frame) {
+            for (byte b : frame) {
+                if (b == '{' || b == '[') {
+                    return true;
+                } else if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        Status feed(byte[] frame) {
+            try {
+                feeder.feedInput(frame, 0, frame.length);
+            } catch (IOException e) {
+                return Status.FAILED;
+            }
+            bytes += frame.length;
+            return readTokens();
+        }
+
+        private Status readTokens() {
+            try {
+                JsonToken token;
+                while ((token = parser.nextToken()) != null) {
+                    if (token == JsonToken.NOT_AVAILABLE) {
+                        return Status.INCOMPLETE;
+                    }
+                    handle(token);
+                    if (depth == 0) {
+                        if (!overflowed) {
+                            pretty.flush();
+                            envelope.prettyJson = prettyOut.toString();
+                        }
+                        return Status.COMPLETE;
+                    }
+                }
+                return Status.FAILED;
+            } catch (IOException e) {
+                return Status.FAILED;
+            }
+        }
+
+        // Whether nothing but whitespace follows the completed value; the pass cannot be fed after this
+        boolean endsWithFrame() {
+            try {
+                if (feeder != null) {
+                    feeder.endOfInput();
+                }
+                JsonToken token = parser.nextToken();
+                // Trailing whitespace is skipped with one NOT_AVAILABLE before the end
+                if (token == JsonToken.NOT_AVAILABLE) {
+                    token = parser.nextToken();
+                }
+                return token == null;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        // Keep only the nesting depth from here on, enough to see where the value ends
+        void overflow() {
+            overflowed = true;
+            capture = null;
+            prettyOut.getBuffer().setLength(0);
+            prettyOut.getBuffer().trimToSize();
+        }
+
+        private void handle(JsonToken token) throws IOException {
+            if (overflowed) {
+                if (token.isStructStart()) {
+                    depth++;
+                } else if (token.isStructEnd()) {
+                    depth--;
+                }
+                return;
+            }
+
+            pretty.copyCurrentEvent(parser);
+
+            if (capture != null) {
+                capture.copyCurrentEvent(parser);
+                if (token.isStructStart()) {
+                    depth++;
+                } else if (token.isStructEnd()) {
+                    depth--;
+                    if (depth == captureDepth) {
+                        endCapture(token);
+                    }
+                }
+                return;
+            }
+
+            if (token == JsonToken.FIELD_NAME) {
+                if (depth == 1) {
+                    rootField = parser.currentName();
+                } else if (depth == 2 && inErrorObject) {
+                    errorField = parser.currentName();
+                }
+                return;
+            }
+
+            if (depth == 0 && token == JsonToken.START_OBJECT) {
+                envelope.rootObject = true;
+            }
+
+            String key = valueKey();
+            if (key != null) {
+                markPresent(key, token);
+            }
+
+            if (token.isStructStart()) {
+                if (depth == 1 && "error".equals(rootField)) {
+                    inErrorObject = token == JsonToken.START_OBJECT;
+                } else if (key != null) {
+                    startCapture(key);
+                }
+                depth++;
+            } else if (token.isStructEnd()) {
+                depth--;
+                if (depth == 1) {
+                    inErrorObject = false;
+                }
+            } else if (key != null && !"error".equals(key)) {
+                startCapture(key);
+                endCapture(token);
+            }
+        }
+
+        // Envelope key of the value starting at the current token, if it is one we keep
+        private String valueKey() {
+            if (depth == 1 && rootField != null) {
+                switch (rootField) {
+                    case "jsonrpc":
+                    case "method":
+                    case "id":
+                    case "params":
+                    case "result":
+                    case "error":
+                        return rootField;
+                    default:
+                        return null;
+                }
+            }
+            if (depth == 2 && inErrorObject && errorField != null) {
+                switch (errorField) {
+                    case "code":
+                    case "message":
+                    case "data":
+                        return "error." + errorField;
+                    default:
+                        return null;
+                }
+            }
+            return null;
+        }
+
+        private void markPresent(String key, JsonToken token) throws IOException {
+            switch (key) {
+                case "jsonrpc":
+                    envelope.hasJsonrpc = true;
+                    break;
+                case "method":
+                    envelope.hasMethod = true;
+                    break;
+                case "id":
+                    envelope.hasId = true;
+                    break;
+                case "params":
+                    envelope.hasParams = true;
+                    break;
+                case "result":
+                    envelope.hasResult = true;
+                    break;
+                case "error":
+                    // A repeated key replaces the earlier value, as in a tree
+                    envelope.hasError = true;
+                    envelope.errorObject = token == JsonToken.START_OBJECT;
+                    envelope.hasErrorCode = false;
+                    envelope.hasErrorMessage = false;
+                    envelope.hasErrorData = false;
+                    envelope.errorCode = 0;
+                    break;
+                case "error.code":
+                    envelope.hasErrorCode = true;
+                    envelope.errorCode = asInt(token);
+                    break;
+                case "error.message":
+                    envelope.hasErrorMessage = true;
+                    break;
+                case "error.data":
+                    envelope.hasErrorData = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void startCapture(String key) throws IOException {
+            captureOut.getBuffer().setLength(0);
+            capture = jsonFactory.createGenerator(captureOut);
+            capture.copyCurrentEvent(parser);
+            captureKey = key;
+            captureDepth = depth;
+        }
+
+        private void endCapture(JsonToken lastToken) throws IOException {
+            capture.close();
+            capture = null;
+            String json = captureOut.toString();
+            // JsonNode.asText: the string itself, "" for containers, the JSON text for other scalars
+            String text = lastToken == JsonToken.VALUE_STRING ? parser.getText()
+                : lastToken.isStructEnd() ? "" : json;
+
+            switch (captureKey) {
+                case "method":
+                    envelope.method = text;
+                    break;
+                case "id":
+                    envelope.id = json;
+                    break;
+                case "params":
+                    envelope.params = json;
+                    break;
+                case "result":
+                    envelope.result = json;
+                    break;
+                case "error.message":
+                    envelope.errorMessage = text;
+                    break;
+                case "error.data":
+                    envelope.errorData = json;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private int asInt(JsonToken token) throws IOException {
+            switch (token) {
+                case VALUE_NUMBER_INT:
+                case VALUE_NUMBER_FLOAT:
+                    return parser.getNumberValue().intValue();
+                case VALUE_STRING:
+                    return parser.getValueAsInt(0);
+                case VALUE_TRUE:
+                    return 1;
+                default:
+                    return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,453 @@
+package com.websocket.proxy;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.commons.cli.*;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Drives JSON-RPC or binary echo traffic at a fixed rate and reports latency percentiles.
+// Latency is measured from the intended send time so a stalled proxy is not hidden by
+// the sender falling behind (coordinated omission).
+public class LoadGenerator {
+    private static final Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+
+    private static final String SENT_FIELD = "\"sent\":";
+    private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+
+    public enum Mode {
+        JSONRPC, BINARY
+    }
+
+    private final int connections;
+    private final int rate;
+    private final long warmupSeconds;
+    private final long durationSeconds;
+    private final Mode mode;
+    private final int payloadSize;
+
+    public LoadGenerator(int connections, int rate, long warmupSeconds, long durationSeconds,
+                         Mode mode, int payloadSize) {
+        this.connections = Math.max(1, connections);
+        this.rate = Math.max(1, rate);
+        this.warmupSeconds = Math.max(0, warmupSeconds);
+        this.durationSeconds = Math.max(1, durationSeconds);
+        this.mode = mode;
+        this.payloadSize = Math.max(Long.BYTES, payloadSize);
+    }
+
+    public static class Result {
+        private final String label;
+        private final URI uri;
+        private final Histogram histogram;
+        private final long sent;
+        private final long received;
+        private final double elapsedSeconds;
+
+        Result(String label, URI uri, Histogram histogram, long sent, long received, double elapsedSeconds) {
+            this.label = label;
+            this.uri = uri;
+            this.histogram = histogram;
+            this.sent = sent;
+            this.received = received;
+            this.elapsedSeconds = elapsedSeconds;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public Histogram getHistogram() {
+            return histogram;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+
+        public long getReceived() {
+            return received;
+        }
+
+        public double getThroughput() {
+            return received / elapsedSeconds;
+        }
+
+        void print(PrintStream out) {
+            out.printf("=== %s (%s) ===%n", label, uri);
+            out.printf("Sent: %d  Received: %d  Lost: %d  Throughput: %.1f msg/s%n",
+                sent, received, sent - received, getThroughput());
+            StringBuilder line = new StringBuilder("Latency (us):");
+            for (double percentile : PERCENTILES) {
+                line.append(String.format("  p%s=%.1f", formatPercentile(percentile),
+                    histogram.getValueAtPercentile(percentile) / 1000.0));
+            }
+            line.append(String.format("  max=%.1f", histogram.getMaxValue() / 1000.0));
+            out.println(line);
+        }
+    }
+
+    private class LoadClient extends WebSocketClient {
+        private final Recorder recorder;
+        private final AtomicLong received;
+        private final CountDownLatch ready = new CountDownLatch(1);
+
+        LoadClient(URI uri, Recorder recorder, AtomicLong received) {
+            super(uri);
+            this.recorder = recorder;
+            this.received = received;
+            setTcpNoDelay(true);
+        }
+
+        @Override
+        public void onOpen(ServerHandshake handshake) {
+        }
+
+        @Override
+        public void onMessage(String message) {
+            int index = message.indexOf(SENT_FIELD);
+            if (index < 0) {
+                return;
+            }
+            int start = index + SENT_FIELD.length();
+            int end = start;
+            while (end < message.length() && Character.isDigit(message.charAt(end))) {
+                end++;
+            }
+            record(Long.parseLong(message.substring(start, end)));
+        }
+
+        @Override
+        public void onMessage(ByteBuffer message) {
+            if (message.remaining() >= Long.BYTES) {
+                record(message.getLong(message.position()));
+            }
+        }
+
+        private void record(long sent) {
+            long now = System.nanoTime();
+            // A zero timestamp marks the probe that confirms the end-to-end path is up
+            if (sent == 0) {
+                ready.countDown();
+                return;
+            }
+            recorder.recordValue(Math.max(0, now - sent));
+            received.incrementAndGet();
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+            logger.debug("Load connection closed: {} - {}", code, reason);
+        }
+
+        @Override
+        public void onError(Exception ex) {
+            logger.warn("Load connection error", ex);
+        }
+
+        void sendPayload(long sent, long sequence) {
+            if (mode == Mode.BINARY) {
+                ByteBuffer buffer = ByteBuffer.allocate(payloadSize);
+                buffer.putLong(0, sent);
+                send(buffer);
+            } else {
+                send(jsonRpcMessage(sent, sequence));
+            }
+        }
+
+        boolean awaitReady(long timeoutMs) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            while (System.currentTimeMillis() < deadline) {
+                // Keep probing: a proxy may drop frames sent before its upstream is connected
+                sendPayload(0, 0);
+                if (ready.await(100, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private String jsonRpcMessage(long sent, long sequence) {
+        StringBuilder message = new StringBuilder(payloadSize + 64);
+        message.append("{\"jsonrpc\":\"2.0\",\"method\":\"loadtest.echo\",\"id\":").append(sequence)
+            .append(",\"params\":{").append(SENT_FIELD).append(sent).append(",\"data\":\"");
+        int padding = payloadSize - message.length() - 3;
+        for (int i = 0; i < padding; i++) {
+            message.append('x');
+        }
+        return message.append("\"}}").toString();
+    }
+
+    public Result run(String label, URI uri) throws InterruptedException {
+        Recorder recorder = new Recorder(3);
+        AtomicLong received = new AtomicLong();
+        List<LoadClient> clients = new ArrayList<>(connections);
+
+        try {
+            for (int i = 0; i < connections; i++) {
+                LoadClient client = new LoadClient(uri, recorder, received);
+                if (!client.connectBlocking(10, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("Could not connect to " + uri);
+                }
+                clients.add(client);
+            }
+            for (LoadClient client : clients) {
+                if (!client.awaitReady(10000)) {
+                    throw new IllegalStateException("No echo received from " + uri);
+                }
+            }
+
+            logger.info("{}: {} connections open, warming up for {}s", label, connections, warmupSeconds);
+            drive(clients, warmupSeconds, 0);
+            Thread.sleep(200);
+            recorder.reset();
+            received.set(0);
+
+            logger.info("{}: measuring for {}s at {} msg/s", label, durationSeconds, rate);
+            long start = System.nanoTime();
+            long sent = drive(clients, durationSeconds, 1);
+
+            // Give in-flight messages a chance to come back before taking the histogram
+            long drainDeadline = System.currentTimeMillis() + 5000;
+            while (received.get() < sent && System.currentTimeMillis() < drainDeadline) {
+                Thread.sleep(10);
+            }
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            return new Result(label, uri, recorder.getIntervalHistogram(), sent, received.get(), elapsed);
+        } finally {
+            for (LoadClient client : clients) {
+                client.closeBlocking();
+            }
+        }
+    }
+
+    // Sends at a fixed aggregate rate, round-robin over the connections. Returns the messages sent;
+    // slots of closed connections are skipped and not counted.
+    private long drive(List<LoadClient> clients, long seconds, long firstSequence) {
+        long intervalNs = TimeUnit.SECONDS.toNanos(1) / rate;
+        long total = seconds * rate;
+        long start = System.nanoTime();
+        long sent = 0;
+
+        for (long i = 0; i < total; i++) {
+            long intended = start + i * intervalNs;
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            LoadClient client = clients.get((int) (i % clients.size()));
+            if (client.isOpen()) {
+                client.sendPayload(intended, firstSequence + i);
+                sent++;
+            }
+        }
+        return sent;
+    }
+
+    private static String formatPercentile(double percentile) {
+        return percentile == Math.rint(percentile)
+            ? String.valueOf((long) percentile) : String.valueOf(percentile);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void writeHistogram(File directory, Result result) throws IOException {
+        File file = new File(directory, result.getLabel() + ".hgrm");
+        try (PrintStream out = new PrintStream(file, "UTF-8")) {
+            // Values are recorded in nanoseconds, the distribution is written in microseconds
+            result.getHistogram().outputPercentileDistribution(out, 1000.0);
+        }
+        logger.info("Wrote latency distribution to {}", file);
+    }
+
+    public static void main(String[] args) {
+        Options options = new Options();
+
+        Option target = new Option("t", "target", true, "WebSocket URI of the proxy to load");
+        target.setRequired(false);
+        options.addOption(target);
+
+        Option direct = new Option(null, "direct", true,
+            "WebSocket URI of the upstream, loaded directly to compare against the proxy");
+        direct.setRequired(false);
+        options.addOption(direct);
+
+        Option embedded = new Option("e", "embedded", false,
+            "Start an in-process echo server and proxy instead of using --target/--direct");
+        embedded.setRequired(false);
+        options.addOption(embedded);
+
+        Option connectionsOpt = new Option("c", "connections", true, "Number of connections (default: 10)");
+        connectionsOpt.setRequired(false);
+        options.addOption(connectionsOpt);
+
+        Option rateOpt = new Option("r", "rate", true, "Total messages per second across all connections (default: 1000)");
+        rateOpt.setRequired(false);
+        options.addOption(rateOpt);
+
+        Option duration = new Option("d", "duration", true, "Measurement duration in seconds (default: 30)");
+        duration.setRequired(false);
+        options.addOption(duration);
+
+        Option warmup = new Option("w", "warmup", true, "Warm-up duration in seconds (default: 5)");
+        warmup.setRequired(false);
+        options.addOption(warmup);
+
+        Option modeOpt = new Option("m", "mode", true, "Traffic type: jsonrpc or binary (default: jsonrpc)");
+        modeOpt.setRequired(false);
+        options.addOption(modeOpt);
+
+        Option size = new Option("s", "size", true, "Message size in bytes (default: 128)");
+        size.setRequired(false);
+        options.addOption(size);
+
+        Option histogramDir = new Option("o", "histogram-dir", true,
+            "Directory to write full HdrHistogram percentile distributions (.hgrm)");
+        histogramDir.setRequired(false);
+        options.addOption(histogramDir);
+
+        Option logDir = new Option(null, "log-dir", true,
+            "Session log directory of the embedded proxy (default: a temporary directory)");
+        logDir.setRequired(false);
+        options.addOption(logDir);
+
+        Option asyncLog = new Option(null, "async-log", false, "Use asynchronous session logging in the embedded proxy");
+        asyncLog.setRequired(false);
+        options.addOption(asyncLog);
+
+        CommandLineParser parser = new DefaultParser();
+        HelpFormatter formatter = new HelpFormatter();
+        CommandLine cmd;
+
+        try {
+            cmd = parser.parse(options, args);
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            formatter.printHelp("load-generator", options);
+            System.exit(1);
+            return;
+        }
+
+        if (!cmd.hasOption("embedded") && !cmd.hasOption("target") && !cmd.hasOption("direct")) {
+            System.err.println("Either --embedded, --target or --direct is required");
+            formatter.printHelp("load-generator", options);
+            System.exit(1);
+            return;
+        }
+
+        Mode mode;
+        try {
+            mode = Mode.valueOf(cmd.getOptionValue("mode", "jsonrpc").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid mode: " + cmd.getOptionValue("mode"));
+            System.exit(1);
+            return;
+        }
+
+        LoadGenerator generator = new LoadGenerator(
+            Integer.parseInt(cmd.getOptionValue("connections", "10")),
+            Integer.parseInt(cmd.getOptionValue("rate", "1000")),
+            Long.parseLong(cmd.getOptionValue("warmup", "5")),
+            Long.parseLong(cmd.getOptionValue("duration", "30")),
+            mode,
+            Integer.parseInt(cmd.getOptionValue("size", "128")));
+
+        EchoServer echoServer = null;
+        ProxyServer proxyServer = null;
+        try {
+            URI directUri = cmd.hasOption("direct") ? new URI(cmd.getOptionValue("direct")) : null;
+            URI targetUri = cmd.hasOption("target") ? new URI(cmd.getOptionValue("target")) : null;
+
+            if (cmd.hasOption("embedded")) {
+                int echoPort = freePort();
+                int proxyPort = freePort();
+                String logDirectory = cmd.hasOption("log-dir") ? cmd.getOptionValue("log-dir")
+                    : Files.createTempDirectory("loadtest-logs").toString();
+
+                echoServer = new EchoServer(new InetSocketAddress("127.0.0.1", echoPort));
+                echoServer.start();
+
+                ProxyConfig config = new ProxyConfig();
+                config.setAsyncLogging(cmd.hasOption("async-log"));
+                directUri = new URI("ws://127.0.0.1:" + echoPort + "/");
+                proxyServer = new ProxyServer(new InetSocketAddress("127.0.0.1", proxyPort),
+                    directUri, logDirectory, "loadtest", config);
+                proxyServer.setReuseAddr(true);
+                proxyServer.start();
+                targetUri = new URI("ws://127.0.0.1:" + proxyPort + "/");
+                logger.info("Embedded echo server on {}, proxy on {}, session logs in {}",
+                    echoPort, proxyPort, logDirectory);
+            }
+
+            List<Result> results = new ArrayList<>();
+            if (directUri != null) {
+                results.add(generator.run("direct", directUri));
+            }
+            if (targetUri != null) {
+                results.add(generator.run("proxy", targetUri));
+            }
+
+            System.out.println();
+            for (Result result : results) {
+                result.print(System.out);
+                System.out.println();
+            }
+
+            if (results.size() == 2) {
+                Histogram directHistogram = results.get(0).getHistogram();
+                Histogram proxyHistogram = results.get(1).getHistogram();
+                StringBuilder line = new StringBuilder("Proxy overhead (us):");
+                for (double percentile : PERCENTILES) {
+                    line.append(String.format("  p%s=%+.1f", formatPercentile(percentile),
+                        (proxyHistogram.getValueAtPercentile(percentile)
+                            - directHistogram.getValueAtPercentile(percentile)) / 1000.0));
+                }
+                System.out.println(line);
+            }
+
+            if (cmd.hasOption("histogram-dir")) {
+                File directory = new File(cmd.getOptionValue("histogram-dir"));
+                directory.mkdirs();
+                for (Result result : results) {
+                    writeHistogram(directory, result);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Load test failed", e);
+            System.exit(1);
+        } finally {
+            try {
+                if (proxyServer != null) {
+                    proxyServer.stop(1000);
+                }
+                if (echoServer != null) {
+                    echoServer.stop(1000);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.websocket.proxy;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.commons.cli.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Base64;
+import java.util.Date;
+
+// Converts binary session logs (.wslog) to the text _raw.log layout or to JSON lines. A single
+// connection can be extracted from a sharded log, reading only the blocks its index lists for it.
+public class LogExporter {
+    private static final Logger logger = LoggerFactory.getLogger(LogExporter.class);
+
+    public enum ExportFormat {
+        TEXT, JSONL
+    }
+
+    private final ExportFormat format;
+    private final SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+    public LogExporter(ExportFormat format) {
+        this.format = format;
+    }
+
+    public long export(Path logFile, Writer out) throws IOException {
+        return export(logFile, out, null);
+    }
+
+    // Only the records of one connection, or all of them when connectionId is null
+    public long export(Path logFile, Writer out, Integer connectionId) throws IOException {
+        long records = 0;
+        Path indexFile = connectionId != null ? LogIndex.indexFor(logFile) : null;
+        LogIndex index = indexFile != null ? LogIndex.load(indexFile) : null;
+        try (BinaryLogReader reader = new BinaryLogReader(logFile)) {
+            JsonGenerator generator = format == ExportFormat.JSONL ? new JsonFactory().createGenerator(out) : null;
+            if (generator != null) {
+                generator.setRootValueSeparator(null);
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            }
+
+            if (index != null) {
+                for (LogIndex.Block block : index.getBlocks()) {
+                    if (block.hasConnection(connectionId)) {
+                        reader.skipTo(block.getOffset());
+                        records += exportRecords(reader, block.getEnd(), connectionId, generator, out);
+                    }
+                }
+                // Records written after the last indexed block
+                reader.skipTo(Math.max(reader.getOffset(), index.getIndexedEnd()));
+            }
+            records += exportRecords(reader, Long.MAX_VALUE, connectionId, generator, out);
+
+            if (generator != null) {
+                generator.flush();
+            }
+        }
+        out.flush();
+        return records;
+    }
+
+    private long exportRecords(BinaryLogReader reader, long end, Integer connectionId, JsonGenerator generator,
+                               Writer out) throws IOException {
+        long records = 0;
+        BinaryLogEntry entry;
+        while (reader.getOffset() < end && (entry = reader.next()) != null) {
+            if (connectionId != null && entry.getConnectionId() != connectionId) {
+                continue;
+            }
+            if (generator != null) {
+                writeJson(generator, entry);
+                generator.writeRaw('\n');
+            } else {
+                writeText(out, entry);
+            }
+            records++;
+        }
+        return records;
+    }
+
+    // Same line layout as SessionLogger's _raw.log, so existing tooling can read the output
+    void writeText(Writer out, BinaryLogEntry entry) throws IOException {
+        String timestamp = timestampFormat.format(new Date(entry.getTimeMillis()));
+        String line;
+        if (entry.isEvent()) {
+            line = String.format("[%s] [CONN_%d] [EVENT] [%s] %s", timestamp, entry.getConnectionId(),
+                entry.getEventType(), entry.getEventDescription());
+        } else if (entry.isText()) {
+            line = String.format("[%s] [CONN_%d] [%s] %s", timestamp, entry.getConnectionId(),
+                entry.getDirection(), entry.getText());
+        } else {
+            line = String.format("[%s] [CONN_%d] [%s] [BINARY] %d bytes: %s", timestamp, entry.getConnectionId(),
+                entry.getDirection(), entry.getPayload().length, Base64.getEncoder().encodeToString(entry.getPayload()));
+        }
+        out.write(line);
+        out.write(System.lineSeparator());
+    }
+
+    private void writeJson(JsonGenerator generator, BinaryLogEntry entry) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("timeNanos", entry.getTimeNanos());
+        generator.writeStringField("timestamp", timestampFormat.format(new Date(entry.getTimeMillis())));
+        generator.writeNumberField("connection", entry.getConnectionId());
+        generator.writeStringField("direction", entry.getDirection());
+        if (entry.isEvent()) {
+            generator.writeStringField("event", entry.getEventType());
+            generator.writeStringField("description", entry.getEventDescription());
+        } else if (entry.isText()) {
+            generator.writeStringField("opcode", "text");
+            generator.writeStringField("payload", entry.getText());
+        } else {
+            generator.writeStringField("opcode", "binary");
+            generator.writeNumberField("length", entry.getPayload().length);
+            generator.writeStringField("payload", Base64.getEncoder().encodeToString(entry.getPayload()));
+        }
+        generator.writeEndObject();
+    }
+
+    public static void main(String[] args) {
+        Options options = new Options();
+
+        Option input = new Option("i", "input", true, "Binary session log (.wslog or .wslog.gz) to export");
+        input.setRequired(true);
+        options.addOption(input);
+
+        Option output = new Option("o", "output", true, "Output file (default: standard output)");
+        output.setRequired(false);
+        options.addOption(output);
+
+        Option formatOpt = new Option("f", "format", true, "Output format: text or jsonl (default: text)");
+        formatOpt.setRequired(false);
+        options.addOption(formatOpt);
+
+        Option connection = new Option("c", "connection", true,
+            "Only export this connection, using the shard index when there is one");
+        connection.setRequired(false);
+        options.addOption(connection);
+
+        CommandLineParser parser = new DefaultParser();
+        HelpFormatter formatter = new HelpFormatter();
+        CommandLine cmd;
+
+        try {
+            cmd = parser.parse(options, args);
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            formatter.printHelp("log-exporter", options);
+            System.exit(1);
+            return;
+        }
+
+        ExportFormat format;
+        try {
+            format = ExportFormat.valueOf(cmd.getOptionValue("format", "text").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid export format: " + cmd.getOptionValue("format"));
+            System.exit(1);
+            return;
+        }
+
+        Integer connectionId = null;
+        if (cmd.hasOption("connection")) {
+            try {
+                connectionId = Integer.parseInt(cmd.getOptionValue("connection"));
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid connection id: " + cmd.getOptionValue("connection"));
+                System.exit(1);
+                return;
+            }
+        }
+
+        Path inputPath = Paths.get(cmd.getOptionValue("input"));
+        LogExporter exporter = new LogExporter(format);
+        try (Writer out = cmd.hasOption("output")
+                ? new BufferedWriter(new OutputStreamWriter(new FileOutputStream(cmd.getOptionValue("output")),
+                    StandardCharsets.UTF_8))
+                : new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)) {
+                    @Override
+                    public void close() throws IOException {
+                        // Leave standard output open
+                        flush();
+                    }
+                }) {
+            long records = exporter.export(inputPath, out, connectionId);
+            logger.info("Exported {} records from {}", records, inputPath);
+        } catch (IOException e) {
+            logger.error("Failed to export log file", e);
+            System.exit(1);
+        }
+    }
+}
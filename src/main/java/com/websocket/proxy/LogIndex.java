@@ -0,0 +1,178 @@
+package com.websocket.proxy;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// The sparse index of one log segment, binary or raw text, loaded from the .idx file written by
+// LogIndexWriter
+public class LogIndex {
+    private final List<Block> blocks;
+
+    private LogIndex(List<Block> blocks) {
+        this.blocks = blocks;
+    }
+
+    public static LogIndex load(Path file) throws IOException {
+        List<Block> blocks = new ArrayList<>();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(BinaryLogReader.open(file), 65536))) {
+            byte[] magic = new byte[BinaryLogFormat.INDEX_MAGIC.length];
+            try {
+                input.readFully(magic);
+            } catch (EOFException e) {
+                throw new IOException("Not a session log index: file too short");
+            }
+            if (!Arrays.equals(magic, BinaryLogFormat.INDEX_MAGIC)) {
+                throw new IOException("Not a session log index: bad magic");
+            }
+
+            while (true) {
+                long offset;
+                try {
+                    offset = input.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    long length = input.readLong();
+                    long firstTimeNanos = input.readLong();
+                    long lastTimeNanos = input.readLong();
+                    int records = input.readInt();
+                    int[] connections = new int[input.readInt()];
+                    for (int i = 0; i < connections.length; i++) {
+                        connections[i] = input.readInt();
+                    }
+                    Set<String> methods = readKeys(input);
+                    Set<String> ids = readKeys(input);
+                    blocks.add(new Block(offset, length, firstTimeNanos, lastTimeNanos, records, connections,
+                        methods, ids));
+                } catch (EOFException e) {
+                    // Cut short by a crash, the rest of the log is read sequentially
+                    break;
+                }
+            }
+        }
+        return new LogIndex(blocks);
+    }
+
+    // Null when the block had too many keys to list
+    private static Set<String> readKeys(DataInputStream input) throws IOException {
+        int count = input.readInt();
+        if (count < 0) {
+            return null;
+        }
+        Set<String> keys = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            byte[] key = new byte[input.readUnsignedShort()];
+            input.readFully(key);
+            keys.add(new String(key, StandardCharsets.UTF_8));
+        }
+        return keys;
+    }
+
+    // The index next to a log segment (session_..._shard_0.1.wslog.gz -> session_..._shard_0.1.idx[.gz],
+    // session_..._conn_1_raw.log -> session_..._conn_1_raw.idx), or null if there is none
+    public static Path indexFor(Path logFile) {
+        String name = logFile.getFileName().toString();
+        if (name.endsWith(".gz")) {
+            name = name.substring(0, name.length() - 3);
+        }
+        int dot = name.lastIndexOf('.');
+        if (dot < 0 || !(name.endsWith(".wslog") || name.endsWith(".log"))) {
+            return null;
+        }
+        String base = name.substring(0, dot) + ".idx";
+        for (String candidate : new String[] {base, base + ".gz"}) {
+            Path path = logFile.resolveSibling(candidate);
+            if (Files.exists(path)) {
+                return path;
+            }
+        }
+        return null;
+    }
+
+    public List<Block> getBlocks() {
+        return Collections.unmodifiableList(blocks);
+    }
+
+    // Where the records not covered by the index start, 0 for an empty index
+    public long getIndexedEnd() {
+        return blocks.isEmpty() ? 0 : blocks.get(blocks.size() - 1).getEnd();
+    }
+
+    public static class Block {
+        private final long offset;
+        private final long length;
+        private final long firstTimeNanos;
+        private final long lastTimeNanos;
+        private final int records;
+        private final int[] connections;
+        private final Set<String> methods;
+        private final Set<String> ids;
+
+        Block(long offset, long length, long firstTimeNanos, long lastTimeNanos, int records, int[] connections,
+              Set<String> methods, Set<String> ids) {
+            this.offset = offset;
+            this.length = length;
+            this.firstTimeNanos = firstTimeNanos;
+            this.lastTimeNanos = lastTimeNanos;
+            this.records = records;
+            this.connections = connections;
+            this.methods = methods;
+            this.ids = ids;
+        }
+
+        // Both bounds inclusive
+        public boolean overlaps(long fromNanos, long toNanos) {
+            return firstTimeNanos <= toNanos && lastTimeNanos >= fromNanos;
+        }
+
+        public boolean mayContainMethod(String method) {
+            return methods == null || methods.contains(method);
+        }
+
+        // The id in its JSON form, 1 or "abc"
+        public boolean mayContainId(String id) {
+            return ids == null || ids.contains(id);
+        }
+
+        public boolean hasConnection(int connectionId) {
+            for (int connection : connections) {
+                if (connection == connectionId) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getEnd() {
+            return offset + length;
+        }
+
+        public long getFirstTimeNanos() {
+            return firstTimeNanos;
+        }
+
+        public long getLastTimeNanos() {
+            return lastTimeNanos;
+        }
+
+        public int getRecords() {
+            return records;
+        }
+    }
+}
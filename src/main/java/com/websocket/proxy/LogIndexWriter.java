@@ -0,0 +1,146 @@
+package com.websocket.proxy;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+// Writes the sparse sidecar index of a log, see BinaryLogFormat. A block is written out once it
+// covers INDEX_BLOCK_BYTES of log, so the index costs a few bytes per block plus its JSON-RPC keys
+// rather than an entry per record. Not thread-safe: used by one log writer under its owner's lock.
+public class LogIndexWriter implements AutoCloseable {
+    // Longer methods or ids are not stored, the block is marked as possibly containing any
+    private static final int MAX_KEY_CHARS = 256;
+
+    private final RollingFile file;
+    private final DataOutputStream output;
+
+    // Block being collected
+    private long blockOffset = -1;
+    private long blockEnd;
+    private long firstTimeNanos;
+    private long lastTimeNanos;
+    private int records;
+    private int[] connections = new int[16];
+    private int connectionCount;
+    private int lastConnection;
+    private final Set<String> methods = new LinkedHashSet<>();
+    private final Set<String> ids = new LinkedHashSet<>();
+    private boolean methodsOverflow;
+    private boolean idsOverflow;
+
+    // Appending to an existing segment continues its index
+    public LogIndexWriter(RollingFile file) throws IOException {
+        this.file = file;
+        this.output = new DataOutputStream(new BufferedOutputStream(file, 8192));
+        if (file.size() == 0) {
+            output.write(BinaryLogFormat.INDEX_MAGIC);
+        }
+    }
+
+    // Called for every record, in log order. Method and id are null when the record has none.
+    public void record(long offset, long length, long timeNanos, int connectionId, String method, String id)
+            throws IOException {
+        if (blockOffset < 0) {
+            blockOffset = offset;
+            firstTimeNanos = timeNanos;
+            connectionCount = 0;
+            records = 0;
+            methods.clear();
+            ids.clear();
+            methodsOverflow = false;
+            idsOverflow = false;
+        }
+        lastTimeNanos = timeNanos;
+        blockEnd = offset + length;
+        records++;
+        addConnection(connectionId);
+        if (method != null && !methodsOverflow) {
+            methodsOverflow = !addKey(methods, method);
+        }
+        if (id != null && !idsOverflow) {
+            idsOverflow = !addKey(ids, id);
+        }
+
+        if (blockEnd - blockOffset >= BinaryLogFormat.INDEX_BLOCK_BYTES) {
+            writeBlock();
+        }
+    }
+
+    private void addConnection(int connectionId) {
+        if (connectionCount > 0 && lastConnection == connectionId) {
+            return;
+        }
+        lastConnection = connectionId;
+        for (int i = 0; i < connectionCount; i++) {
+            if (connections[i] == connectionId) {
+                return;
+            }
+        }
+        if (connectionCount == connections.length) {
+            connections = Arrays.copyOf(connections, connectionCount * 2);
+        }
+        connections[connectionCount++] = connectionId;
+    }
+
+    private static boolean addKey(Set<String> keys, String key) {
+        if (key.length() > MAX_KEY_CHARS) {
+            return false;
+        }
+        keys.add(key);
+        return keys.size() <= BinaryLogFormat.INDEX_MAX_KEYS;
+    }
+
+    private void writeBlock() throws IOException {
+        if (blockOffset < 0) {
+            return;
+        }
+        output.writeLong(blockOffset);
+        output.writeLong(blockEnd - blockOffset);
+        output.writeLong(firstTimeNanos);
+        output.writeLong(lastTimeNanos);
+        output.writeInt(records);
+        output.writeInt(connectionCount);
+        for (int i = 0; i < connectionCount; i++) {
+            output.writeInt(connections[i]);
+        }
+        writeKeys(methods, methodsOverflow);
+        writeKeys(ids, idsOverflow);
+        blockOffset = -1;
+    }
+
+    private void writeKeys(Set<String> keys, boolean overflow) throws IOException {
+        if (overflow) {
+            output.writeInt(-1);
+            return;
+        }
+        output.writeInt(keys.size());
+        for (String key : keys) {
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            output.writeShort(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    // Ends the current block with the log segment and starts the index of the next one
+    public void roll() throws IOException {
+        writeBlock();
+        output.flush();
+        file.roll();
+        output.write(BinaryLogFormat.INDEX_MAGIC);
+    }
+
+    // Only whole blocks reach the file, the open one is written when it fills or on roll and close
+    public void flush() throws IOException {
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writeBlock();
+        output.close();
+    }
+}
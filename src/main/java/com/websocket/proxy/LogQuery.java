@@ -0,0 +1,373 @@
+package com.websocket.proxy;
+
+import org.apache.commons.cli.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Pulls a time window, a connection or one JSON-RPC request/response pair out of raw text and
+// binary session logs. Where a log has an index (.idx), only the blocks that may contain a match
+// are read: plain files are seeked, compressed segments decompressed up to the block. Logs without
+// an index and records after the last indexed block are scanned. Matches are written in the raw
+// log layout, file by file.
+public class LogQuery {
+    private static final Logger logger = LoggerFactory.getLogger(LogQuery.class);
+
+    // Inline validation error logs share the raw layout
+    private static final Pattern RAW_LOG_NAME = Pattern.compile(".*_(raw|validation)(\\.\\d+)?\\.log(\\.gz)?");
+    private static final Pattern RAW_LINE = Pattern.compile(
+        "^\\[(\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}\\.\\d{3})\\] \\[CONN_(-?\\d+)\\] \\[([A-Z_]+)\\] ?(.*)");
+
+    private final long fromNanos;
+    private final long toNanos;
+    private final Integer connectionId;
+    private final String method;
+    // The id as given and, unless it is quoted, as a JSON string
+    private final List<String> ids = new ArrayList<>();
+    private final LogExporter exporter = new LogExporter(LogExporter.ExportFormat.TEXT);
+    private final SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+    // Null filters match everything
+    public LogQuery(Long fromNanos, Long toNanos, Integer connectionId, String method, String id) {
+        this.fromNanos = fromNanos != null ? fromNanos : Long.MIN_VALUE;
+        this.toNanos = toNanos != null ? toNanos : Long.MAX_VALUE;
+        this.connectionId = connectionId;
+        this.method = method;
+        if (id != null) {
+            ids.add(id);
+            if (!id.startsWith("\"")) {
+                ids.add("\"" + id + "\"");
+            }
+        }
+    }
+
+    // Raw text logs are recognized by name, binary logs by their magic; anything else is skipped
+    public static boolean isQueryable(Path file) {
+        return BinaryLogReader.isBinaryLog(file) || RAW_LOG_NAME.matcher(file.getFileName().toString()).matches();
+    }
+
+    public long query(Path logFile, Writer out) throws IOException {
+        Path indexFile = LogIndex.indexFor(logFile);
+        LogIndex index = indexFile != null ? LogIndex.load(indexFile) : null;
+        long matches = BinaryLogReader.isBinaryLog(logFile)
+            ? queryBinary(logFile, index, out) : queryText(logFile, index, out);
+        out.flush();
+        return matches;
+    }
+
+    private boolean blockMatches(LogIndex.Block block) {
+        if (!block.overlaps(fromNanos, toNanos)) {
+            return false;
+        }
+        if (connectionId != null && !block.hasConnection(connectionId)) {
+            return false;
+        }
+        if (method != null && !block.mayContainMethod(method)) {
+            return false;
+        }
+        if (!ids.isEmpty()) {
+            for (String id : ids) {
+                if (block.mayContainId(id)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private boolean recordMatches(long timeNanos, int connection, boolean message, byte[] payload) {
+        if (timeNanos < fromNanos || timeNanos > toNanos) {
+            return false;
+        }
+        if (connectionId != null && connection != connectionId) {
+            return false;
+        }
+        if (method == null && ids.isEmpty()) {
+            return true;
+        }
+        if (!message) {
+            return false;
+        }
+        JsonRpcClassifier.Envelope envelope = JsonRpcClassifier.peek(payload);
+        if (envelope == null || !envelope.isJsonRpc()) {
+            return false;
+        }
+        if (method != null && !(envelope.isRequest() && method.equals(envelope.getMethod()))) {
+            return false;
+        }
+        return ids.isEmpty() || (envelope.hasId() && ids.contains(envelope.getId()));
+    }
+
+    private long queryBinary(Path logFile, LogIndex index, Writer out) throws IOException {
+        long matches = 0;
+        try (BinaryLogReader reader = new BinaryLogReader(logFile)) {
+            if (index != null) {
+                for (LogIndex.Block block : index.getBlocks()) {
+                    if (blockMatches(block)) {
+                        reader.skipTo(block.getOffset());
+                        matches += queryBinaryRecords(reader, block.getEnd(), out);
+                    }
+                }
+                reader.skipTo(Math.max(reader.getOffset(), index.getIndexedEnd()));
+            }
+            matches += queryBinaryRecords(reader, Long.MAX_VALUE, out);
+        }
+        return matches;
+    }
+
+    private long queryBinaryRecords(BinaryLogReader reader, long end, Writer out) throws IOException {
+        long matches = 0;
+        BinaryLogEntry entry;
+        while (reader.getOffset() < end && (entry = reader.next()) != null) {
+            if (recordMatches(entry.getTimeNanos(), entry.getConnectionId(), entry.isText() && !entry.isEvent(),
+                    entry.getPayload())) {
+                exporter.writeText(out, entry);
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    private long queryText(Path logFile, LogIndex index, Writer out) throws IOException {
+        long matches = 0;
+        try (LineReader reader = new LineReader(BinaryLogReader.open(logFile))) {
+            if (index != null) {
+                for (LogIndex.Block block : index.getBlocks()) {
+                    if (blockMatches(block)) {
+                        reader.skipTo(block.getOffset());
+                        matches += queryTextRecords(reader, block.getEnd(), out);
+                    }
+                }
+                reader.skipTo(Math.max(reader.getOffset(), index.getIndexedEnd()));
+            }
+            matches += queryTextRecords(reader, Long.MAX_VALUE, out);
+        }
+        return matches;
+    }
+
+    // A record is a line starting with timestamp, connection and direction, plus the lines of a
+    // message that contained line breaks
+    private long queryTextRecords(LineReader reader, long end, Writer out) throws IOException {
+        long matches = 0;
+        StringBuilder record = new StringBuilder();
+        Matcher header = null;
+        String line;
+        while (reader.getOffset() < end && (line = reader.readLine()) != null) {
+            Matcher matcher = RAW_LINE.matcher(line);
+            if (!matcher.matches()) {
+                if (header != null) {
+                    record.append(System.lineSeparator()).append(line);
+                }
+                continue;
+            }
+            if (header != null && textRecordMatches(header, record)) {
+                out.write(record.toString());
+                out.write(System.lineSeparator());
+                matches++;
+            }
+            header = matcher;
+            record.setLength(0);
+            record.append(line);
+        }
+        if (header != null && textRecordMatches(header, record)) {
+            out.write(record.toString());
+            out.write(System.lineSeparator());
+            matches++;
+        }
+        return matches;
+    }
+
+    private boolean textRecordMatches(Matcher header, StringBuilder record) {
+        long timeNanos;
+        try {
+            timeNanos = timestampFormat.parse(header.group(1)).getTime() * 1_000_000L;
+        } catch (ParseException e) {
+            return false;
+        }
+        int connection = Integer.parseInt(header.group(2));
+        String direction = header.group(3);
+        boolean message = !"EVENT".equals(direction) && !header.group(4).startsWith("[BINARY]");
+        if (!message || (method == null && ids.isEmpty())) {
+            return recordMatches(timeNanos, connection, message, null);
+        }
+        // The message starts after the header and may continue on the following lines
+        String text = record.substring(header.start(4)).replace(System.lineSeparator(), "\n");
+        return recordMatches(timeNanos, connection, true, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // UTF-8 lines with the byte offset of the next one, so index blocks can be skipped to
+    private static class LineReader implements Closeable {
+        private final InputStream input;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private long offset = 0;
+
+        LineReader(InputStream in) {
+            this.input = new BufferedInputStream(in, 65536);
+        }
+
+        void skipTo(long target) throws IOException {
+            if (target < offset) {
+                throw new IOException("Cannot skip back from offset " + offset + " to " + target);
+            }
+            while (offset < target) {
+                long skipped = input.skip(target - offset);
+                if (skipped <= 0) {
+                    if (input.read() < 0) {
+                        throw new EOFException("Offset " + target + " is past the end of the log");
+                    }
+                    skipped = 1;
+                }
+                offset += skipped;
+            }
+        }
+
+        long getOffset() {
+            return offset;
+        }
+
+        // Without the line break, null at end of file
+        String readLine() throws IOException {
+            line.reset();
+            int b;
+            while ((b = input.read()) >= 0) {
+                offset++;
+                if (b == '\n') {
+                    break;
+                }
+                line.write(b);
+            }
+            if (b < 0 && line.size() == 0) {
+                return null;
+            }
+            String text = line.toString(StandardCharsets.UTF_8);
+            return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+
+    private static Long parseTime(SimpleDateFormat format, String value) throws ParseException {
+        if (value == null) {
+            return null;
+        }
+        String withMillis = value.indexOf('.') < 0 ? value + ".000" : value;
+        return format.parse(withMillis).getTime() * 1_000_000L;
+    }
+
+    public static void main(String[] args) {
+        Options options = new Options();
+
+        Option from = new Option(null, "from", true, "Start of the time window, yyyy-MM-dd HH:mm:ss[.SSS] local time");
+        from.setRequired(false);
+        options.addOption(from);
+
+        Option to = new Option(null, "to", true, "End of the time window, inclusive, same format as --from");
+        to.setRequired(false);
+        options.addOption(to);
+
+        Option connection = new Option("c", "connection", true, "Only records of this connection");
+        connection.setRequired(false);
+        options.addOption(connection);
+
+        Option methodOpt = new Option("m", "method", true, "Only JSON-RPC requests for this method");
+        methodOpt.setRequired(false);
+        options.addOption(methodOpt);
+
+        Option idOpt = new Option(null, "id", true,
+            "Only the JSON-RPC request and response with this id; string ids match with or without quotes");
+        idOpt.setRequired(false);
+        options.addOption(idOpt);
+
+        Option output = new Option("o", "output", true, "Output file (default: standard output)");
+        output.setRequired(false);
+        options.addOption(output);
+
+        CommandLineParser parser = new DefaultParser();
+        HelpFormatter formatter = new HelpFormatter();
+        CommandLine cmd;
+
+        try {
+            cmd = parser.parse(options, args);
+        } catch (org.apache.commons.cli.ParseException e) {
+            System.err.println(e.getMessage());
+            formatter.printHelp("log-query [options] <log files>", options);
+            System.exit(1);
+            return;
+        }
+
+        if (cmd.getArgList().isEmpty()) {
+            System.err.println("No log files given");
+            formatter.printHelp("log-query [options] <log files>", options);
+            System.exit(1);
+            return;
+        }
+
+        SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        Long fromNanos;
+        Long toNanos;
+        try {
+            fromNanos = parseTime(timeFormat, cmd.getOptionValue("from"));
+            toNanos = parseTime(timeFormat, cmd.getOptionValue("to"));
+            if (toNanos != null) {
+                // Up to the end of the millisecond
+                toNanos += 999_999L;
+            }
+        } catch (ParseException e) {
+            System.err.println("Invalid time: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        Integer connectionId = null;
+        if (cmd.hasOption("connection")) {
+            try {
+                connectionId = Integer.parseInt(cmd.getOptionValue("connection"));
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid connection id: " + cmd.getOptionValue("connection"));
+                System.exit(1);
+                return;
+            }
+        }
+
+        LogQuery query = new LogQuery(fromNanos, toNanos, connectionId, cmd.getOptionValue("method"),
+            cmd.getOptionValue("id"));
+        try (Writer out = cmd.hasOption("output")
+                ? new BufferedWriter(new OutputStreamWriter(new FileOutputStream(cmd.getOptionValue("output")),
+                    StandardCharsets.UTF_8))
+                : new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)) {
+                    @Override
+                    public void close() throws IOException {
+                        // Leave standard output open
+                        flush();
+                    }
+                }) {
+            long matches = 0;
+            for (String name : cmd.getArgList()) {
+                Path logFile = Paths.get(name);
+                if (!isQueryable(logFile)) {
+                    logger.debug("Skipping {}, not a raw or binary session log", logFile);
+                    continue;
+                }
+                matches += query.query(logFile, out);
+            }
+            logger.info("Found {} matching records", matches);
+        } catch (IOException e) {
+            logger.error("Failed to query log files", e);
+            System.exit(1);
+        }
+    }
+}
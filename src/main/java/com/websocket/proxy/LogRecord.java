@@ -0,0 +1,47 @@
+package com.websocket.proxy;
+
+import java.nio.ByteBuffer;
+
+// Immutable unit of work handed from the forwarding path to the AsyncLogWriter
+final class LogRecord {
+    enum Type {
+        MESSAGE, BINARY, EVENT, CLOSE
+    }
+
+    final Type type;
+    final SessionLogger sessionLogger;
+    // Epoch nanoseconds
+    final long timestamp;
+    final String direction;
+    final String text;
+    final ByteBuffer data;
+
+    private LogRecord(Type type, SessionLogger sessionLogger, long timestamp,
+                      String direction, String text, ByteBuffer data) {
+        this.type = type;
+        this.sessionLogger = sessionLogger;
+        this.timestamp = timestamp;
+        this.direction = direction;
+        this.text = text;
+        this.data = data;
+    }
+
+    static LogRecord message(SessionLogger sessionLogger, String direction, String message) {
+        return new LogRecord(Type.MESSAGE, sessionLogger, BinaryLogFormat.currentTimeNanos(), direction, message, null);
+    }
+
+    // Holds a view of the forwarded frame; Java-WebSocket allocates a fresh buffer per frame
+    // and never writes to it after delivery, so no defensive copy is needed
+    static LogRecord binary(SessionLogger sessionLogger, String direction, ByteBuffer data) {
+        return new LogRecord(Type.BINARY, sessionLogger, BinaryLogFormat.currentTimeNanos(), direction, null, data);
+    }
+
+    // For events the direction slot carries the event type and text the description
+    static LogRecord event(SessionLogger sessionLogger, String eventType, String description) {
+        return new LogRecord(Type.EVENT, sessionLogger, BinaryLogFormat.currentTimeNanos(), eventType, description, null);
+    }
+
+    static LogRecord close(SessionLogger sessionLogger) {
+        return new LogRecord(Type.CLOSE, sessionLogger, BinaryLogFormat.currentTimeNanos(), null, null, null);
+    }
+}
@@ -0,0 +1,113 @@
+package com.websocket.proxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Multiplexes the binary logs of all connections into a fixed number of shard files, picked by
+// connection id, so the number of open files no longer grows with the number of connections.
+// Records already carry their connection id; each shard also keeps a sparse index
+// (session_<id>_shard_<n>.idx) so one connection can be extracted without reading the others.
+// One instance per proxy, shared by all connections.
+public class LogShards implements AutoCloseable {
+    private final Shard[] shards;
+
+    public LogShards(String logDirectory, String sessionId, int count, LogStorage storage) throws IOException {
+        this.shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            String prefix = String.format("%s/session_%s_shard_%d", logDirectory, sessionId, i);
+            shards[i] = new Shard(storage.open(prefix + ".wslog", false),
+                new LogIndexWriter(storage.open(prefix + ".idx", false)));
+        }
+    }
+
+    // The writer for a connection's records; closing it only flushes, the shard stays open
+    public BinaryLogWriter forConnection(int connectionId) {
+        return shards[Math.floorMod(connectionId, shards.length)];
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Shard shard : shards) {
+            try {
+                shard.closeShard();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // A BinaryLogWriter shared by several SessionLoggers, each holding only its own lock
+    private static class Shard extends BinaryLogWriter {
+        private final ReentrantLock lock = new ReentrantLock();
+
+        Shard(RollingFile file, LogIndexWriter index) throws IOException {
+            super(file, index);
+        }
+
+        @Override
+        public void writeText(long timeNanos, int connectionId, byte direction, byte[] payload,
+                              String method, String id) throws IOException {
+            lock.lock();
+            try {
+                super.writeText(timeNanos, connectionId, direction, payload, method, id);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void writeBinary(long timeNanos, int connectionId, byte direction, ByteBuffer payload)
+                throws IOException {
+            lock.lock();
+            try {
+                super.writeBinary(timeNanos, connectionId, direction, payload);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void writeEvent(long timeNanos, int connectionId, String eventType, String description)
+                throws IOException {
+            lock.lock();
+            try {
+                super.writeEvent(timeNanos, connectionId, eventType, description);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            lock.lock();
+            try {
+                super.flush();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        void closeShard() throws IOException {
+            lock.lock();
+            try {
+                super.close();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
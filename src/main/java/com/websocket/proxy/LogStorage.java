@@ -0,0 +1,238 @@
+package com.websocket.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
+
+// Where the session logs go: every output (raw and JSON logs, binary logs, PCAP files) is a
+// RollingFile split into segments by size and age. Finished segments, whether rolled over or
+// closed with their connection, are compressed on a background thread and counted against the
+// disk budget, which deletes the oldest finished segments of this proxy once all files together
+// exceed it. Files still being written are never deleted, so the budget only holds while rotation
+// keeps the open segments small. One instance per proxy, shared by all connections.
+public class LogStorage implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(LogStorage.class);
+
+    public enum Compression {
+        NONE, GZIP
+    }
+
+    private final long maxSegmentBytes;
+    private final long maxSegmentAgeMs;
+    private final long diskBudgetBytes;
+    private final ExecutorService compressor;
+
+    // Bytes in segments still being written
+    private final LongAdder activeBytes = new LongAdder();
+    private final AtomicLong rolledSegments = new AtomicLong();
+    private final AtomicLong evictedSegments = new AtomicLong();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Guarded by lock; finished segments still on disk, oldest first, only kept while there is a budget
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long segmentBytes = 0;
+
+    // Unlimited, uncompressed storage that never rolls
+    public LogStorage() {
+        this(0, 0, Compression.NONE, 0);
+    }
+
+    public LogStorage(ProxyConfig config) {
+        this(config.getLogSegmentMaxBytes(), config.getLogSegmentMaxAgeMs(), config.getLogCompression(),
+            config.getLogDiskBudgetBytes());
+    }
+
+    // Limits of 0 are disabled
+    public LogStorage(long maxSegmentBytes, long maxSegmentAgeMs, Compression compression, long diskBudgetBytes) {
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegmentAgeMs = maxSegmentAgeMs;
+        this.diskBudgetBytes = diskBudgetBytes;
+        this.compressor = compression != Compression.NONE
+            ? Executors.newSingleThreadExecutor(ThreadSupport.threadFactory("log-compressor")) : null;
+    }
+
+    public RollingFile open(String filename, boolean append) throws IOException {
+        return new RollingFile(this, filename, append);
+    }
+
+    boolean shouldRoll(long size, long openedAtMs) {
+        return (maxSegmentBytes > 0 && size >= maxSegmentBytes)
+            || (maxSegmentAgeMs > 0 && System.currentTimeMillis() - openedAtMs >= maxSegmentAgeMs);
+    }
+
+    void written(long bytes) {
+        activeBytes.add(bytes);
+    }
+
+    // A segment was rolled over or closed and will not be written again
+    void finished(Path path, long size, boolean rolled) {
+        activeBytes.add(-size);
+        if (rolled) {
+            rolledSegments.incrementAndGet();
+        }
+
+        Segment segment = new Segment(path, size);
+        lock.lock();
+        try {
+            segmentBytes += size;
+            if (diskBudgetBytes > 0) {
+                segments.addLast(segment);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (compressor != null) {
+            try {
+                compressor.execute(() -> compress(segment));
+            } catch (RejectedExecutionException e) {
+                logger.warn("Log storage already closed, leaving {} uncompressed", path);
+            }
+        }
+        enforceBudget();
+    }
+
+    private void compress(Segment segment) {
+        lock.lock();
+        try {
+            if (segment.evicted) {
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        Path source = segment.path;
+        Path target = Paths.get(source + ".gz");
+        Path partial = Paths.get(source + ".gz.tmp");
+        try {
+            try (InputStream in = Files.newInputStream(source);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(partial), 65536)) {
+                byte[] chunk = new byte[65536];
+                int read;
+                while ((read = in.read(chunk)) != -1) {
+                    out.write(chunk, 0, read);
+                }
+            }
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warn("Failed to compress log segment {}", source, e);
+            deleteQuietly(partial);
+            return;
+        }
+
+        lock.lock();
+        try {
+            if (segment.evicted) {
+                // Deleted while it was being compressed
+                deleteQuietly(target);
+                return;
+            }
+            long compressedSize = sizeOf(target);
+            deleteQuietly(source);
+            segment.path = target;
+            segmentBytes += compressedSize - segment.size;
+            segment.size = compressedSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enforceBudget() {
+        if (diskBudgetBytes <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            while (!segments.isEmpty() && segmentBytes + activeBytes.sum() > diskBudgetBytes) {
+                Segment oldest = segments.removeFirst();
+                oldest.evicted = true;
+                segmentBytes -= oldest.size;
+                deleteQuietly(oldest.path);
+                evictedSegments.incrementAndGet();
+                logger.info("Deleted log segment {} ({} bytes) to stay within the {} byte disk budget",
+                    oldest.path, oldest.size, diskBudgetBytes);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long sizeOf(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Failed to delete log segment {}", path, e);
+        }
+    }
+
+    // Bytes of all files written by this proxy that are still on disk
+    public long getStoredBytes() {
+        lock.lock();
+        try {
+            return segmentBytes + activeBytes.sum();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getRolledSegments() {
+        return rolledSegments.get();
+    }
+
+    public long getEvictedSegments() {
+        return evictedSegments.get();
+    }
+
+    // Waits for pending compression, so the files are complete when the proxy exits
+    @Override
+    public void close() {
+        if (compressor == null) {
+            return;
+        }
+        compressor.shutdown();
+        try {
+            if (!compressor.awaitTermination(60, TimeUnit.SECONDS)) {
+                logger.warn("Log segments still being compressed at shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Segment {
+        // Guarded by the storage lock once the segment is finished
+        private Path path;
+        private long size;
+        private boolean evicted;
+
+        Segment(Path path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.websocket.proxy;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+
+// Plain-HTTP /metrics endpoint in Prometheus text format, using the JDK's built-in server
+public class MetricsHttpServer implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(MetricsHttpServer.class);
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public MetricsHttpServer(InetSocketAddress address, ProxyMetrics metrics) throws IOException {
+        this.server = HttpServer.create(address, 0);
+        this.executor = ThreadSupport.newExecutor("metrics-http");
+        server.setExecutor(executor);
+        server.createContext("/metrics", exchange -> handle(exchange, metrics));
+    }
+
+    private void handle(HttpExchange exchange, ProxyMetrics metrics) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    public void start() {
+        server.start();
+        logger.info("Metrics available at http://{}:{}/metrics",
+            server.getAddress().getHostString(), server.getAddress().getPort());
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,156 @@
+package com.websocket.proxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+// One pcapng file for all connections of a session. Each connection is an interface of its own,
+// described by an Interface Description Block with nanosecond timestamp resolution, and gets a
+// PcapWriter that writes its packets as Enhanced Packet Blocks into the shared buffer.
+// Blocks are big-endian, which readers detect from the Section Header Block. When the file rolls
+// over, the new segment repeats the section header and the interface blocks of the connections
+// that are still open. Interface ids are numbered per segment, so writers look theirs up for
+// every packet.
+public class PcapNgWriter implements AutoCloseable {
+    private static final int SECTION_HEADER = 0x0A0D0D0A;
+    private static final int BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+    private static final int INTERFACE_DESCRIPTION = 0x00000001;
+    private static final int LINKTYPE_ETHERNET = 1;
+    private static final int SNAPLEN = 65535;
+
+    private static final int OPT_SHB_USERAPPL = 4;
+    private static final int OPT_IF_NAME = 2;
+    private static final int OPT_IF_DESCRIPTION = 3;
+    private static final int OPT_IF_TSRESOL = 9;
+    // 10^-9 seconds
+    private static final byte[] TSRESOL_NANOS = {9};
+    private static final byte[] USER_APPLICATION = "websocket-proxy".getBytes(StandardCharsets.UTF_8);
+
+    private final PcapOutput output;
+
+    // Guarded by the output lock. Interface blocks of the open connections, in the order they opened,
+    // and their interface ids in the current segment.
+    private final Map<Integer, byte[]> interfaceBlocks = new LinkedHashMap<>();
+    private final Map<Integer, Integer> interfaceIds = new HashMap<>();
+    private int segmentInterfaces;
+
+    public PcapNgWriter(String filename, ProxyMetrics metrics) throws IOException {
+        this(new LogStorage().open(filename, false), metrics);
+    }
+
+    public PcapNgWriter(RollingFile file, ProxyMetrics metrics) throws IOException {
+        this.output = new PcapOutput(file, metrics);
+
+        ReentrantLock lock = output.lock();
+        lock.lock();
+        try {
+            output.start(this::writeSegmentHeader);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeSegmentHeader(PcapOutput output) throws IOException {
+        writeSectionHeader(output);
+        interfaceIds.clear();
+        segmentInterfaces = 0;
+        for (Map.Entry<Integer, byte[]> entry : interfaceBlocks.entrySet()) {
+            interfaceIds.put(entry.getKey(), segmentInterfaces++);
+            output.put(ByteBuffer.wrap(entry.getValue()));
+            output.recordBytes(entry.getValue().length);
+        }
+    }
+
+    private static void writeSectionHeader(PcapOutput output) throws IOException {
+        int length = 28 + 4 + PcapOutput.padded(USER_APPLICATION.length) + 4;
+        output.reserve(length);
+        ByteBuffer buffer = output.buffer();
+        buffer.putInt(SECTION_HEADER);
+        buffer.putInt(length);
+        buffer.putInt(BYTE_ORDER_MAGIC);
+        buffer.putShort((short)1); // Major version
+        buffer.putShort((short)0); // Minor version
+        buffer.putLong(-1L); // Section length not known
+        PcapOutput.putOption(buffer, OPT_SHB_USERAPPL, USER_APPLICATION);
+        buffer.putInt(0); // End of options
+        buffer.putInt(length);
+        output.recordBytes(length);
+    }
+
+    // 0 drains the buffer after every packet
+    public void setFlushIntervalMs(long flushIntervalMs) {
+        output.setFlushIntervalMs(flushIntervalMs);
+    }
+
+    // Adds the connection as the next interface and returns the writer for its packets
+    public PcapWriter openConnection(int connectionId, String serverHost, int clientPort, int serverPort)
+            throws IOException {
+        byte[] name = ("conn_" + connectionId).getBytes(StandardCharsets.UTF_8);
+        byte[] description = String.format("WebSocket connection #%d, client port %d to %s:%d",
+            connectionId, clientPort, serverHost, serverPort).getBytes(StandardCharsets.UTF_8);
+        int length = 20 + 4 + PcapOutput.padded(name.length) + 4 + PcapOutput.padded(description.length)
+            + 4 + PcapOutput.padded(TSRESOL_NANOS.length) + 4;
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(INTERFACE_DESCRIPTION);
+        buffer.putInt(length);
+        buffer.putShort((short)LINKTYPE_ETHERNET);
+        buffer.putShort((short)0); // Reserved
+        buffer.putInt(SNAPLEN);
+        PcapOutput.putOption(buffer, OPT_IF_NAME, name);
+        PcapOutput.putOption(buffer, OPT_IF_DESCRIPTION, description);
+        PcapOutput.putOption(buffer, OPT_IF_TSRESOL, TSRESOL_NANOS);
+        buffer.putInt(0); // End of options
+        buffer.putInt(length);
+        byte[] block = buffer.array();
+
+        ReentrantLock lock = output.lock();
+        lock.lock();
+        try {
+            interfaceBlocks.put(connectionId, block);
+            interfaceIds.put(connectionId, segmentInterfaces++);
+            output.reserve(length);
+            output.buffer().put(block);
+            output.recordBytes(length);
+            output.maybeDrain();
+
+            return new PcapWriter(output, this, connectionId, serverHost, clientPort, serverPort);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the output lock held
+    int interfaceId(int connectionId) throws IOException {
+        Integer interfaceId = interfaceIds.get(connectionId);
+        if (interfaceId == null) {
+            throw new IOException("Connection #" + connectionId + " is closed");
+        }
+        return interfaceId;
+    }
+
+    // Later segments leave the connection out
+    void closeConnection(int connectionId) {
+        ReentrantLock lock = output.lock();
+        lock.lock();
+        try {
+            interfaceBlocks.remove(connectionId);
+            interfaceIds.remove(connectionId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void flush() throws IOException {
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        output.close();
+    }
+}
@@ -0,0 +1,161 @@
+package com.websocket.proxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+// The file behind one or more PcapWriters: a reusable direct buffer written to a RollingFile.
+// Payloads too large for the space left in the buffer are written without copying them into it:
+// direct buffers with one gathering write together with what is buffered, heap arrays through the
+// file stream, which avoids the channel's copy into a temporary direct buffer. The buffer is
+// drained when it fills, when the flush interval has passed at the time of a write, and on flush()
+// and close(). Writers encode into the buffer while holding the lock. When the file rolls over,
+// the new segment starts with the segment header, so every segment is a capture file of its own.
+public class PcapOutput implements AutoCloseable {
+    private static final int BUFFER_SIZE = 65536;
+
+    // What every segment starts with: the file header and, for pcapng, the interface blocks
+    interface SegmentHeader {
+        void write(PcapOutput output) throws IOException;
+    }
+
+    private final RollingFile file;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer[] gather = new ByteBuffer[2];
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ProxyMetrics metrics;
+
+    // Guarded by lock
+    private SegmentHeader segmentHeader;
+    private long flushIntervalMs = 0;
+    private long lastDrain = System.currentTimeMillis();
+
+    public PcapOutput(RollingFile file, ProxyMetrics metrics) {
+        this.metrics = metrics;
+        this.file = file;
+    }
+
+    // Writes the header for the first segment and keeps it for the following ones
+    void start(SegmentHeader header) throws IOException {
+        this.segmentHeader = header;
+        writeSegmentHeader();
+    }
+
+    private void writeSegmentHeader() throws IOException {
+        segmentHeader.write(this);
+        drain();
+    }
+
+    ReentrantLock lock() {
+        return lock;
+    }
+
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    // 0 drains the buffer after every packet
+    public void setFlushIntervalMs(long flushIntervalMs) {
+        lock.lock();
+        try {
+            this.flushIntervalMs = flushIntervalMs;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            drain();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Makes room for a block header of at most this many bytes
+    void reserve(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            drain();
+        }
+    }
+
+    // Writes the payload after what is buffered, straight to the file when it does not fit
+    void put(ByteBuffer payload) throws IOException {
+        if (payload.remaining() <= buffer.remaining()) {
+            buffer.put(payload);
+            return;
+        }
+
+        if (payload.hasArray()) {
+            drain();
+            file.write(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+            payload.position(payload.limit());
+            return;
+        }
+
+        buffer.flip();
+        gather[0] = buffer;
+        gather[1] = payload;
+        try {
+            file.write(gather);
+        } finally {
+            gather[1] = null;
+            buffer.clear();
+        }
+        lastDrain = System.currentTimeMillis();
+    }
+
+    // Called after each packet, where the file may roll over
+    void maybeDrain() throws IOException {
+        if (file.shouldRoll(buffer.position())) {
+            drain();
+            file.roll();
+            writeSegmentHeader();
+            return;
+        }
+        if (flushIntervalMs <= 0 || System.currentTimeMillis() - lastDrain >= flushIntervalMs) {
+            drain();
+        }
+    }
+
+    void drain() throws IOException {
+        buffer.flip();
+        file.write(buffer);
+        buffer.clear();
+        lastDrain = System.currentTimeMillis();
+    }
+
+    static int padded(int length) {
+        return (length + 3) & ~3;
+    }
+
+    // pcapng option: code, length and the value padded to 32 bits
+    static void putOption(ByteBuffer buffer, int code, byte[] value) {
+        buffer.putShort((short)code);
+        buffer.putShort((short)value.length);
+        buffer.put(value);
+        for (int i = value.length; i < padded(value.length); i++) {
+            buffer.put((byte)0);
+        }
+    }
+
+    void recordBytes(long bytes) {
+        if (metrics != null) {
+            metrics.recordPcapBytes(bytes);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (file.isOpen()) {
+                drain();
+                file.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
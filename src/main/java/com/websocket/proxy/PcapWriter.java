@@ -1,10 +1,15 @@
 package com.websocket.proxy;
 
-import java.io.*;
+import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReentrantLock;
 
+// Encodes one connection's frames as Ethernet/IPv4/TCP packets carrying WebSocket frames, straight
+// into the buffer of a PcapOutput. A writer either owns its output and writes a classic libpcap file
+// with microsecond timestamps, or shares the session's pcapng output as one interface, see
+// PcapNgWriter. There every packet is an Enhanced Packet Block with a nanosecond timestamp and a
+// comment naming the connection and, when known, the JSON-RPC method and id.
 public class PcapWriter implements AutoCloseable {
     private static final int PCAP_MAGIC = 0xa1b2c3d4;
     private static final short PCAP_VERSION_MAJOR = 2;
@@ -18,25 +23,82 @@ public class PcapWriter implements AutoCloseable {
         (byte)0x08, (byte)0x00  // EtherType: IPv4
     };
     
-    private final DataOutputStream output;
-    private final String clientIp = "127.0.0.1";
-    private final String serverIp;
+    private static final int PCAPNG_ENHANCED_PACKET = 0x00000006;
+    private static final int PCAPNG_OPT_COMMENT = 1;
+    // Longest annotation kept in a packet comment
+    private static final int MAX_ANNOTATION_CHARS = 256;
+    
+    // Enhanced Packet Block header, Ethernet, IPv4 and TCP headers and the longest WebSocket frame header
+    private static final int MAX_HEADER_BYTES = 28 + 14 + 20 + 20 + 14;
+    
+    private static final int OPCODE_NONE = 0;
+    private static final int OPCODE_TEXT = 0x01;
+    private static final int OPCODE_BINARY = 0x02;
+    private static final byte[] MASK_KEY = {0x12, 0x34, 0x56, 0x78};
+    private static final long MASK_LONG = 0x1234567812345678L;
+    private static final ByteBuffer EMPTY_PAYLOAD = ByteBuffer.allocate(0);
+    
+    private final PcapOutput output;
+    private final ByteBuffer buffer;
+    private final boolean ownsOutput;
+    // Null for a classic PCAP file
+    private final PcapNgWriter session;
+    private final int connectionId;
+    private final String commentPrefix;
+    private final int clientIp;
+    private final int serverIp;
+    private final String serverHostAddress;
     private final int clientPort;
     private final int serverPort;
     
-    private final AtomicInteger tcpSeqClient = new AtomicInteger(1000);
-    private final AtomicInteger tcpSeqServer = new AtomicInteger(2000);
-    private final AtomicInteger ipId = new AtomicInteger(1);
-    
+    // Guarded by lock
+    private int tcpSeqClient = 1000;
+    private int tcpSeqServer = 2000;
+    private int ipId = 1;
     private boolean handshakeComplete = false;
+    private final ReentrantLock lock;
     
     public PcapWriter(String filename, String serverHost, int clientPort, int serverPort) throws IOException {
-        this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
-        this.serverIp = resolveToIp(serverHost);
+        this(filename, serverHost, clientPort, serverPort, null);
+    }
+    
+    public PcapWriter(String filename, String serverHost, int clientPort, int serverPort,
+                      ProxyMetrics metrics) throws IOException {
+        this(new LogStorage().open(filename, false), serverHost, clientPort, serverPort, metrics);
+    }
+    
+    public PcapWriter(RollingFile file, String serverHost, int clientPort, int serverPort,
+                      ProxyMetrics metrics) throws IOException {
+        this(new PcapOutput(file, metrics), true, null, 0, serverHost, clientPort, serverPort);
+        
+        lock.lock();
+        try {
+            output.start(PcapWriter::writePcapHeader);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // One interface of a shared pcapng file, created by PcapNgWriter after it wrote the interface block
+    PcapWriter(PcapOutput output, PcapNgWriter session, int connectionId, String serverHost, int clientPort,
+               int serverPort) {
+        this(output, false, session, connectionId, serverHost, clientPort, serverPort);
+    }
+    
+    private PcapWriter(PcapOutput output, boolean ownsOutput, PcapNgWriter session, int connectionId,
+                       String serverHost, int clientPort, int serverPort) {
+        this.output = output;
+        this.buffer = output.buffer();
+        this.lock = output.lock();
+        this.ownsOutput = ownsOutput;
+        this.session = session;
+        this.connectionId = connectionId;
+        this.commentPrefix = "conn=" + connectionId;
+        this.serverHostAddress = resolveToIp(serverHost);
+        this.clientIp = ipv4("127.0.0.1");
+        this.serverIp = ipv4(serverHostAddress);
         this.clientPort = clientPort;
         this.serverPort = serverPort;
-        
-        writePcapHeader();
     }
     
     private String resolveToIp(String host) {
@@ -45,49 +107,82 @@ public class PcapWriter implements AutoCloseable {
         return "192.168.1.100";
     }
     
-    private void writePcapHeader() throws IOException {
-        output.writeInt(PCAP_MAGIC);
-        output.writeShort(PCAP_VERSION_MAJOR);
-        output.writeShort(PCAP_VERSION_MINOR);
-        output.writeInt(0); // thiszone
-        output.writeInt(0); // sigfigs
-        output.writeInt(PCAP_SNAPLEN);
-        output.writeInt(PCAP_NETWORK);
+    private static int ipv4(String ip) {
+        int address = 0;
+        for (String part : ip.split("\\.")) {
+            address = (address << 8) | (Integer.parseInt(part) & 0xFF);
+        }
+        return address;
+    }
+    
+    private static void writePcapHeader(PcapOutput output) throws IOException {
+        output.reserve(24);
+        ByteBuffer buffer = output.buffer();
+        buffer.putInt(PCAP_MAGIC);
+        buffer.putShort(PCAP_VERSION_MAJOR);
+        buffer.putShort(PCAP_VERSION_MINOR);
+        buffer.putInt(0); // thiszone
+        buffer.putInt(0); // sigfigs
+        buffer.putInt(PCAP_SNAPLEN);
+        buffer.putInt(PCAP_NETWORK);
+        output.recordBytes(24);
+    }
+    
+    // Whether packets carry comments, so callers only work out the JSON-RPC method when it is kept
+    public boolean hasComments() {
+        return session != null;
+    }
+    
+    // 0 drains the buffer after every packet; applies to the whole output
+    public void setFlushIntervalMs(long flushIntervalMs) {
+        output.setFlushIntervalMs(flushIntervalMs);
+    }
+    
+    public void flush() throws IOException {
         output.flush();
     }
     
-    public synchronized void writeWebSocketHandshake() throws IOException {
+    public void writeWebSocketHandshake() throws IOException {
+        lock.lock();
+        try {
+            writeWebSocketHandshake(BinaryLogFormat.currentTimeNanos());
+            output.maybeDrain();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void writeWebSocketHandshake(long timeNanos) throws IOException {
         if (handshakeComplete) return;
         
         // Simplified TCP handshake (SYN, SYN-ACK, ACK)
-        long timestamp = System.currentTimeMillis();
         
         // SYN from client
-        writeTcpPacket(timestamp, clientIp, clientPort, serverIp, serverPort, 
-                      tcpSeqClient.get(), 0, (byte)0x02, new byte[0]);
+        writePacket(timeNanos, true, tcpSeqClient, 0, (byte)0x02, OPCODE_NONE, EMPTY_PAYLOAD.duplicate(),
+                    null);
         
         // SYN-ACK from server
-        writeTcpPacket(timestamp + 1, serverIp, serverPort, clientIp, clientPort,
-                      tcpSeqServer.get(), tcpSeqClient.get() + 1, (byte)0x12, new byte[0]);
+        writePacket(timeNanos + 1_000_000L, false, tcpSeqServer, tcpSeqClient + 1, (byte)0x12, OPCODE_NONE,
+                    EMPTY_PAYLOAD.duplicate(), null);
         
         // ACK from client
-        writeTcpPacket(timestamp + 2, clientIp, clientPort, serverIp, serverPort,
-                      tcpSeqClient.get() + 1, tcpSeqServer.get() + 1, (byte)0x10, new byte[0]);
+        writePacket(timeNanos + 2_000_000L, true, tcpSeqClient + 1, tcpSeqServer + 1, (byte)0x10, OPCODE_NONE,
+                    EMPTY_PAYLOAD.duplicate(), null);
         
-        tcpSeqClient.incrementAndGet();
-        tcpSeqServer.incrementAndGet();
+        tcpSeqClient++;
+        tcpSeqServer++;
         
         // WebSocket HTTP upgrade request
         String wsHandshake = "GET / HTTP/1.1\r\n" +
-                           "Host: " + serverIp + ":" + serverPort + "\r\n" +
+                           "Host: " + serverHostAddress + ":" + serverPort + "\r\n" +
                            "Upgrade: websocket\r\n" +
                            "Connection: Upgrade\r\n" +
                            "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" +
                            "Sec-WebSocket-Version: 13\r\n\r\n";
         
-        writeTcpPacket(timestamp + 10, clientIp, clientPort, serverIp, serverPort,
-                      tcpSeqClient.get(), tcpSeqServer.get(), (byte)0x18, wsHandshake.getBytes());
-        tcpSeqClient.addAndGet(wsHandshake.length());
+        writePacket(timeNanos + 10_000_000L, true, tcpSeqClient, tcpSeqServer, (byte)0x18, OPCODE_NONE,
+                    ByteBuffer.wrap(wsHandshake.getBytes(StandardCharsets.US_ASCII)), null);
+        tcpSeqClient += wsHandshake.length();
         
         // WebSocket HTTP upgrade response
         String wsResponse = "HTTP/1.1 101 Switching Protocols\r\n" +
@@ -95,177 +190,226 @@ public class PcapWriter implements AutoCloseable {
                           "Connection: Upgrade\r\n" +
                           "Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo=\r\n\r\n";
         
-        writeTcpPacket(timestamp + 20, serverIp, serverPort, clientIp, clientPort,
-                      tcpSeqServer.get(), tcpSeqClient.get(), (byte)0x18, wsResponse.getBytes());
-        tcpSeqServer.addAndGet(wsResponse.length());
+        writePacket(timeNanos + 20_000_000L, false, tcpSeqServer, tcpSeqClient, (byte)0x18, OPCODE_NONE,
+                    ByteBuffer.wrap(wsResponse.getBytes(StandardCharsets.US_ASCII)), null);
+        tcpSeqServer += wsResponse.length();
         
         handshakeComplete = true;
-        output.flush();
     }
     
-    public synchronized void writeClientToServer(byte[] data) throws IOException {
-        if (!handshakeComplete) {
-            writeWebSocketHandshake();
-        }
-        
-        byte[] wsFrame = createWebSocketFrame(data, true);
-        writeTcpPacket(System.currentTimeMillis(), clientIp, clientPort, serverIp, serverPort,
-                      tcpSeqClient.get(), tcpSeqServer.get(), (byte)0x18, wsFrame);
-        tcpSeqClient.addAndGet(wsFrame.length);
-        output.flush();
+    public void writeClientToServer(byte[] data) throws IOException {
+        writeText(BinaryLogFormat.currentTimeNanos(), true, data, null);
     }
     
-    public synchronized void writeServerToClient(byte[] data) throws IOException {
-        if (!handshakeComplete) {
-            writeWebSocketHandshake();
+    public void writeClientToServer(long timestamp, byte[] data) throws IOException {
+        writeText(timestamp * 1_000_000L, true, data, null);
+    }
+    
+    public void writeClientToServer(long timestamp, ByteBuffer data) throws IOException {
+        writeBinary(timestamp * 1_000_000L, true, data, null);
+    }
+    
+    public void writeServerToClient(byte[] data) throws IOException {
+        writeText(BinaryLogFormat.currentTimeNanos(), false, data, null);
+    }
+    
+    public void writeServerToClient(long timestamp, byte[] data) throws IOException {
+        writeText(timestamp * 1_000_000L, false, data, null);
+    }
+    
+    public void writeServerToClient(long timestamp, ByteBuffer data) throws IOException {
+        writeBinary(timestamp * 1_000_000L, false, data, null);
+    }
+    
+    // Timestamps in nanoseconds since the epoch. The annotation, such as "method=initialize id=1",
+    // is added to the packet comment after the connection id and ignored by classic PCAP files.
+    public void writeText(long timeNanos, boolean clientToServer, byte[] data, String annotation)
+            throws IOException {
+        lock.lock();
+        try {
+            writeFrame(timeNanos, clientToServer, OPCODE_TEXT, ByteBuffer.wrap(data), annotation);
+        } finally {
+            lock.unlock();
         }
-        
-        byte[] wsFrame = createWebSocketFrame(data, false);
-        writeTcpPacket(System.currentTimeMillis(), serverIp, serverPort, clientIp, clientPort,
-                      tcpSeqServer.get(), tcpSeqClient.get(), (byte)0x18, wsFrame);
-        tcpSeqServer.addAndGet(wsFrame.length);
-        output.flush();
     }
     
-    private byte[] createWebSocketFrame(byte[] payload, boolean mask) {
-        ByteArrayOutputStream frame = new ByteArrayOutputStream();
-        
-        // FIN = 1, RSV = 0, Opcode = 1 (text) or 2 (binary)
-        boolean isText = isValidUtf8(payload);
-        frame.write(0x80 | (isText ? 0x01 : 0x02));
-        
-        // Mask bit and payload length
-        int len = payload.length;
-        if (len < 126) {
-            frame.write((mask ? 0x80 : 0x00) | len);
-        } else if (len < 65536) {
-            frame.write((mask ? 0x80 : 0x00) | 126);
-            frame.write((len >> 8) & 0xFF);
-            frame.write(len & 0xFF);
-        } else {
-            frame.write((mask ? 0x80 : 0x00) | 127);
-            // For simplicity, write 8 bytes for extended length
-            for (int i = 7; i >= 0; i--) {
-                frame.write((len >> (i * 8)) & 0xFF);
-            }
+    public void writeBinary(long timeNanos, boolean clientToServer, ByteBuffer data, String annotation)
+            throws IOException {
+        lock.lock();
+        try {
+            writeFrame(timeNanos, clientToServer, OPCODE_BINARY, data.duplicate(), annotation);
+        } finally {
+            lock.unlock();
         }
-        
-        // Masking key (if client->server)
-        byte[] maskKey = null;
-        if (mask) {
-            maskKey = new byte[]{0x12, 0x34, 0x56, 0x78};
-            frame.write(maskKey, 0, 4);
+    }
+    
+    // The payload is a view the caller's buffer position does not depend on
+    private void writeFrame(long timeNanos, boolean clientToServer, int opcode, ByteBuffer payload,
+                            String annotation) throws IOException {
+        if (!handshakeComplete) {
+            writeWebSocketHandshake(timeNanos);
         }
         
-        // Payload (masked if client->server)
-        if (mask && maskKey != null) {
-            byte[] maskedPayload = new byte[payload.length];
-            for (int i = 0; i < payload.length; i++) {
-                maskedPayload[i] = (byte)(payload[i] ^ maskKey[i % 4]);
-            }
-            frame.write(maskedPayload, 0, maskedPayload.length);
+        int frameLength = frameHeaderLength(payload.remaining(), clientToServer) + payload.remaining();
+        if (clientToServer) {
+            writePacket(timeNanos, true, tcpSeqClient, tcpSeqServer, (byte)0x18, opcode, payload, annotation);
+            tcpSeqClient += frameLength;
         } else {
-            frame.write(payload, 0, payload.length);
+            writePacket(timeNanos, false, tcpSeqServer, tcpSeqClient, (byte)0x18, opcode, payload, annotation);
+            tcpSeqServer += frameLength;
         }
         
-        return frame.toByteArray();
+        output.maybeDrain();
     }
     
-    private boolean isValidUtf8(byte[] data) {
-        try {
-            new String(data, "UTF-8");
-            return true;
-        } catch (Exception e) {
-            return false;
-        }
+    private static int frameHeaderLength(int len, boolean mask) {
+        int length = len < 126 ? 2 : len < 65536 ? 4 : 10;
+        return mask ? length + 4 : length;
     }
     
-    private void writeTcpPacket(long timestamp, String srcIp, int srcPort, 
-                                String dstIp, int dstPort, int seqNum, int ackNum,
-                                byte tcpFlags, byte[] payload) throws IOException {
+    // Client frames are masked, as on the wire. OPCODE_NONE writes the payload as plain TCP data.
+    private void writePacket(long timeNanos, boolean fromClient, int seqNum, int ackNum, byte tcpFlags,
+                             int opcode, ByteBuffer payload, String annotation) throws IOException {
+        boolean mask = opcode != OPCODE_NONE && fromClient;
+        int length = payload.remaining();
+        int frameHeaderLength = opcode != OPCODE_NONE ? frameHeaderLength(length, mask) : 0;
+        int tcpPayloadLength = frameHeaderLength + length;
+        int packetLength = 14 + 20 + 20 + tcpPayloadLength;
         
-        ByteArrayOutputStream packet = new ByteArrayOutputStream();
+        output.reserve(MAX_HEADER_BYTES);
+        
+        byte[] comment = null;
+        int blockLength = 0;
+        if (session != null) {
+            // Enhanced Packet Block: header, padded packet data, comment and end of options, trailing length
+            int interfaceId = session.interfaceId(connectionId);
+            comment = comment(annotation);
+            blockLength = 28 + PcapOutput.padded(packetLength) + 4 + PcapOutput.padded(comment.length) + 4 + 4;
+            buffer.putInt(PCAPNG_ENHANCED_PACKET);
+            buffer.putInt(blockLength);
+            buffer.putInt(interfaceId);
+            buffer.putInt((int)(timeNanos >>> 32));
+            buffer.putInt((int)timeNanos);
+        } else {
+            // PCAP packet header
+            buffer.putInt((int)(timeNanos / 1_000_000_000L));
+            buffer.putInt((int)((timeNanos % 1_000_000_000L) / 1000));
+        }
+        buffer.putInt(packetLength); // Captured length
+        buffer.putInt(packetLength); // Original length
         
         // Ethernet header
-        packet.write(ETHERNET_HEADER);
+        buffer.put(ETHERNET_HEADER);
         
         // IP header (20 bytes)
-        packet.write(0x45); // Version (4) + IHL (5)
-        packet.write(0x00); // Type of Service
-        int ipTotalLength = 20 + 20 + payload.length; // IP + TCP + payload
-        packet.write((ipTotalLength >> 8) & 0xFF);
-        packet.write(ipTotalLength & 0xFF);
-        int id = ipId.getAndIncrement();
-        packet.write((id >> 8) & 0xFF);
-        packet.write(id & 0xFF);
-        packet.write(0x40); // Flags (Don't Fragment)
-        packet.write(0x00); // Fragment offset
-        packet.write(0x40); // TTL
-        packet.write(0x06); // Protocol: TCP
-        packet.write(0x00); // Checksum (placeholder)
-        packet.write(0x00);
-        
-        // Source IP
-        writeIpAddress(packet, srcIp);
-        // Destination IP
-        writeIpAddress(packet, dstIp);
+        buffer.put((byte)0x45); // Version (4) + IHL (5)
+        buffer.put((byte)0x00); // Type of Service
+        buffer.putShort((short)(20 + 20 + tcpPayloadLength)); // IP + TCP + payload
+        buffer.putShort((short)ipId++);
+        buffer.put((byte)0x40); // Flags (Don't Fragment)
+        buffer.put((byte)0x00); // Fragment offset
+        buffer.put((byte)0x40); // TTL
+        buffer.put((byte)0x06); // Protocol: TCP
+        buffer.putShort((short)0); // Checksum (placeholder)
+        buffer.putInt(fromClient ? clientIp : serverIp);
+        buffer.putInt(fromClient ? serverIp : clientIp);
         
         // TCP header (20 bytes)
-        packet.write((srcPort >> 8) & 0xFF);
-        packet.write(srcPort & 0xFF);
-        packet.write((dstPort >> 8) & 0xFF);
-        packet.write(dstPort & 0xFF);
-        
-        // Sequence number
-        packet.write((seqNum >> 24) & 0xFF);
-        packet.write((seqNum >> 16) & 0xFF);
-        packet.write((seqNum >> 8) & 0xFF);
-        packet.write(seqNum & 0xFF);
-        
-        // Acknowledgment number
-        packet.write((ackNum >> 24) & 0xFF);
-        packet.write((ackNum >> 16) & 0xFF);
-        packet.write((ackNum >> 8) & 0xFF);
-        packet.write(ackNum & 0xFF);
+        buffer.putShort((short)(fromClient ? clientPort : serverPort));
+        buffer.putShort((short)(fromClient ? serverPort : clientPort));
+        buffer.putInt(seqNum);
+        buffer.putInt(ackNum);
+        buffer.put((byte)0x50); // Data offset (5 * 4 = 20 bytes)
+        buffer.put(tcpFlags);
+        buffer.putShort((short)0xFFFF); // Window size
+        buffer.putShort((short)0); // Checksum (placeholder)
+        buffer.putShort((short)0); // Urgent pointer
         
-        packet.write(0x50); // Data offset (5 * 4 = 20 bytes)
-        packet.write(tcpFlags); // Flags
-        packet.write(0xFF); // Window size
-        packet.write(0xFF);
-        packet.write(0x00); // Checksum (placeholder)
-        packet.write(0x00);
-        packet.write(0x00); // Urgent pointer
-        packet.write(0x00);
-        
-        // Payload
-        packet.write(payload);
+        if (opcode != OPCODE_NONE) {
+            putFrameHeader(opcode, length, mask);
+        }
         
-        byte[] packetData = packet.toByteArray();
+        if (mask) {
+            putMasked(payload);
+        } else {
+            output.put(payload);
+        }
         
-        // Write PCAP packet header
-        int seconds = (int)(timestamp / 1000);
-        int microseconds = (int)((timestamp % 1000) * 1000);
+        if (comment != null) {
+            output.reserve(blockLength - 28 - packetLength);
+            for (int i = packetLength; i < PcapOutput.padded(packetLength); i++) {
+                buffer.put((byte)0);
+            }
+            PcapOutput.putOption(buffer, PCAPNG_OPT_COMMENT, comment);
+            buffer.putInt(0); // End of options
+            buffer.putInt(blockLength);
+            output.recordBytes(blockLength);
+        } else {
+            output.recordBytes(16 + packetLength);
+        }
+    }
+    
+    private byte[] comment(String annotation) {
+        if (annotation == null) {
+            return commentPrefix.getBytes(StandardCharsets.UTF_8);
+        }
+        if (annotation.length() > MAX_ANNOTATION_CHARS) {
+            annotation = annotation.substring(0, MAX_ANNOTATION_CHARS);
+        }
+        return (commentPrefix + " " + annotation).getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private void putFrameHeader(int opcode, int len, boolean mask) {
+        // FIN = 1, RSV = 0, Opcode = 1 (text) or 2 (binary)
+        buffer.put((byte)(0x80 | opcode));
         
-        output.writeInt(seconds);
-        output.writeInt(microseconds);
-        output.writeInt(packetData.length); // Captured length
-        output.writeInt(packetData.length); // Original length
+        // Mask bit and payload length
+        int maskBit = mask ? 0x80 : 0x00;
+        if (len < 126) {
+            buffer.put((byte)(maskBit | len));
+        } else if (len < 65536) {
+            buffer.put((byte)(maskBit | 126));
+            buffer.putShort((short)len);
+        } else {
+            buffer.put((byte)(maskBit | 127));
+            // 64-bit extended length, the upper half is always zero for an int length
+            buffer.putLong(len);
+        }
         
-        // Write packet data
-        output.write(packetData);
+        // Masking key (if client->server)
+        if (mask) {
+            buffer.put(MASK_KEY);
+        }
     }
     
-    private void writeIpAddress(ByteArrayOutputStream out, String ip) {
-        String[] parts = ip.split("\\.");
-        for (String part : parts) {
-            out.write(Integer.parseInt(part) & 0xFF);
+    // XORs the mask in eight bytes at a time, draining the buffer whenever it fills up
+    private void putMasked(ByteBuffer payload) throws IOException {
+        int offset = 0;
+        while (payload.hasRemaining()) {
+            if (!buffer.hasRemaining()) {
+                output.drain();
+            }
+            long mask = Long.rotateLeft(MASK_LONG, 8 * (offset & 3));
+            while (payload.remaining() >= 8 && buffer.remaining() >= 8) {
+                buffer.putLong(payload.getLong() ^ mask);
+                offset += 8;
+            }
+            while (payload.hasRemaining() && buffer.hasRemaining()
+                    && (payload.remaining() < 8 || buffer.remaining() < 8)) {
+                buffer.put((byte)(payload.get() ^ MASK_KEY[offset & 3]));
+                offset++;
+            }
         }
     }
     
+    // A shared output stays open for the other connections and is only drained
     @Override
     public void close() throws IOException {
-        if (output != null) {
+        if (ownsOutput) {
             output.close();
+        } else {
+            session.closeConnection(connectionId);
+            output.flush();
         }
     }
-}
\ No newline at end of file
+}
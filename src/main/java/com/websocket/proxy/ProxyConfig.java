@@ -0,0 +1,457 @@
+package com.websocket.proxy;
+
+public class ProxyConfig {
+    // Session logging
+    private boolean asyncLogging = false;
+    private int logQueueSize = 8192;
+    private int logBatchSize = 256;
+    private long logFlushIntervalMs = 200;
+    private AsyncLogWriter.OverflowPolicy logOverflowPolicy = AsyncLogWriter.OverflowPolicy.BLOCK;
+    private int binaryLogMaxBytes = -1;
+    private int binaryLogSampleBytes = 64;
+    private int jsonLogMaxMessageBytes = 1048576;
+    private SessionLogger.LogFormat logFormat = SessionLogger.LogFormat.TEXT;
+    private long pcapFlushIntervalMs = 200;
+    private SessionLogger.PcapFormat pcapFormat = SessionLogger.PcapFormat.PCAP;
+
+    // Log storage, limits of 0 are disabled
+    private long logSegmentMaxBytes = 0;
+    private long logSegmentMaxAgeMs = 0;
+    private LogStorage.Compression logCompression = LogStorage.Compression.NONE;
+    private long logDiskBudgetBytes = 0;
+    // Connections multiplexed into this many binary log files, 0 for files per connection
+    private int logShards = 0;
+    // Sparse .idx files next to per-connection logs; shards always have them
+    private boolean logIndex = false;
+    // JSON-RPC request/response correlation
+    private boolean rpcTracking = true;
+    private long rpcTimeoutMs = 60000;
+    private int rpcMaxPending = 10000;
+    // Inline schema validation, disabled while the directory is null
+    private String validateSchemaDirectory = null;
+    private int validateThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private int validateQueueSize = 10000;
+
+    // Client frames held until the upstream handshake completes, disabled while max bytes is 0
+    private long preConnectMaxBytes = 1024 * 1024;
+    private long preConnectMaxWaitMs = 10000;
+
+    // Reconnects to the upstream while the client stays connected, replaying unacknowledged frames
+    private boolean upstreamReconnect = false;
+    private int reconnectAttempts = 10;
+    private long reconnectBaseDelayMs = 100;
+    private long reconnectMaxDelayMs = 10000;
+    private long replayBufferBytes = 256 * 1024;
+
+    // How client connections are spread over several remote servers
+    private UpstreamBalancer.Strategy balanceStrategy = UpstreamBalancer.Strategy.ROUND_ROBIN;
+    private String balanceHashHeader = null;
+    private int ejectFailurePercent = 50;
+    private long ejectMs = 30000;
+    // Active health checks of the remote servers, disabled while the interval is 0
+    private long healthCheckIntervalMs = 0;
+    private long healthCheckTimeoutMs = 2000;
+
+    // Flow control on the bytes queued towards each side of a connection, no limit while max is 0
+    private boolean backpressure = false;
+    private long backpressureHighBytes = 1024 * 1024;
+    private long backpressureLowBytes = 256 * 1024;
+    private long backpressureMaxBytes = 64L * 1024 * 1024;
+    private long backpressureMaxWaitMs = 30000;
+
+    // Upstream connection pool, disabled while max is 0
+    private int upstreamPoolMin = 0;
+    private int upstreamPoolMax = 0;
+    private long upstreamPoolIdleTimeoutMs = 60000;
+    private String upstreamPoolSubprotocols = null;
+
+    // Metrics, the HTTP endpoint is disabled while the port is negative
+    private boolean metricsJmx = true;
+    private int metricsPort = -1;
+    private boolean metricsPerConnection = false;
+
+    public boolean isAsyncLogging() {
+        return asyncLogging;
+    }
+
+    public void setAsyncLogging(boolean asyncLogging) {
+        this.asyncLogging = asyncLogging;
+    }
+
+    public int getLogQueueSize() {
+        return logQueueSize;
+    }
+
+    public void setLogQueueSize(int logQueueSize) {
+        this.logQueueSize = logQueueSize;
+    }
+
+    public int getLogBatchSize() {
+        return logBatchSize;
+    }
+
+    public void setLogBatchSize(int logBatchSize) {
+        this.logBatchSize = logBatchSize;
+    }
+
+    public long getLogFlushIntervalMs() {
+        return logFlushIntervalMs;
+    }
+
+    public void setLogFlushIntervalMs(long logFlushIntervalMs) {
+        this.logFlushIntervalMs = logFlushIntervalMs;
+    }
+
+    public AsyncLogWriter.OverflowPolicy getLogOverflowPolicy() {
+        return logOverflowPolicy;
+    }
+
+    public void setLogOverflowPolicy(AsyncLogWriter.OverflowPolicy logOverflowPolicy) {
+        this.logOverflowPolicy = logOverflowPolicy;
+    }
+
+    public int getBinaryLogMaxBytes() {
+        return binaryLogMaxBytes;
+    }
+
+    public void setBinaryLogMaxBytes(int binaryLogMaxBytes) {
+        this.binaryLogMaxBytes = binaryLogMaxBytes;
+    }
+
+    public int getBinaryLogSampleBytes() {
+        return binaryLogSampleBytes;
+    }
+
+    public void setBinaryLogSampleBytes(int binaryLogSampleBytes) {
+        this.binaryLogSampleBytes = binaryLogSampleBytes;
+    }
+
+    public int getJsonLogMaxMessageBytes() {
+        return jsonLogMaxMessageBytes;
+    }
+
+    public void setJsonLogMaxMessageBytes(int jsonLogMaxMessageBytes) {
+        this.jsonLogMaxMessageBytes = jsonLogMaxMessageBytes;
+    }
+
+    // Only the async writer flushes on a timer, so synchronous logging writes every packet through
+    public long getPcapFlushIntervalMs() {
+        return asyncLogging ? pcapFlushIntervalMs : 0;
+    }
+
+    public void setPcapFlushIntervalMs(long pcapFlushIntervalMs) {
+        this.pcapFlushIntervalMs = pcapFlushIntervalMs;
+    }
+
+    public SessionLogger.PcapFormat getPcapFormat() {
+        return pcapFormat;
+    }
+
+    public void setPcapFormat(SessionLogger.PcapFormat pcapFormat) {
+        this.pcapFormat = pcapFormat;
+    }
+
+    public long getLogSegmentMaxBytes() {
+        return logSegmentMaxBytes;
+    }
+
+    public void setLogSegmentMaxBytes(long logSegmentMaxBytes) {
+        this.logSegmentMaxBytes = logSegmentMaxBytes;
+    }
+
+    public long getLogSegmentMaxAgeMs() {
+        return logSegmentMaxAgeMs;
+    }
+
+    public void setLogSegmentMaxAgeMs(long logSegmentMaxAgeMs) {
+        this.logSegmentMaxAgeMs = logSegmentMaxAgeMs;
+    }
+
+    public LogStorage.Compression getLogCompression() {
+        return logCompression;
+    }
+
+    public void setLogCompression(LogStorage.Compression logCompression) {
+        this.logCompression = logCompression;
+    }
+
+    public long getLogDiskBudgetBytes() {
+        return logDiskBudgetBytes;
+    }
+
+    public void setLogDiskBudgetBytes(long logDiskBudgetBytes) {
+        this.logDiskBudgetBytes = logDiskBudgetBytes;
+    }
+
+    public int getLogShards() {
+        return logShards;
+    }
+
+    public void setLogShards(int logShards) {
+        this.logShards = logShards;
+    }
+
+    public boolean isRpcTracking() {
+        return rpcTracking;
+    }
+
+    public void setRpcTracking(boolean rpcTracking) {
+        this.rpcTracking = rpcTracking;
+    }
+
+    public long getRpcTimeoutMs() {
+        return rpcTimeoutMs;
+    }
+
+    public void setRpcTimeoutMs(long rpcTimeoutMs) {
+        this.rpcTimeoutMs = rpcTimeoutMs;
+    }
+
+    public int getRpcMaxPending() {
+        return rpcMaxPending;
+    }
+
+    public void setRpcMaxPending(int rpcMaxPending) {
+        this.rpcMaxPending = rpcMaxPending;
+    }
+
+    public long getPreConnectMaxBytes() {
+        return preConnectMaxBytes;
+    }
+
+    public void setPreConnectMaxBytes(long preConnectMaxBytes) {
+        this.preConnectMaxBytes = preConnectMaxBytes;
+    }
+
+    public long getPreConnectMaxWaitMs() {
+        return preConnectMaxWaitMs;
+    }
+
+    public void setPreConnectMaxWaitMs(long preConnectMaxWaitMs) {
+        this.preConnectMaxWaitMs = preConnectMaxWaitMs;
+    }
+
+    public boolean isUpstreamReconnect() {
+        return upstreamReconnect;
+    }
+
+    public void setUpstreamReconnect(boolean upstreamReconnect) {
+        this.upstreamReconnect = upstreamReconnect;
+    }
+
+    public int getReconnectAttempts() {
+        return reconnectAttempts;
+    }
+
+    public void setReconnectAttempts(int reconnectAttempts) {
+        this.reconnectAttempts = reconnectAttempts;
+    }
+
+    public long getReconnectBaseDelayMs() {
+        return reconnectBaseDelayMs;
+    }
+
+    public void setReconnectBaseDelayMs(long reconnectBaseDelayMs) {
+        this.reconnectBaseDelayMs = reconnectBaseDelayMs;
+    }
+
+    public long getReconnectMaxDelayMs() {
+        return reconnectMaxDelayMs;
+    }
+
+    public void setReconnectMaxDelayMs(long reconnectMaxDelayMs) {
+        this.reconnectMaxDelayMs = reconnectMaxDelayMs;
+    }
+
+    public long getReplayBufferBytes() {
+        return replayBufferBytes;
+    }
+
+    public void setReplayBufferBytes(long replayBufferBytes) {
+        this.replayBufferBytes = replayBufferBytes;
+    }
+
+    public UpstreamBalancer.Strategy getBalanceStrategy() {
+        return balanceStrategy;
+    }
+
+    public void setBalanceStrategy(UpstreamBalancer.Strategy balanceStrategy) {
+        this.balanceStrategy = balanceStrategy;
+    }
+
+    public String getBalanceHashHeader() {
+        return balanceHashHeader;
+    }
+
+    public void setBalanceHashHeader(String balanceHashHeader) {
+        this.balanceHashHeader = balanceHashHeader;
+    }
+
+    public int getEjectFailurePercent() {
+        return ejectFailurePercent;
+    }
+
+    public void setEjectFailurePercent(int ejectFailurePercent) {
+        this.ejectFailurePercent = ejectFailurePercent;
+    }
+
+    public long getEjectMs() {
+        return ejectMs;
+    }
+
+    public void setEjectMs(long ejectMs) {
+        this.ejectMs = ejectMs;
+    }
+
+    public long getHealthCheckIntervalMs() {
+        return healthCheckIntervalMs;
+    }
+
+    public void setHealthCheckIntervalMs(long healthCheckIntervalMs) {
+        this.healthCheckIntervalMs = healthCheckIntervalMs;
+    }
+
+    public long getHealthCheckTimeoutMs() {
+        return healthCheckTimeoutMs;
+    }
+
+    public void setHealthCheckTimeoutMs(long healthCheckTimeoutMs) {
+        this.healthCheckTimeoutMs = healthCheckTimeoutMs;
+    }
+
+    public boolean isBackpressure() {
+        return backpressure;
+    }
+
+    public void setBackpressure(boolean backpressure) {
+        this.backpressure = backpressure;
+    }
+
+    public long getBackpressureHighBytes() {
+        return backpressureHighBytes;
+    }
+
+    public void setBackpressureHighBytes(long backpressureHighBytes) {
+        this.backpressureHighBytes = backpressureHighBytes;
+    }
+
+    public long getBackpressureLowBytes() {
+        return backpressureLowBytes;
+    }
+
+    public void setBackpressureLowBytes(long backpressureLowBytes) {
+        this.backpressureLowBytes = backpressureLowBytes;
+    }
+
+    public long getBackpressureMaxBytes() {
+        return backpressureMaxBytes;
+    }
+
+    public void setBackpressureMaxBytes(long backpressureMaxBytes) {
+        this.backpressureMaxBytes = backpressureMaxBytes;
+    }
+
+    public long getBackpressureMaxWaitMs() {
+        return backpressureMaxWaitMs;
+    }
+
+    public void setBackpressureMaxWaitMs(long backpressureMaxWaitMs) {
+        this.backpressureMaxWaitMs = backpressureMaxWaitMs;
+    }
+
+    public String getValidateSchemaDirectory() {
+        return validateSchemaDirectory;
+    }
+
+    public void setValidateSchemaDirectory(String validateSchemaDirectory) {
+        this.validateSchemaDirectory = validateSchemaDirectory;
+    }
+
+    public int getValidateThreads() {
+        return validateThreads;
+    }
+
+    public void setValidateThreads(int validateThreads) {
+        this.validateThreads = validateThreads;
+    }
+
+    public int getValidateQueueSize() {
+        return validateQueueSize;
+    }
+
+    public void setValidateQueueSize(int validateQueueSize) {
+        this.validateQueueSize = validateQueueSize;
+    }
+
+    public boolean isLogIndex() {
+        return logIndex;
+    }
+
+    public void setLogIndex(boolean logIndex) {
+        this.logIndex = logIndex;
+    }
+
+    public SessionLogger.LogFormat getLogFormat() {
+        return logFormat;
+    }
+
+    public void setLogFormat(SessionLogger.LogFormat logFormat) {
+        this.logFormat = logFormat;
+    }
+
+    public int getUpstreamPoolMin() {
+        return upstreamPoolMin;
+    }
+
+    public void setUpstreamPoolMin(int upstreamPoolMin) {
+        this.upstreamPoolMin = upstreamPoolMin;
+    }
+
+    public int getUpstreamPoolMax() {
+        return upstreamPoolMax;
+    }
+
+    public void setUpstreamPoolMax(int upstreamPoolMax) {
+        this.upstreamPoolMax = upstreamPoolMax;
+    }
+
+    public long getUpstreamPoolIdleTimeoutMs() {
+        return upstreamPoolIdleTimeoutMs;
+    }
+
+    public void setUpstreamPoolIdleTimeoutMs(long upstreamPoolIdleTimeoutMs) {
+        this.upstreamPoolIdleTimeoutMs = upstreamPoolIdleTimeoutMs;
+    }
+
+    public String getUpstreamPoolSubprotocols() {
+        return upstreamPoolSubprotocols;
+    }
+
+    public void setUpstreamPoolSubprotocols(String upstreamPoolSubprotocols) {
+        this.upstreamPoolSubprotocols = upstreamPoolSubprotocols;
+    }
+
+    public boolean isMetricsJmx() {
+        return metricsJmx;
+    }
+
+    public void setMetricsJmx(boolean metricsJmx) {
+        this.metricsJmx = metricsJmx;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    public boolean isMetricsPerConnection() {
+        return metricsPerConnection;
+    }
+
+    public void setMetricsPerConnection(boolean metricsPerConnection) {
+        this.metricsPerConnection = metricsPerConnection;
+    }
+}
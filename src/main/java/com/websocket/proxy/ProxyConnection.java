@@ -1,34 +1,90 @@
 package com.websocket.proxy;
 
 import org.java_websocket.WebSocket;
-import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
 import org.java_websocket.handshake.ServerHandshake;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
-public class ProxyConnection {
+public class ProxyConnection implements UpstreamListener {
     private static final Logger logger = LoggerFactory.getLogger(ProxyConnection.class);
+    private static final long READ_DRAIN_MS = 1000;
     
     private final WebSocket clientConnection;
-    private final URI remoteUri;
+    private final UpstreamBalancer.Route route;
+    // The remote server of the current upstream connection
+    private volatile URI remoteUri;
+    // Whether the current upstream connection got through the handshake
+    private volatile boolean serverOpened = false;
     private final SessionLogger sessionLogger;
-    private WebSocketClient serverConnection;
+    private final InlineValidator inlineValidator;
+    private final Backpressure.Flow flow;
+    private volatile UpstreamClient serverConnection;
+    // Runs the read loop of serverConnection, null for pooled connections
+    private volatile Thread serverThread;
     private final int connectionId;
     private final String subprotocols;
+    private final ProxyMetrics metrics;
+    private final ConnectionMetrics connectionMetrics;
+    private volatile long connectStartNanos;
+    
+    // Client frames waiting for the upstream handshake, in arrival order
+    private final ArrayDeque<PendingFrame> preConnectFrames = new ArrayDeque<>();
+    private final long preConnectMaxBytes;
+    private final long preConnectMaxWaitNanos;
+    // Guarded by preConnectFrames
+    private long preConnectBytes = 0;
+    private boolean preConnectFailed = false;
+    // Set under the lock once the held frames are sent; unlocked reads skip the lock afterwards
+    private volatile boolean upstreamReady = false;
+    
+    // Upstream reconnects, disabled while null
+    private final UpstreamReconnect reconnect;
+    // Guarded by preConnectFrames
+    private final ReplayBuffer replayBuffer;
+    private int reconnectAttempt = 0;
+    // Set once the proxy closes the connection itself, so the upstream close is not retried
+    private volatile boolean closing = false;
     
     public ProxyConnection(WebSocket clientConnection, URI remoteUri, String logDirectory, 
                           String sessionId, int connectionId, int clientPort, String subprotocols) {
+        this(clientConnection, UpstreamBalancer.fixed(remoteUri), logDirectory, sessionId, connectionId, clientPort,
+             subprotocols,
+             new ProxyConfig(), null, new LogStorage(), null, null, null, null, null, new ProxyMetrics());
+    }
+    
+    public ProxyConnection(WebSocket clientConnection, UpstreamBalancer.Route route, String logDirectory,
+                          String sessionId, int connectionId, int clientPort, String subprotocols,
+                          ProxyConfig config, AsyncLogWriter asyncLogWriter, LogStorage logStorage,
+                          LogShards logShards, PcapNgWriter pcapNgWriter, InlineValidator inlineValidator,
+                          Backpressure backpressure, UpstreamReconnect reconnect, ProxyMetrics metrics) {
         this.clientConnection = clientConnection;
-        this.remoteUri = remoteUri;
+        this.route = route;
+        this.remoteUri = route.getUri();
         this.connectionId = connectionId;
         this.subprotocols = subprotocols;
+        this.inlineValidator = inlineValidator;
+        this.flow = backpressure != null ? backpressure.open(connectionId, clientConnection) : null;
+        this.reconnect = reconnect;
+        this.replayBuffer = reconnect != null ? reconnect.newReplayBuffer() : null;
+        this.metrics = metrics;
+        this.connectionMetrics = metrics.openConnection(connectionId);
+        this.preConnectMaxBytes = config.getPreConnectMaxBytes();
+        this.preConnectMaxWaitNanos = config.getPreConnectMaxWaitMs() * 1_000_000L;
         
-        // Extract server host and port from URI
+        // Extract server host and port from URI, the first one when balancing over several
         String serverHost = remoteUri.getHost();
         int serverPort = remoteUri.getPort();
         if (serverPort == -1) {
@@ -36,7 +92,8 @@ public class ProxyConnection {
         }
         
         this.sessionLogger = new SessionLogger(logDirectory, sessionId, connectionId,
-                                              serverHost, clientPort, serverPort);
+                                              serverHost, clientPort, serverPort, config, asyncLogWriter,
+                                              logStorage, logShards, pcapNgWriter, metrics);
     }
     
     public void connect() {
@@ -49,96 +106,389 @@ public class ProxyConnection {
             logger.info("Forwarding subprotocols to server: {}", subprotocols);
         }
         
-        serverConnection = new WebSocketClient(remoteUri, headers) {
-            @Override
-            public void onOpen(ServerHandshake handshake) {
-                logger.info("Connection #{} established to remote server", connectionId);
-                sessionLogger.logEvent("CONNECTION_ESTABLISHED", "Connected to " + remoteUri);
-                
-                // Check if server selected a subprotocol
-                if (handshake.hasFieldValue("Sec-WebSocket-Protocol")) {
-                    String selectedProtocol = handshake.getFieldValue("Sec-WebSocket-Protocol");
-                    logger.info("Server selected subprotocol: {}", selectedProtocol);
-                    sessionLogger.logEvent("SUBPROTOCOL_SELECTED", selectedProtocol);
-                }
+        UpstreamClient client = new UpstreamClient(remoteUri, headers);
+        client.attach(this);
+        serverConnection = client;
+        serverOpened = false;
+        if (flow != null) {
+            flow.setUpstream(client.getConnection());
+        }
+        connectStartNanos = System.nanoTime();
+        // Runs the client's read loop on a thread we own, virtual when enabled
+        serverThread = ThreadSupport.start("upstream-conn-" + connectionId, client);
+    }
+    
+    // Takes over an already open connection from the upstream pool
+    public void attach(UpstreamClient client) {
+        logger.info("Connection #{} using pooled connection to remote server: {}", connectionId, remoteUri);
+        serverConnection = client;
+        serverThread = null;
+        if (flow != null) {
+            flow.setUpstream(client.getConnection());
+        }
+        onServerOpen(client.getHandshake());
+    }
+    
+    @Override
+    public void onServerOpen(ServerHandshake handshake) {
+        long handshakeNanos = 0;
+        if (connectStartNanos != 0) {
+            handshakeNanos = System.nanoTime() - connectStartNanos;
+            metrics.recordUpstreamConnect(handshakeNanos);
+        }
+        serverOpened = true;
+        route.connected(handshakeNanos);
+        logger.info("Connection #{} established to remote server", connectionId);
+        sessionLogger.logEvent("CONNECTION_ESTABLISHED", "Connected to " + remoteUri);
+        
+        // Check if server selected a subprotocol
+        if (handshake.hasFieldValue("Sec-WebSocket-Protocol")) {
+            String selectedProtocol = handshake.getFieldValue("Sec-WebSocket-Protocol");
+            logger.info("Server selected subprotocol: {}", selectedProtocol);
+            sessionLogger.logEvent("SUBPROTOCOL_SELECTED", selectedProtocol);
+        }
+        
+        flushPreConnect();
+    }
+    
+    @Override
+    public void onServerMessage(String message) {
+        long start = System.nanoTime();
+        sessionLogger.logMessage("SERVER_TO_CLIENT", message);
+        if (replayBuffer != null) {
+            synchronized (preConnectFrames) {
+                replayBuffer.acknowledge(message);
             }
-            
-            @Override
-            public void onMessage(String message) {
-                sessionLogger.logMessage("SERVER_TO_CLIENT", message);
-                
-                if (clientConnection.isOpen()) {
-                    clientConnection.send(message);
-                }
+        }
+        
+        if (clientConnection.isOpen()) {
+            clientConnection.send(message);
+            int length = ProxyMetrics.utf8Length(message);
+            metrics.recordServerToClient(connectionMetrics, length, System.nanoTime() - start);
+            if (flow != null && !flow.sentToClient(length)) {
+                closeOverLimit(CloseFrame.POLICY_VALIDATION, "Client not reading fast enough");
             }
-            
-            @Override
-            public void onMessage(ByteBuffer bytes) {
-                byte[] data = new byte[bytes.remaining()];
-                bytes.get(data);
-                sessionLogger.logBinaryMessage("SERVER_TO_CLIENT", data);
-                
-                if (clientConnection.isOpen()) {
-                    clientConnection.send(bytes);
-                }
+        }
+        if (inlineValidator != null) {
+            inlineValidator.submit(connectionId, "SERVER_TO_CLIENT", message);
+        }
+    }
+    
+    @Override
+    public void onServerMessage(ByteBuffer bytes) {
+        long start = System.nanoTime();
+        int length = bytes.remaining();
+        sessionLogger.logBinaryMessage("SERVER_TO_CLIENT", bytes);
+        if (replayBuffer != null) {
+            synchronized (preConnectFrames) {
+                replayBuffer.acknowledgeBinary();
             }
-            
-            @Override
-            public void onClose(int code, String reason, boolean remote) {
-                logger.info("Connection #{} to remote server closed: {} - {}", connectionId, code, reason);
-                sessionLogger.logEvent("SERVER_CONNECTION_CLOSED", 
-                    String.format("Code: %d, Reason: %s", code, reason));
-                
-                if (clientConnection.isOpen()) {
-                    clientConnection.close(code, reason);
-                }
+        }
+        
+        if (clientConnection.isOpen()) {
+            clientConnection.send(bytes);
+            metrics.recordServerToClient(connectionMetrics, length, System.nanoTime() - start);
+            if (flow != null && !flow.sentToClient(length)) {
+                closeOverLimit(CloseFrame.POLICY_VALIDATION, "Client not reading fast enough");
             }
-            
-            @Override
-            public void onError(Exception ex) {
-                logger.error("Connection #{} error with remote server", connectionId, ex);
-                sessionLogger.logEvent("SERVER_CONNECTION_ERROR", ex.getMessage());
-                
-                if (clientConnection.isOpen()) {
-                    clientConnection.close(1011, "Remote server error: " + ex.getMessage());
-                }
+        }
+    }
+    
+    @Override
+    public void onServerClose(int code, String reason, boolean remote) {
+        logger.info("Connection #{} to remote server closed: {} - {}", connectionId, code, reason);
+        sessionLogger.logEvent("SERVER_CONNECTION_CLOSED", 
+            String.format("Code: %d, Reason: %s", code, reason));
+        if (!serverOpened) {
+            route.connectFailed();
+        }
+        
+        if (reconnect != null && !closing && clientConnection.isOpen() && UpstreamReconnect.isRetryable(code)) {
+            scheduleReconnect();
+            return;
+        }
+        if (clientConnection.isOpen()) {
+            clientConnection.close(code, reason);
+        }
+    }
+    
+    // Holds the client's frames again until the next upstream connection opens
+    private void scheduleReconnect() {
+        int attempt;
+        synchronized (preConnectFrames) {
+            upstreamReady = false;
+            attempt = ++reconnectAttempt;
+        }
+        if (reconnect.schedule(attempt, this::reconnectNow)) {
+            logger.info("Connection #{}: reconnecting to remote server, attempt {}", connectionId, attempt);
+            sessionLogger.logEvent("UPSTREAM_RECONNECTING", "Attempt " + attempt);
+        } else {
+            logger.warn("Connection #{}: remote server unavailable after {} reconnect attempts, closing",
+                connectionId, attempt - 1);
+            sessionLogger.logEvent("UPSTREAM_RECONNECT_FAILED", "Gave up after " + (attempt - 1) + " attempts");
+            closing = true;
+            clientConnection.close(CloseFrame.TRY_AGAIN_LATER, "Remote server unavailable");
+        }
+    }
+    
+    private void reconnectNow() {
+        // The close can be reported by the library's write thread while the read thread still delivers
+        // responses that arrived before it, and those must acknowledge their requests before the replay
+        Thread previous = serverThread;
+        if (previous != null && previous != Thread.currentThread()) {
+            try {
+                previous.join(READ_DRAIN_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             }
-        };
+        }
+        if (!closing && clientConnection.isOpen()) {
+            // Another backend when the last one is ejected, or by round-robin or least-active
+            remoteUri = route.reselect();
+            connect();
+        }
+    }
+    
+    @Override
+    public void onServerError(Exception ex) {
+        logger.error("Connection #{} error with remote server", connectionId, ex);
+        sessionLogger.logEvent("SERVER_CONNECTION_ERROR", ex.getMessage());
         
-        serverConnection.connect();
+        // With reconnects, the close that follows decides whether the client stays
+        if (reconnect == null && clientConnection.isOpen()) {
+            clientConnection.close(1011, "Remote server error: " + ex.getMessage());
+        }
     }
     
     public void sendToServer(String message) {
+        long start = System.nanoTime();
         sessionLogger.logMessage("CLIENT_TO_SERVER", message);
-        
-        if (serverConnection != null && serverConnection.isOpen()) {
-            serverConnection.send(message);
-        } else {
-            logger.warn("Connection #{}: Cannot send message to server - connection not open", connectionId);
+        if (inlineValidator != null) {
+            inlineValidator.submit(connectionId, "CLIENT_TO_SERVER", message);
         }
+        
+        forward(message, ProxyMetrics.utf8Length(message), start);
     }
     
     public void sendToServer(ByteBuffer message) {
-        byte[] data = new byte[message.remaining()];
-        message.get(data);
-        sessionLogger.logBinaryMessage("CLIENT_TO_SERVER", data);
-        message.rewind();
+        long start = System.nanoTime();
+        int length = message.remaining();
+        sessionLogger.logBinaryMessage("CLIENT_TO_SERVER", message);
         
-        if (serverConnection != null && serverConnection.isOpen()) {
-            serverConnection.send(message);
+        forward(message, length, start);
+    }
+    
+    // A text frame or a binary ByteBuffer
+    private void forward(Object frame, int length, long start) {
+        if (!upstreamReady && holdUntilOpen(frame, length, start)) {
+            return;
+        }
+        if (replayBuffer == null) {
+            send(frame, length, start);
+            return;
+        }
+        synchronized (preConnectFrames) {
+            // The upstream may have dropped since the check above
+            if (!upstreamReady && holdUntilOpen(frame, length, start)) {
+                return;
+            }
+            // Before sending, which consumes a binary frame's buffer
+            replayBuffer.add(frame, length);
+            send(frame, length, start);
+        }
+    }
+    
+    private void send(Object frame, int length, long start) {
+        UpstreamClient upstream = serverConnection;
+        if (upstream != null && upstream.isOpen() && sendFrame(upstream, frame)) {
+            metrics.recordClientToServer(connectionMetrics, length, System.nanoTime() - start);
+            if (flow != null && !flow.sentToUpstream(length)) {
+                closeOverLimit(CloseFrame.TRY_AGAIN_LATER, "Remote server not reading fast enough");
+            }
+        } else if (replayBuffer == null) {
+            logger.warn("Connection #{}: Cannot send {} to server - connection not open", connectionId,
+                frame instanceof String ? "message" : "binary message");
+        }
+        // Otherwise the frame waits in the replay buffer for the reconnect
+    }
+    
+    // False when the upstream closed since the isOpen check
+    private static boolean sendFrame(UpstreamClient upstream, Object frame) {
+        try {
+            if (frame instanceof String) {
+                upstream.send((String) frame);
+            } else {
+                upstream.send((ByteBuffer) frame);
+            }
+            return true;
+        } catch (WebsocketNotConnectedException e) {
+            return false;
+        }
+    }
+    
+    // Keeps a frame the client sent before the upstream handshake completed. Returns false once the
+    // upstream is open, or with the queue disabled, so the caller sends the frame itself.
+    private boolean holdUntilOpen(Object frame, int length, long receivedNanos) {
+        synchronized (preConnectFrames) {
+            if (upstreamReady || preConnectMaxBytes <= 0) {
+                return false;
+            }
+            if (preConnectFailed) {
+                return true;
+            }
+            PendingFrame first = preConnectFrames.peekFirst();
+            if (preConnectBytes + length > preConnectMaxBytes) {
+                failPreConnect("More than " + preConnectMaxBytes + " bytes sent before the remote server connected");
+                return true;
+            }
+            if (first != null && receivedNanos - first.receivedNanos > preConnectMaxWaitNanos) {
+                failPreConnect("Remote server not connected after " + preConnectMaxWaitNanos / 1_000_000 + "ms");
+                return true;
+            }
+            preConnectFrames.addLast(new PendingFrame(frame, length, receivedNanos));
+            preConnectBytes += length;
+            metrics.recordPreConnectBuffered();
+            return true;
+        }
+    }
+    
+    // Sends the frames held so far in one batch, ahead of anything the client sends from now on.
+    // After a reconnect the unacknowledged frames sent to the previous connection go first.
+    private void flushPreConnect() {
+        synchronized (preConnectFrames) {
+            List<Object> replay = Collections.emptyList();
+            if (replayBuffer != null && reconnectAttempt > 0) {
+                replay = replayBuffer.getFrames();
+                logger.info("Connection #{}: reconnected to remote server, replaying {} unacknowledged frames",
+                    connectionId, replay.size());
+                sessionLogger.logEvent("UPSTREAM_RECONNECTED", String.format("Replaying %d frames, %d evicted so far",
+                    replay.size(), replayBuffer.getEvicted()));
+                metrics.recordUpstreamReconnected(replay.size());
+                reconnectAttempt = 0;
+            }
+            
+            PendingFrame first = preConnectFrames.peekFirst();
+            long now = System.nanoTime();
+            if (first != null && !preConnectFailed && now - first.receivedNanos > preConnectMaxWaitNanos) {
+                failPreConnect("Remote server not connected after " + preConnectMaxWaitNanos / 1_000_000 + "ms");
+            } else if (!preConnectFailed && (!replay.isEmpty() || first != null)) {
+                sendPreConnect(replay, now);
+            }
+            preConnectFrames.clear();
+            preConnectBytes = 0;
+            upstreamReady = true;
+        }
+    }
+    
+    private void sendPreConnect(List<Object> replay, long now) {
+        UpstreamClient client = serverConnection;
+        Draft draft = client.getDraft();
+        List<Framedata> frames = new ArrayList<>();
+        boolean withinLimit = true;
+        for (Object frame : replay) {
+            frames.addAll(createFrames(draft, frame));
+            if (flow != null && !flow.sentToUpstream(length(frame))) {
+                withinLimit = false;
+            }
+        }
+        for (PendingFrame pending : preConnectFrames) {
+            if (replayBuffer != null) {
+                replayBuffer.add(pending.frame, pending.length);
+            }
+            frames.addAll(createFrames(draft, pending.frame));
+        }
+        client.sendFrame(frames);
+        if (!preConnectFrames.isEmpty()) {
+            logger.info("Connection #{}: sent {} frames received before the remote server connected",
+                connectionId, preConnectFrames.size());
+        }
+        
+        for (PendingFrame pending : preConnectFrames) {
+            metrics.recordClientToServer(connectionMetrics, pending.length, now - pending.receivedNanos);
+            if (flow != null && !flow.sentToUpstream(pending.length)) {
+                withinLimit = false;
+            }
+        }
+        if (!withinLimit) {
+            closeOverLimit(CloseFrame.TRY_AGAIN_LATER, "Remote server not reading fast enough");
+        }
+    }
+    
+    private static List<Framedata> createFrames(Draft draft, Object frame) {
+        return frame instanceof String
+            ? draft.createFrames((String) frame, true)
+            : draft.createFrames((ByteBuffer) frame, true);
+    }
+    
+    private static int length(Object frame) {
+        return frame instanceof String ? ProxyMetrics.utf8Length((String) frame) : ((ByteBuffer) frame).remaining();
+    }
+    
+    // Called with the queue locked; frames arriving until the client has closed are dropped
+    private void failPreConnect(String reason) {
+        logger.warn("Connection #{}: {}, closing", connectionId, reason);
+        sessionLogger.logEvent("PRECONNECT_LIMIT", reason);
+        metrics.recordPreConnectOverflow();
+        preConnectFailed = true;
+        closing = true;
+        preConnectFrames.clear();
+        preConnectBytes = 0;
+        clientConnection.close(CloseFrame.TRY_AGAIN_LATER, reason);
+    }
+    
+    // The side that stopped reading would not take a close handshake either, so its connection is
+    // dropped. A client behind a stuck upstream gets the close code.
+    private void closeOverLimit(int code, String reason) {
+        logger.warn("Connection #{}: {}, backpressure limit reached, closing", connectionId, reason);
+        sessionLogger.logEvent("BACKPRESSURE_LIMIT", reason);
+        closing = true;
+        if (code == CloseFrame.TRY_AGAIN_LATER) {
+            serverConnection.closeConnection(code, reason);
+            clientConnection.close(code, reason);
         } else {
-            logger.warn("Connection #{}: Cannot send binary message to server - connection not open", connectionId);
+            clientConnection.closeConnection(code, reason);
         }
     }
     
     public void close() {
         logger.info("Closing proxy connection #{}", connectionId);
+        closing = true;
+        route.release();
+        if (flow != null) {
+            flow.close();
+        }
+        synchronized (preConnectFrames) {
+            if (!preConnectFrames.isEmpty()) {
+                logger.warn("Connection #{}: {} frames received before the remote server connected were not sent",
+                    connectionId, preConnectFrames.size());
+                preConnectFrames.clear();
+            }
+        }
         sessionLogger.logEvent("PROXY_CONNECTION_CLOSED", "Proxy connection closed");
         
+        if (metrics.closeConnection(connectionMetrics)) {
+            String summary = connectionMetrics.summary();
+            logger.info("Connection #{} summary: {}", connectionId, summary);
+            sessionLogger.logEvent("CONNECTION_SUMMARY", summary);
+        }
+        
         if (serverConnection != null && serverConnection.isOpen()) {
             serverConnection.close();
         }
         
         sessionLogger.close();
     }
+    
+    private static class PendingFrame {
+        private final Object frame;
+        private final int length;
+        private final long receivedNanos;
+        
+        PendingFrame(Object frame, int length, long receivedNanos) {
+            this.frame = frame;
+            this.length = length;
+            this.receivedNanos = receivedNanos;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,817 @@
+package com.websocket.proxy;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Global proxy instrumentation. Counters are LongAdders and latencies go into HdrHistogram
+// Recorders, so the forwarding threads never contend on a shared lock.
+public class ProxyMetrics implements ProxyMetricsMBean {
+    private static final Logger logger = LoggerFactory.getLogger(ProxyMetrics.class);
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    // Methods come from clients; past this many, further ones share one series
+    static final int MAX_RPC_METHODS = 256;
+    static final String OTHER_RPC_METHOD = "_other";
+
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final LongAdder totalConnections = new LongAdder();
+    private final Map<Integer, ConnectionMetrics> connections = new ConcurrentHashMap<>();
+
+    private final LongAdder clientToServerFrames = new LongAdder();
+    private final LongAdder clientToServerBytes = new LongAdder();
+    private final LongAdder serverToClientFrames = new LongAdder();
+    private final LongAdder serverToClientBytes = new LongAdder();
+
+    private final LatencyStats clientToServerLatency = new LatencyStats();
+    private final LatencyStats serverToClientLatency = new LatencyStats();
+    private final LatencyStats upstreamConnectTime = new LatencyStats();
+
+    private final LongAdder pcapBytesWritten = new LongAdder();
+
+    private final LongAdder jsonReassembled = new LongAdder();
+    private final LongAdder jsonReassemblyOverflows = new LongAdder();
+    private final LongAdder jsonDiscardedBytes = new LongAdder();
+
+    private final LongAdder schemaPreferredHits = new LongAdder();
+    private final LongAdder schemaFallbackHits = new LongAdder();
+    private final LongAdder schemaMisses = new LongAdder();
+
+    private final Map<String, RpcStats> rpcMethods = new ConcurrentHashMap<>();
+    private final LatencyStats rpcLatency = new LatencyStats();
+    private final LongAdder rpcCompleted = new LongAdder();
+    private final LongAdder rpcErrors = new LongAdder();
+    private final LongAdder rpcTimeouts = new LongAdder();
+    private final LongAdder rpcUnmatched = new LongAdder();
+    private final LongAdder rpcPending = new LongAdder();
+
+    private final LongAdder inlineValid = new LongAdder();
+    private final LongAdder inlinePartial = new LongAdder();
+    private final LongAdder inlineInvalid = new LongAdder();
+    private final LongAdder inlineSkipped = new LongAdder();
+    private final LongAdder inlineDropped = new LongAdder();
+
+    private final LongAdder preConnectBuffered = new LongAdder();
+    private final LongAdder preConnectOverflows = new LongAdder();
+
+    private final LongAdder upstreamReconnectAttempts = new LongAdder();
+    private final LongAdder upstreamReconnects = new LongAdder();
+    private final LongAdder upstreamReconnectFailures = new LongAdder();
+    private final LongAdder replayedFrames = new LongAdder();
+    private final LongAdder replayEvicted = new LongAdder();
+
+    // Reads paused because the other side is not keeping up, by the direction of the paused traffic
+    private final LongAdder clientToServerPaused = new LongAdder();
+    private final LongAdder clientToServerPauses = new LongAdder();
+    private final LongAdder clientToServerPausedNanos = new LongAdder();
+    private final LongAdder clientToServerOverflows = new LongAdder();
+    private final LongAdder serverToClientPaused = new LongAdder();
+    private final LongAdder serverToClientPauses = new LongAdder();
+    private final LongAdder serverToClientPausedNanos = new LongAdder();
+    private final LongAdder serverToClientOverflows = new LongAdder();
+
+    private volatile AsyncLogWriter asyncLogWriter;
+    private volatile LogStorage logStorage;
+    private volatile UpstreamPool upstreamPool;
+    private volatile UpstreamBalancer upstreamBalancer;
+    private volatile boolean healthChecked;
+    private volatile InlineValidator inlineValidator;
+    // One series per open connection, so off unless asked for
+    private volatile boolean connectionSeries;
+    private ObjectName objectName;
+
+    // Values are recorded in nanoseconds; snapshots accumulate the interval histograms
+    static final class LatencyStats {
+        private final Recorder recorder = new Recorder(3);
+        private final Histogram total = new Histogram(3);
+        private Histogram interval;
+
+        void record(long nanos) {
+            recorder.recordValue(Math.max(0, nanos));
+        }
+
+        synchronized Histogram snapshot() {
+            interval = recorder.getIntervalHistogram(interval);
+            total.add(interval);
+            return total.copy();
+        }
+    }
+
+    static final class RpcStats {
+        private final LatencyStats latency = new LatencyStats();
+        private final LongAdder errors = new LongAdder();
+    }
+
+    public void setAsyncLogWriter(AsyncLogWriter asyncLogWriter) {
+        this.asyncLogWriter = asyncLogWriter;
+    }
+
+    public void setLogStorage(LogStorage logStorage) {
+        this.logStorage = logStorage;
+    }
+
+    public void setUpstreamPool(UpstreamPool upstreamPool) {
+        this.upstreamPool = upstreamPool;
+    }
+
+    public void setUpstreamBalancer(UpstreamBalancer upstreamBalancer, boolean healthChecked) {
+        this.upstreamBalancer = upstreamBalancer;
+        this.healthChecked = healthChecked;
+    }
+
+    public void setInlineValidator(InlineValidator inlineValidator) {
+        this.inlineValidator = inlineValidator;
+    }
+
+    public void setConnectionSeries(boolean connectionSeries) {
+        this.connectionSeries = connectionSeries;
+    }
+
+    ConnectionMetrics openConnection(int connectionId) {
+        ConnectionMetrics connection = new ConnectionMetrics(connectionId);
+        connections.put(connectionId, connection);
+        activeConnections.incrementAndGet();
+        totalConnections.increment();
+        return connection;
+    }
+
+    // Safe to call more than once per connection, e.g. from both onError and onClose
+    boolean closeConnection(ConnectionMetrics connection) {
+        if (connections.remove(connection.getConnectionId(), connection)) {
+            activeConnections.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    void recordClientToServer(ConnectionMetrics connection, int bytes, long latencyNanos) {
+        clientToServerFrames.increment();
+        clientToServerBytes.add(bytes);
+        clientToServerLatency.record(latencyNanos);
+        connection.recordClientToServer(bytes);
+    }
+
+    void recordServerToClient(ConnectionMetrics connection, int bytes, long latencyNanos) {
+        serverToClientFrames.increment();
+        serverToClientBytes.add(bytes);
+        serverToClientLatency.record(latencyNanos);
+        connection.recordServerToClient(bytes);
+    }
+
+    void recordUpstreamConnect(long nanos) {
+        upstreamConnectTime.record(nanos);
+    }
+
+    void recordPcapBytes(long bytes) {
+        pcapBytesWritten.add(bytes);
+    }
+
+    void recordJsonReassembled() {
+        jsonReassembled.increment();
+    }
+
+    void recordJsonReassemblyOverflow(long bytes) {
+        jsonReassemblyOverflows.increment();
+        jsonDiscardedBytes.add(bytes);
+    }
+
+    void recordJsonFragmentsDiscarded(long bytes) {
+        jsonDiscardedBytes.add(bytes);
+    }
+
+    void recordSchemaPreferredHit() {
+        schemaPreferredHits.increment();
+    }
+
+    void recordSchemaFallbackHit() {
+        schemaFallbackHits.increment();
+    }
+
+    void recordSchemaMiss() {
+        schemaMisses.increment();
+    }
+
+    void recordRpc(String method, long latencyNanos, boolean error) {
+        RpcStats stats = rpcMethods.get(method);
+        if (stats == null) {
+            String key = rpcMethods.size() < MAX_RPC_METHODS ? method : OTHER_RPC_METHOD;
+            stats = rpcMethods.computeIfAbsent(key, k -> new RpcStats());
+        }
+        stats.latency.record(latencyNanos);
+        rpcLatency.record(latencyNanos);
+        rpcCompleted.increment();
+        if (error) {
+            stats.errors.increment();
+            rpcErrors.increment();
+        }
+    }
+
+    void recordRpcPending(int delta) {
+        rpcPending.add(delta);
+    }
+
+    void recordRpcTimeout() {
+        rpcTimeouts.increment();
+    }
+
+    void recordRpcUnmatched() {
+        rpcUnmatched.increment();
+    }
+
+    void recordInlineValid() {
+        inlineValid.increment();
+    }
+
+    void recordInlinePartial() {
+        inlinePartial.increment();
+    }
+
+    void recordInlineInvalid() {
+        inlineInvalid.increment();
+    }
+
+    void recordInlineSkipped() {
+        inlineSkipped.increment();
+    }
+
+    void recordInlineDropped() {
+        inlineDropped.increment();
+    }
+
+    void recordPreConnectBuffered() {
+        preConnectBuffered.increment();
+    }
+
+    void recordPreConnectOverflow() {
+        preConnectOverflows.increment();
+    }
+
+    void recordUpstreamReconnectAttempt() {
+        upstreamReconnectAttempts.increment();
+    }
+
+    void recordUpstreamReconnected(int replayed) {
+        upstreamReconnects.increment();
+        replayedFrames.add(replayed);
+    }
+
+    void recordUpstreamReconnectFailed() {
+        upstreamReconnectFailures.increment();
+    }
+
+    void recordReplayEvicted() {
+        replayEvicted.increment();
+    }
+
+    void recordBackpressurePause(boolean clientToServer) {
+        (clientToServer ? clientToServerPaused : serverToClientPaused).increment();
+        (clientToServer ? clientToServerPauses : serverToClientPauses).increment();
+    }
+
+    void recordBackpressureResume(boolean clientToServer, long pausedNanos) {
+        (clientToServer ? clientToServerPaused : serverToClientPaused).decrement();
+        (clientToServer ? clientToServerPausedNanos : serverToClientPausedNanos).add(pausedNanos);
+    }
+
+    void recordBackpressureClose(boolean clientToServer) {
+        (clientToServer ? clientToServerOverflows : serverToClientOverflows).increment();
+    }
+
+    // Encoded size of a text frame without allocating the byte array
+    static int utf8Length(String text) {
+        int length = text.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    bytes += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    bytes += 2;
+                    i++;
+                } else {
+                    bytes += 2;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    public void registerMBean(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName candidate = new ObjectName("com.websocket.proxy:type=ProxyMetrics,name=" + ObjectName.quote(name));
+            server.registerMBean(this, candidate);
+            objectName = candidate;
+            logger.info("Registered metrics MBean {}", candidate);
+        } catch (Exception e) {
+            logger.warn("Failed to register metrics MBean", e);
+        }
+    }
+
+    public void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (Exception e) {
+            logger.debug("Failed to unregister metrics MBean", e);
+        }
+        objectName = null;
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    @Override
+    public long getTotalConnections() {
+        return totalConnections.sum();
+    }
+
+    @Override
+    public long getClientToServerFrames() {
+        return clientToServerFrames.sum();
+    }
+
+    @Override
+    public long getClientToServerBytes() {
+        return clientToServerBytes.sum();
+    }
+
+    @Override
+    public long getServerToClientFrames() {
+        return serverToClientFrames.sum();
+    }
+
+    @Override
+    public long getServerToClientBytes() {
+        return serverToClientBytes.sum();
+    }
+
+    @Override
+    public double getClientToServerLatencyP50Micros() {
+        return clientToServerLatency.snapshot().getValueAtPercentile(50.0) / 1000.0;
+    }
+
+    @Override
+    public double getClientToServerLatencyP99Micros() {
+        return clientToServerLatency.snapshot().getValueAtPercentile(99.0) / 1000.0;
+    }
+
+    @Override
+    public double getServerToClientLatencyP50Micros() {
+        return serverToClientLatency.snapshot().getValueAtPercentile(50.0) / 1000.0;
+    }
+
+    @Override
+    public double getServerToClientLatencyP99Micros() {
+        return serverToClientLatency.snapshot().getValueAtPercentile(99.0) / 1000.0;
+    }
+
+    @Override
+    public double getUpstreamConnectP50Micros() {
+        return upstreamConnectTime.snapshot().getValueAtPercentile(50.0) / 1000.0;
+    }
+
+    @Override
+    public double getUpstreamConnectP99Micros() {
+        return upstreamConnectTime.snapshot().getValueAtPercentile(99.0) / 1000.0;
+    }
+
+    @Override
+    public int getLogQueueDepth() {
+        AsyncLogWriter writer = asyncLogWriter;
+        return writer != null ? writer.getQueueDepth() : 0;
+    }
+
+    @Override
+    public long getLogDroppedRecords() {
+        AsyncLogWriter writer = asyncLogWriter;
+        return writer != null ? writer.getDroppedRecords() : 0;
+    }
+
+    @Override
+    public long getLogStoredBytes() {
+        LogStorage storage = logStorage;
+        return storage != null ? storage.getStoredBytes() : 0;
+    }
+
+    @Override
+    public long getLogSegmentsRolled() {
+        LogStorage storage = logStorage;
+        return storage != null ? storage.getRolledSegments() : 0;
+    }
+
+    @Override
+    public long getLogSegmentsEvicted() {
+        LogStorage storage = logStorage;
+        return storage != null ? storage.getEvictedSegments() : 0;
+    }
+
+    @Override
+    public long getPcapBytesWritten() {
+        return pcapBytesWritten.sum();
+    }
+
+    @Override
+    public long getJsonReassembledMessages() {
+        return jsonReassembled.sum();
+    }
+
+    @Override
+    public long getJsonReassemblyOverflows() {
+        return jsonReassemblyOverflows.sum();
+    }
+
+    @Override
+    public long getJsonDiscardedBytes() {
+        return jsonDiscardedBytes.sum();
+    }
+
+    @Override
+    public long getSchemaPreferredHits() {
+        return schemaPreferredHits.sum();
+    }
+
+    @Override
+    public long getSchemaFallbackHits() {
+        return schemaFallbackHits.sum();
+    }
+
+    @Override
+    public long getSchemaMisses() {
+        return schemaMisses.sum();
+    }
+
+    @Override
+    public long getRpcPending() {
+        return rpcPending.sum();
+    }
+
+    @Override
+    public long getRpcCompleted() {
+        return rpcCompleted.sum();
+    }
+
+    @Override
+    public long getRpcErrors() {
+        return rpcErrors.sum();
+    }
+
+    @Override
+    public long getRpcTimeouts() {
+        return rpcTimeouts.sum();
+    }
+
+    @Override
+    public long getRpcUnmatchedResponses() {
+        return rpcUnmatched.sum();
+    }
+
+    @Override
+    public double getRpcLatencyP50Micros() {
+        return rpcLatency.snapshot().getValueAtPercentile(50.0) / 1000.0;
+    }
+
+    @Override
+    public double getRpcLatencyP99Micros() {
+        return rpcLatency.snapshot().getValueAtPercentile(99.0) / 1000.0;
+    }
+
+    @Override
+    public long getInlineValidMessages() {
+        return inlineValid.sum();
+    }
+
+    @Override
+    public long getInlinePartialMatches() {
+        return inlinePartial.sum();
+    }
+
+    @Override
+    public long getInlineInvalidMessages() {
+        return inlineInvalid.sum();
+    }
+
+    @Override
+    public long getInlineSkippedMessages() {
+        return inlineSkipped.sum();
+    }
+
+    @Override
+    public long getInlineDroppedMessages() {
+        return inlineDropped.sum();
+    }
+
+    @Override
+    public long getPreConnectBufferedFrames() {
+        return preConnectBuffered.sum();
+    }
+
+    @Override
+    public long getPreConnectOverflows() {
+        return preConnectOverflows.sum();
+    }
+
+    @Override
+    public long getUpstreamReconnectAttempts() {
+        return upstreamReconnectAttempts.sum();
+    }
+
+    @Override
+    public long getUpstreamReconnects() {
+        return upstreamReconnects.sum();
+    }
+
+    @Override
+    public long getUpstreamReconnectFailures() {
+        return upstreamReconnectFailures.sum();
+    }
+
+    @Override
+    public long getReplayedFrames() {
+        return replayedFrames.sum();
+    }
+
+    @Override
+    public long getReplayEvictedFrames() {
+        return replayEvicted.sum();
+    }
+
+    @Override
+    public long getClientToServerPausedMillis() {
+        return clientToServerPausedNanos.sum() / 1_000_000;
+    }
+
+    @Override
+    public long getServerToClientPausedMillis() {
+        return serverToClientPausedNanos.sum() / 1_000_000;
+    }
+
+    @Override
+    public long getBackpressurePauses() {
+        return clientToServerPauses.sum() + serverToClientPauses.sum();
+    }
+
+    @Override
+    public long getBackpressureCloses() {
+        return clientToServerOverflows.sum() + serverToClientOverflows.sum();
+    }
+
+    @Override
+    public int getInlineValidationQueueDepth() {
+        InlineValidator validator = inlineValidator;
+        return validator != null ? validator.getQueueDepth() : 0;
+    }
+
+    // Prometheus text exposition format, version 0.0.4
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+
+        gauge(out, "websocket_proxy_connections_active", "Currently open client connections",
+            getActiveConnections());
+        counter(out, "websocket_proxy_connections_total", "Client connections accepted",
+            getTotalConnections());
+
+        header(out, "websocket_proxy_frames_total", "counter", "Frames forwarded");
+        sample(out, "websocket_proxy_frames_total", "direction=\"client_to_server\"", getClientToServerFrames());
+        sample(out, "websocket_proxy_frames_total", "direction=\"server_to_client\"", getServerToClientFrames());
+        header(out, "websocket_proxy_bytes_total", "counter", "Payload bytes forwarded");
+        sample(out, "websocket_proxy_bytes_total", "direction=\"client_to_server\"", getClientToServerBytes());
+        sample(out, "websocket_proxy_bytes_total", "direction=\"server_to_client\"", getServerToClientBytes());
+
+        header(out, "websocket_proxy_forwarding_latency_seconds", "summary",
+            "Time from receiving a frame to handing it to the other side, including logging");
+        summary(out, "websocket_proxy_forwarding_latency_seconds", "direction=\"client_to_server\"",
+            clientToServerLatency.snapshot());
+        summary(out, "websocket_proxy_forwarding_latency_seconds", "direction=\"server_to_client\"",
+            serverToClientLatency.snapshot());
+
+        header(out, "websocket_proxy_upstream_connect_seconds", "summary",
+            "Time to open the upstream WebSocket connection");
+        summary(out, "websocket_proxy_upstream_connect_seconds", null, upstreamConnectTime.snapshot());
+
+        gauge(out, "websocket_proxy_log_queue_depth", "Records waiting in the async session log queue",
+            getLogQueueDepth());
+        counter(out, "websocket_proxy_log_dropped_records_total", "Session log records dropped on overflow",
+            getLogDroppedRecords());
+        gauge(out, "websocket_proxy_log_stored_bytes", "Bytes of log and capture files written by the proxy still on disk",
+            getLogStoredBytes());
+        counter(out, "websocket_proxy_log_segments_rolled_total", "Log and capture files rolled over to a new segment",
+            getLogSegmentsRolled());
+        counter(out, "websocket_proxy_log_segments_evicted_total", "Finished log segments deleted for the disk budget",
+            getLogSegmentsEvicted());
+        counter(out, "websocket_proxy_pcap_bytes_written_total", "Bytes written to PCAP files",
+            getPcapBytesWritten());
+        counter(out, "websocket_proxy_json_reassembled_total",
+            "JSON messages reassembled from fragmented text frames", getJsonReassembledMessages());
+        counter(out, "websocket_proxy_json_reassembly_overflows_total",
+            "Fragmented JSON messages over the size limit, left out of the JSON log", getJsonReassemblyOverflows());
+        counter(out, "websocket_proxy_json_discarded_bytes_total",
+            "Bytes of fragmented JSON that never reached the JSON log", getJsonDiscardedBytes());
+
+        header(out, "websocket_proxy_schema_validations_total", "counter", "Schema lookups by outcome");
+        sample(out, "websocket_proxy_schema_validations_total", "result=\"preferred_hit\"", getSchemaPreferredHits());
+        sample(out, "websocket_proxy_schema_validations_total", "result=\"fallback_hit\"", getSchemaFallbackHits());
+        sample(out, "websocket_proxy_schema_validations_total", "result=\"miss\"", getSchemaMisses());
+
+        gauge(out, "websocket_proxy_rpc_pending", "JSON-RPC requests waiting for a response", getRpcPending());
+        counter(out, "websocket_proxy_rpc_timeouts_total",
+            "JSON-RPC requests dropped without a response after the timeout", getRpcTimeouts());
+        counter(out, "websocket_proxy_rpc_unmatched_responses_total",
+            "JSON-RPC responses without an outstanding request", getRpcUnmatchedResponses());
+        header(out, "websocket_proxy_rpc_latency_seconds", "summary",
+            "Time from a JSON-RPC request from the client to the server's response, by method");
+        for (Map.Entry<String, RpcStats> entry : rpcMethods.entrySet()) {
+            summary(out, "websocket_proxy_rpc_latency_seconds", "method=\"" + escapeLabel(entry.getKey()) + "\"",
+                entry.getValue().latency.snapshot());
+        }
+        header(out, "websocket_proxy_rpc_errors_total", "counter", "JSON-RPC error responses by method");
+        for (Map.Entry<String, RpcStats> entry : rpcMethods.entrySet()) {
+            sample(out, "websocket_proxy_rpc_errors_total", "method=\"" + escapeLabel(entry.getKey()) + "\"",
+                entry.getValue().errors.sum());
+        }
+
+        counter(out, "websocket_proxy_preconnect_buffered_frames_total",
+            "Client frames held until the upstream handshake completed", getPreConnectBufferedFrames());
+        counter(out, "websocket_proxy_preconnect_overflows_total",
+            "Connections closed for sending too much or for too long before the upstream handshake completed",
+            getPreConnectOverflows());
+
+        counter(out, "websocket_proxy_upstream_reconnect_attempts_total",
+            "Reconnects to the upstream scheduled after it dropped a connection", getUpstreamReconnectAttempts());
+        counter(out, "websocket_proxy_upstream_reconnects_total",
+            "Upstream connections reestablished for a connected client", getUpstreamReconnects());
+        counter(out, "websocket_proxy_upstream_reconnect_failures_total",
+            "Clients closed after the reconnect attempts were used up", getUpstreamReconnectFailures());
+        counter(out, "websocket_proxy_replayed_frames_total",
+            "Unacknowledged client frames sent again after an upstream reconnect", getReplayedFrames());
+        counter(out, "websocket_proxy_replay_evicted_frames_total",
+            "Client frames evicted from a full replay buffer before they were acknowledged", getReplayEvictedFrames());
+
+        header(out, "websocket_proxy_backpressure_paused", "gauge",
+            "Connections with reads paused until the other side catches up, by paused direction");
+        sample(out, "websocket_proxy_backpressure_paused", "direction=\"client_to_server\"", clientToServerPaused.sum());
+        sample(out, "websocket_proxy_backpressure_paused", "direction=\"server_to_client\"", serverToClientPaused.sum());
+        header(out, "websocket_proxy_backpressure_pauses_total", "counter", "Times reads were paused, by paused direction");
+        sample(out, "websocket_proxy_backpressure_pauses_total", "direction=\"client_to_server\"", clientToServerPauses.sum());
+        sample(out, "websocket_proxy_backpressure_pauses_total", "direction=\"server_to_client\"", serverToClientPauses.sum());
+        header(out, "websocket_proxy_backpressure_paused_seconds_total", "counter",
+            "Time reads spent paused, by paused direction");
+        sample(out, "websocket_proxy_backpressure_paused_seconds_total", "direction=\"client_to_server\"",
+            clientToServerPausedNanos.sum() / 1e9);
+        sample(out, "websocket_proxy_backpressure_paused_seconds_total", "direction=\"server_to_client\"",
+            serverToClientPausedNanos.sum() / 1e9);
+        header(out, "websocket_proxy_backpressure_closes_total", "counter",
+            "Connections closed for queueing more than the limit, by the direction that overflowed");
+        sample(out, "websocket_proxy_backpressure_closes_total", "direction=\"client_to_server\"",
+            clientToServerOverflows.sum());
+        sample(out, "websocket_proxy_backpressure_closes_total", "direction=\"server_to_client\"",
+            serverToClientOverflows.sum());
+
+        if (inlineValidator != null) {
+            header(out, "websocket_proxy_inline_validations_total", "counter",
+                "Forwarded messages checked against the schemas, by outcome");
+            sample(out, "websocket_proxy_inline_validations_total", "result=\"valid\"", getInlineValidMessages());
+            sample(out, "websocket_proxy_inline_validations_total", "result=\"partial_match\"",
+                getInlinePartialMatches());
+            sample(out, "websocket_proxy_inline_validations_total", "result=\"no_schema_match\"",
+                getInlineInvalidMessages());
+            sample(out, "websocket_proxy_inline_validations_total", "result=\"skipped\"", getInlineSkippedMessages());
+            sample(out, "websocket_proxy_inline_validations_total", "result=\"dropped\"", getInlineDroppedMessages());
+            gauge(out, "websocket_proxy_inline_validation_queue_depth", "Messages waiting for inline validation",
+                getInlineValidationQueueDepth());
+        }
+
+        UpstreamPool pool = upstreamPool;
+        if (pool != null) {
+            gauge(out, "websocket_proxy_upstream_pool_idle", "Idle pre-connected upstream connections",
+                pool.getIdleCount());
+            header(out, "websocket_proxy_upstream_pool_acquires_total", "counter", "Upstream pool acquires by outcome");
+            sample(out, "websocket_proxy_upstream_pool_acquires_total", "result=\"hit\"", pool.getHits());
+            sample(out, "websocket_proxy_upstream_pool_acquires_total", "result=\"miss\"", pool.getMisses());
+        }
+
+        UpstreamBalancer balancer = upstreamBalancer;
+        boolean healthChecked = this.healthChecked;
+        if (balancer != null && (balancer.getBackends().size() > 1 || healthChecked)) {
+            List<UpstreamBalancer.Backend> backends = balancer.getBackends();
+            header(out, "websocket_proxy_upstream_active_connections", "gauge", "Client connections routed to each remote server");
+            for (UpstreamBalancer.Backend backend : backends) {
+                sample(out, "websocket_proxy_upstream_active_connections", upstreamLabel(backend), backend.getActive());
+            }
+            header(out, "websocket_proxy_upstream_connects_total", "counter", "Connection attempts to each remote server by outcome");
+            for (UpstreamBalancer.Backend backend : backends) {
+                sample(out, "websocket_proxy_upstream_connects_total", upstreamLabel(backend) + ",result=\"success\"",
+                    backend.getConnects());
+                sample(out, "websocket_proxy_upstream_connects_total", upstreamLabel(backend) + ",result=\"failure\"",
+                    backend.getConnectFailures());
+            }
+            header(out, "websocket_proxy_upstream_ejected", "gauge", "Remote servers currently ejected for failing connection attempts");
+            for (UpstreamBalancer.Backend backend : backends) {
+                sample(out, "websocket_proxy_upstream_ejected", upstreamLabel(backend), backend.isEjected() ? 1 : 0);
+            }
+            header(out, "websocket_proxy_upstream_ejections_total", "counter", "Times each remote server was ejected");
+            for (UpstreamBalancer.Backend backend : backends) {
+                sample(out, "websocket_proxy_upstream_ejections_total", upstreamLabel(backend), backend.getEjections());
+            }
+            header(out, "websocket_proxy_upstream_latency_seconds", "gauge",
+                "Moving average of the handshake time and the health check ping round trip of each remote server");
+            for (UpstreamBalancer.Backend backend : backends) {
+                sample(out, "websocket_proxy_upstream_latency_seconds", upstreamLabel(backend) + ",kind=\"handshake\"",
+                    backend.getHandshakeSeconds());
+                sample(out, "websocket_proxy_upstream_latency_seconds", upstreamLabel(backend) + ",kind=\"ping\"",
+                    backend.getPingSeconds());
+            }
+        }
+        if (balancer != null && healthChecked) {
+            List<UpstreamBalancer.Backend> backends = balancer.getBackends();
+            header(out, "websocket_proxy_upstream_healthy", "gauge", "Whether each remote server passes the health checks");
+            for (UpstreamBalancer.Backend backend : backends) {
+                sample(out, "websocket_proxy_upstream_healthy", upstreamLabel(backend), backend.isHealthy() ? 1 : 0);
+            }
+            header(out, "websocket_proxy_upstream_health_checks_total", "counter", "Health checks of each remote server by outcome");
+            for (UpstreamBalancer.Backend backend : backends) {
+                sample(out, "websocket_proxy_upstream_health_checks_total", upstreamLabel(backend) + ",result=\"success\"",
+                    backend.getHealthChecks() - backend.getHealthCheckFailures());
+                sample(out, "websocket_proxy_upstream_health_checks_total", upstreamLabel(backend) + ",result=\"failure\"",
+                    backend.getHealthCheckFailures());
+            }
+        }
+
+        if (connectionSeries) {
+            header(out, "websocket_proxy_connection_bytes_total", "counter", "Payload bytes forwarded per open connection");
+            for (ConnectionMetrics connection : connections.values()) {
+                String id = "connection=\"" + connection.getConnectionId() + "\"";
+                sample(out, "websocket_proxy_connection_bytes_total", id + ",direction=\"client_to_server\"",
+                    connection.getClientToServerBytes());
+                sample(out, "websocket_proxy_connection_bytes_total", id + ",direction=\"server_to_client\"",
+                    connection.getServerToClientBytes());
+            }
+        }
+
+        return out.toString();
+    }
+
+    private static String upstreamLabel(UpstreamBalancer.Backend backend) {
+        return "upstream=\"" + escapeLabel(backend.getUri().toString()) + "\"";
+    }
+
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append((long) value);
+        } else {
+            out.append(String.format(Locale.ROOT, "%.9f", value));
+        }
+        out.append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, double value) {
+        header(out, name, "gauge", help);
+        sample(out, name, null, value);
+    }
+
+    private static void counter(StringBuilder out, String name, String help, double value) {
+        header(out, name, "counter", help);
+        sample(out, name, null, value);
+    }
+
+    private static void summary(StringBuilder out, String name, String labels, Histogram histogram) {
+        String prefix = labels != null ? labels + "," : "";
+        for (double quantile : QUANTILES) {
+            sample(out, name, prefix + "quantile=\"" + quantile + "\"",
+                histogram.getValueAtPercentile(quantile * 100.0) / 1e9);
+        }
+        long count = histogram.getTotalCount();
+        sample(out, name + "_sum", labels, histogram.getMean() * count / 1e9);
+        sample(out, name + "_count", labels, count);
+    }
+}
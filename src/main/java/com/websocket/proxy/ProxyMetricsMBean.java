@@ -0,0 +1,100 @@
+package com.websocket.proxy;
+
+// JMX view of ProxyMetrics; latencies are in microseconds
+public interface ProxyMetricsMBean {
+    int getActiveConnections();
+
+    long getTotalConnections();
+
+    long getClientToServerFrames();
+
+    long getClientToServerBytes();
+
+    long getServerToClientFrames();
+
+    long getServerToClientBytes();
+
+    double getClientToServerLatencyP50Micros();
+
+    double getClientToServerLatencyP99Micros();
+
+    double getServerToClientLatencyP50Micros();
+
+    double getServerToClientLatencyP99Micros();
+
+    double getUpstreamConnectP50Micros();
+
+    double getUpstreamConnectP99Micros();
+
+    int getLogQueueDepth();
+
+    long getLogDroppedRecords();
+
+    long getLogStoredBytes();
+
+    long getLogSegmentsRolled();
+
+    long getLogSegmentsEvicted();
+
+    long getPcapBytesWritten();
+
+    long getJsonReassembledMessages();
+
+    long getJsonReassemblyOverflows();
+
+    long getJsonDiscardedBytes();
+
+    long getSchemaPreferredHits();
+
+    long getSchemaFallbackHits();
+
+    long getSchemaMisses();
+
+    long getRpcPending();
+
+    long getRpcCompleted();
+
+    long getRpcErrors();
+
+    long getRpcTimeouts();
+
+    long getRpcUnmatchedResponses();
+
+    double getRpcLatencyP50Micros();
+
+    double getRpcLatencyP99Micros();
+
+    long getInlineValidMessages();
+
+    long getInlinePartialMatches();
+
+    long getInlineInvalidMessages();
+
+    long getInlineSkippedMessages();
+
+    long getInlineDroppedMessages();
+
+    int getInlineValidationQueueDepth();
+
+    long getPreConnectBufferedFrames();
+
+    long getPreConnectOverflows();
+
+    long getUpstreamReconnectAttempts();
+
+    long getUpstreamReconnects();
+
+    long getUpstreamReconnectFailures();
+
+    long getReplayedFrames();
+
+    long getReplayEvictedFrames();
+
+    long getClientToServerPausedMillis();
+
+    long getServerToClientPausedMillis();
+
+    long getBackpressurePauses();
+
+    long getBackpressureCloses();
+}
@@ -6,31 +6,159 @@ import org.java_websocket.server.WebSocketServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.nio.file.Paths;
 import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ProxyServer extends WebSocketServer {
     private static final Logger logger = LoggerFactory.getLogger(ProxyServer.class);
     
-    private final URI remoteUri;
+    private final UpstreamBalancer balancer;
+    private final UpstreamHealthCheck healthCheck;
     private final String logDirectory;
     private final String sessionId;
+    private final ProxyConfig config;
+    private final AsyncLogWriter asyncLogWriter;
+    private final LogStorage logStorage;
+    private final LogShards logShards;
+    private final PcapNgWriter pcapNgWriter;
+    private final UpstreamPool upstreamPool;
+    private final InlineValidator inlineValidator;
+    private final Backpressure backpressure;
+    private final UpstreamReconnect reconnect;
+    private final ProxyMetrics metrics = new ProxyMetrics();
     private final Map<WebSocket, ProxyConnection> connections = new ConcurrentHashMap<>();
+    private final AtomicInteger connectionIds = new AtomicInteger();
+    private MetricsHttpServer metricsHttpServer;
     
     public ProxyServer(InetSocketAddress address, URI remoteUri, String logDirectory, String sessionId) {
+        this(address, remoteUri, logDirectory, sessionId, new ProxyConfig());
+    }
+    
+    public ProxyServer(InetSocketAddress address, URI remoteUri, String logDirectory, String sessionId,
+                       ProxyConfig config) {
+        this(address, Collections.singletonList(remoteUri), logDirectory, sessionId, config);
+    }
+    
+    public ProxyServer(InetSocketAddress address, List<URI> remoteUris, String logDirectory, String sessionId,
+                       ProxyConfig config) {
         super(address);
-        this.remoteUri = remoteUri;
+        this.balancer = new UpstreamBalancer(remoteUris, config.getBalanceStrategy(),
+            config.getEjectFailurePercent(), config.getEjectMs());
+        this.healthCheck = config.getHealthCheckIntervalMs() > 0
+            ? new UpstreamHealthCheck(balancer, config.getHealthCheckIntervalMs(), config.getHealthCheckTimeoutMs())
+            : null;
         this.logDirectory = logDirectory;
         this.sessionId = sessionId;
+        this.config = config;
+        
+        if (config.isAsyncLogging()) {
+            this.asyncLogWriter = new AsyncLogWriter(config.getLogQueueSize(), config.getLogBatchSize(),
+                config.getLogFlushIntervalMs(), config.getLogOverflowPolicy());
+            logger.info("Asynchronous session logging enabled (queue: {}, batch: {}, flush: {}ms, overflow: {})",
+                config.getLogQueueSize(), config.getLogBatchSize(), config.getLogFlushIntervalMs(),
+                config.getLogOverflowPolicy());
+        } else {
+            this.asyncLogWriter = null;
+        }
+        
+        this.logStorage = new LogStorage(config);
+        if (config.getLogSegmentMaxBytes() > 0 || config.getLogSegmentMaxAgeMs() > 0
+                || config.getLogCompression() != LogStorage.Compression.NONE || config.getLogDiskBudgetBytes() > 0) {
+            logger.info("Log storage: segments of {} bytes / {}ms, compression {}, disk budget {} bytes (0 = no limit)",
+                config.getLogSegmentMaxBytes(), config.getLogSegmentMaxAgeMs(), config.getLogCompression(),
+                config.getLogDiskBudgetBytes());
+        }
+        
+        if (config.getLogShards() > 0) {
+            new File(logDirectory).mkdirs();
+            try {
+                this.logShards = new LogShards(logDirectory, sessionId, config.getLogShards(), logStorage);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to create log shards", e);
+            }
+            logger.info("Logging all connections to {} shard files", config.getLogShards());
+        } else {
+            this.logShards = null;
+        }
+        
+        // Sharded logs keep the captures in one file as well
+        if (config.getPcapFormat() == SessionLogger.PcapFormat.PCAPNG || logShards != null) {
+            new File(logDirectory).mkdirs();
+            String pcapNgFile = String.format("%s/session_%s.pcapng", logDirectory, sessionId);
+            try {
+                this.pcapNgWriter = new PcapNgWriter(logStorage.open(pcapNgFile, false), metrics);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to create pcapng file", e);
+            }
+            pcapNgWriter.setFlushIntervalMs(config.getPcapFlushIntervalMs());
+            logger.info("Writing all connections to {}", pcapNgFile);
+        } else {
+            this.pcapNgWriter = null;
+        }
+        
+        // Pooled connections would bypass the balancer
+        if (config.getUpstreamPoolMax() > 0 && remoteUris.size() == 1) {
+            this.upstreamPool = new UpstreamPool(remoteUris.get(0), config.getUpstreamPoolSubprotocols(),
+                config.getUpstreamPoolMin(), config.getUpstreamPoolMax(), config.getUpstreamPoolIdleTimeoutMs());
+        } else {
+            this.upstreamPool = null;
+        }
+        
+        if (config.getValidateSchemaDirectory() != null) {
+            new File(logDirectory).mkdirs();
+            String errorLogFile = String.format("%s/session_%s_validation.log", logDirectory, sessionId);
+            try {
+                this.inlineValidator = new InlineValidator(Paths.get(config.getValidateSchemaDirectory()),
+                    config.getValidateThreads(), config.getValidateQueueSize(), errorLogFile, logStorage, metrics);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to create validation error log", e);
+            }
+            logger.info("Messages without a matching schema are logged to {}", errorLogFile);
+        } else {
+            this.inlineValidator = null;
+        }
+        
+        if (config.isBackpressure()) {
+            this.backpressure = new Backpressure(config.getBackpressureHighBytes(), config.getBackpressureLowBytes(),
+                config.getBackpressureMaxBytes(), config.getBackpressureMaxWaitMs(), metrics);
+        } else {
+            this.backpressure = null;
+        }
+        
+        if (config.isUpstreamReconnect()) {
+            this.reconnect = new UpstreamReconnect(config.getReconnectAttempts(), config.getReconnectBaseDelayMs(),
+                config.getReconnectMaxDelayMs(), config.getReplayBufferBytes(), metrics);
+        } else {
+            this.reconnect = null;
+        }
+        
+        metrics.setAsyncLogWriter(asyncLogWriter);
+        metrics.setLogStorage(logStorage);
+        metrics.setUpstreamPool(upstreamPool);
+        metrics.setUpstreamBalancer(balancer, healthCheck != null);
+        metrics.setInlineValidator(inlineValidator);
+        metrics.setConnectionSeries(config.isMetricsPerConnection());
+    }
+    
+    public ProxyMetrics getMetrics() {
+        return metrics;
     }
     
     @Override
     public void onOpen(WebSocket clientConn, ClientHandshake handshake) {
         logger.info("New client connection from: {}", clientConn.getRemoteSocketAddress());
         
+        UpstreamBalancer.Route route = null;
+        ProxyConnection proxyConnection = null;
         try {
             // Get the local port from the client connection
             int clientPort = clientConn.getRemoteSocketAddress().getPort();
@@ -42,25 +170,59 @@ public class ProxyServer extends WebSocketServer {
                 logger.info("Client requesting subprotocols: {}", subprotocols);
             }
             
-            ProxyConnection proxyConnection = new ProxyConnection(
+            route = balancer.route(balanceKey(clientConn, handshake));
+            proxyConnection = new ProxyConnection(
                 clientConn, 
-                remoteUri, 
+                route,
                 logDirectory, 
                 sessionId,
-                connections.size() + 1,
+                connectionIds.incrementAndGet(),
                 clientPort,
-                subprotocols
+                subprotocols,
+                config,
+                asyncLogWriter,
+                logStorage,
+                logShards,
+                pcapNgWriter,
+                inlineValidator,
+                backpressure,
+                reconnect,
+                metrics
             );
             
             connections.put(clientConn, proxyConnection);
-            proxyConnection.connect();
+            
+            UpstreamClient pooled = null;
+            if (upstreamPool != null && upstreamPool.accepts(subprotocols)) {
+                pooled = upstreamPool.acquire(proxyConnection);
+            }
+            
+            if (pooled != null) {
+                proxyConnection.attach(pooled);
+            } else {
+                proxyConnection.connect();
+            }
             
         } catch (Exception e) {
             logger.error("Failed to establish proxy connection", e);
+            if (proxyConnection == null && route != null) {
+                // Otherwise the connection releases it when the client closes
+                route.release();
+            }
             clientConn.close(1011, "Failed to connect to remote server");
         }
     }
     
+    // The configured header when the client sent it, otherwise the client's address without the port
+    private String balanceKey(WebSocket clientConn, ClientHandshake handshake) {
+        String header = config.getBalanceHashHeader();
+        if (header != null && handshake.hasFieldValue(header)) {
+            return handshake.getFieldValue(header);
+        }
+        InetSocketAddress address = clientConn.getRemoteSocketAddress();
+        return address.getAddress() != null ? address.getAddress().getHostAddress() : address.getHostString();
+    }
+    
     @Override
     public void onMessage(WebSocket clientConn, String message) {
         ProxyConnection proxyConnection = connections.get(clientConn);
@@ -106,5 +268,79 @@ public class ProxyServer extends WebSocketServer {
     @Override
     public void onStart() {
         logger.info("Proxy server started on: {}", getAddress());
+        
+        if (upstreamPool != null) {
+            upstreamPool.start();
+        }
+        
+        if (healthCheck != null) {
+            healthCheck.start();
+        }
+        
+        if (config.isMetricsJmx()) {
+            metrics.registerMBean(sessionId + "-" + getPort());
+        }
+        
+        if (config.getMetricsPort() >= 0) {
+            try {
+                metricsHttpServer = new MetricsHttpServer(new InetSocketAddress(config.getMetricsPort()), metrics);
+                metricsHttpServer.start();
+            } catch (IOException e) {
+                logger.error("Failed to start metrics endpoint on port {}", config.getMetricsPort(), e);
+            }
+        }
+    }
+    
+    @Override
+    public void stop(int timeout, String closeMessage) throws InterruptedException {
+        super.stop(timeout, closeMessage);
+        
+        if (metricsHttpServer != null) {
+            metricsHttpServer.close();
+        }
+        metrics.unregisterMBean();
+        
+        if (upstreamPool != null) {
+            upstreamPool.close();
+        }
+        
+        if (inlineValidator != null) {
+            inlineValidator.close();
+        }
+        
+        if (backpressure != null) {
+            backpressure.close();
+        }
+        
+        if (reconnect != null) {
+            reconnect.close();
+        }
+        
+        if (healthCheck != null) {
+            healthCheck.close();
+        }
+        
+        if (asyncLogWriter != null) {
+            asyncLogWriter.close();
+        }
+        
+        // After the log writer, which may still hold packets for it
+        if (pcapNgWriter != null) {
+            try {
+                pcapNgWriter.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close pcapng file", e);
+            }
+        }
+        
+        if (logShards != null) {
+            try {
+                logShards.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close log shards", e);
+            }
+        }
+        
+        logStorage.close();
     }
 }
\ No newline at end of file
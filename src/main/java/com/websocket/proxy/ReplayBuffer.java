@@ -0,0 +1,138 @@
+package com.websocket.proxy;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+// The client frames sent to the upstream that it has not acknowledged yet, replayed in order to
+// the next upstream connection when the current one drops. WebSocket has no acknowledgements, so
+// JSON-RPC requests count as acknowledged by their response, and every other frame by the next
+// frame from the server. Bounded by bytes: the oldest frames are evicted first and are then lost
+// if the upstream drops. Frames are not parsed when buffered: a text frame's request id is only
+// looked up once a server frame may acknowledge it, and a server frame's response id only once a
+// request is buffered, so frames answered in between or evicted are never parsed here.
+// Not thread-safe; ProxyConnection calls it under its upstream lock.
+public class ReplayBuffer {
+    private final long maxBytes;
+    private final ProxyMetrics metrics;
+    private final ArrayDeque<Entry> frames = new ArrayDeque<>();
+    private long bytes = 0;
+    private long evicted = 0;
+
+    public ReplayBuffer(long maxBytes, ProxyMetrics metrics) {
+        this.maxBytes = maxBytes;
+        this.metrics = metrics;
+    }
+
+    // A text frame or a binary ByteBuffer, as handed to the upstream
+    public void add(Object frame, int length) {
+        if (frame instanceof ByteBuffer) {
+            // The upstream send consumes the buffer
+            frame = ((ByteBuffer) frame).duplicate();
+        }
+
+        frames.addLast(new Entry(frame, length));
+        bytes += length;
+        while (bytes > maxBytes && !frames.isEmpty()) {
+            remove(frames.removeFirst());
+            evicted++;
+            metrics.recordReplayEvicted();
+        }
+    }
+
+    // Called for every text frame from the server
+    public void acknowledge(String message) {
+        if (!frames.isEmpty()) {
+            removeAcknowledged(message);
+        }
+    }
+
+    // Called for every binary frame from the server
+    public void acknowledgeBinary() {
+        if (!frames.isEmpty()) {
+            removeAcknowledged(null);
+        }
+    }
+
+    // The message is the server's text frame, null for a binary one
+    private void removeAcknowledged(String message) {
+        String responseId = null;
+        boolean looked = message == null;
+        Iterator<Entry> entries = frames.iterator();
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            if (!entry.resolved) {
+                entry.id = requestId((String) entry.frame);
+                entry.resolved = true;
+            }
+            if (entry.id != null && !looked) {
+                responseId = responseId(message);
+                looked = true;
+            }
+            if (entry.id == null || entry.id.equals(responseId)) {
+                entries.remove();
+                remove(entry);
+                if (entry.id != null) {
+                    // Each response answers one request, like in RequestTracker
+                    responseId = null;
+                }
+            }
+        }
+    }
+
+    // A frame without a literal "id" key has no id to find, short of escaping the key's name
+    private static String requestId(String frame) {
+        if (!frame.contains("\"id\"")) {
+            return null;
+        }
+        JsonRpcClassifier.Envelope envelope = JsonRpcClassifier.peek(frame);
+        return envelope != null && envelope.isJsonRpc() && envelope.isRequest() && envelope.hasId()
+            ? envelope.getId() : null;
+    }
+
+    private static String responseId(String message) {
+        if (!message.contains("\"id\"")) {
+            return null;
+        }
+        JsonRpcClassifier.Envelope envelope = JsonRpcClassifier.peek(message);
+        return envelope != null && envelope.isJsonRpc() && !envelope.isRequest() && envelope.hasId()
+            ? envelope.getId() : null;
+    }
+
+    private void remove(Entry entry) {
+        bytes -= entry.length;
+    }
+
+    // The frames to send again, oldest first; they stay buffered until acknowledged
+    public List<Object> getFrames() {
+        List<Object> copies = new ArrayList<>(frames.size());
+        for (Entry entry : frames) {
+            copies.add(entry.frame instanceof ByteBuffer ? ((ByteBuffer) entry.frame).duplicate() : entry.frame);
+        }
+        return copies;
+    }
+
+    public int size() {
+        return frames.size();
+    }
+
+    public long getEvicted() {
+        return evicted;
+    }
+
+    private static class Entry {
+        private final Object frame;
+        private final int length;
+        // The JSON-RPC request id, once looked up; binary frames have none
+        private String id;
+        private boolean resolved;
+
+        Entry(Object frame, int length) {
+            this.frame = frame;
+            this.length = length;
+            this.resolved = !(frame instanceof String);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.websocket.proxy;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Matches a connection's JSON-RPC requests from the client to the server's responses and records
+// the backend response time per method. Outstanding ids are kept in insertion order, so expired
+// requests are always at the head: each call first drops the requests older than the timeout,
+// and the oldest is dropped when the table is full. Not thread-safe: SessionLogger calls it under
+// its lock, with the time each frame reached the proxy.
+public class RequestTracker {
+    private final long timeoutNanos;
+    private final int maxPending;
+    private final ProxyMetrics metrics;
+
+    private final LinkedHashMap<String, Pending> pending = new LinkedHashMap<>();
+    // Per method totals for the summary at close, sorted by method
+    private final Map<String, MethodStats> methods = new TreeMap<>();
+    private long unmatched = 0;
+
+    public RequestTracker(long timeoutMs, int maxPending, ProxyMetrics metrics) {
+        this.timeoutNanos = timeoutMs * 1_000_000L;
+        this.maxPending = maxPending;
+        this.metrics = metrics;
+    }
+
+    public void onRequest(long timeNanos, String id, String method) {
+        expire(timeNanos);
+        // A reused id replaces the request still waiting for a response
+        Pending previous = pending.remove(id);
+        if (previous != null) {
+            timedOut(previous);
+        } else if (pending.size() >= maxPending) {
+            Iterator<Pending> oldest = pending.values().iterator();
+            timedOut(oldest.next());
+            oldest.remove();
+        } else {
+            metrics.recordRpcPending(1);
+        }
+        pending.put(id, new Pending(method, timeNanos));
+    }
+
+    public void onResponse(long timeNanos, String id, boolean error) {
+        expire(timeNanos);
+        Pending request = pending.remove(id);
+        if (request == null) {
+            unmatched++;
+            metrics.recordRpcUnmatched();
+            return;
+        }
+        metrics.recordRpcPending(-1);
+        long latency = timeNanos - request.timeNanos;
+        stats(request.method).record(latency, error);
+        metrics.recordRpc(request.method, latency, error);
+    }
+
+    // A timeout of 0 keeps requests until the table is full
+    private void expire(long now) {
+        if (timeoutNanos <= 0) {
+            return;
+        }
+        Iterator<Pending> requests = pending.values().iterator();
+        while (requests.hasNext()) {
+            Pending request = requests.next();
+            if (now - request.timeNanos < timeoutNanos) {
+                return;
+            }
+            requests.remove();
+            metrics.recordRpcPending(-1);
+            timedOut(request);
+        }
+    }
+
+    private void timedOut(Pending request) {
+        stats(request.method).timeouts++;
+        metrics.recordRpcTimeout();
+    }
+
+    private MethodStats stats(String method) {
+        String key = methods.size() < ProxyMetrics.MAX_RPC_METHODS || methods.containsKey(method)
+            ? method : ProxyMetrics.OTHER_RPC_METHOD;
+        return methods.computeIfAbsent(key, m -> new MethodStats());
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    // Requests still waiting when the connection closes count as unanswered, not as timed out
+    public String close() {
+        metrics.recordRpcPending(-pending.size());
+        int unanswered = pending.size();
+        pending.clear();
+        if (methods.isEmpty() && unanswered == 0 && unmatched == 0) {
+            return null;
+        }
+
+        StringBuilder summary = new StringBuilder();
+        for (Map.Entry<String, MethodStats> entry : methods.entrySet()) {
+            MethodStats stats = entry.getValue();
+            if (summary.length() > 0) {
+                summary.append(", ");
+            }
+            summary.append(String.format("%s: %d calls", entry.getKey(), stats.calls));
+            if (stats.calls > 0) {
+                summary.append(String.format(" avg %.3fms max %.3fms", stats.totalNanos / stats.calls / 1e6,
+                    stats.maxNanos / 1e6));
+            }
+            if (stats.errors > 0) {
+                summary.append(String.format(" %d errors", stats.errors));
+            }
+            if (stats.timeouts > 0) {
+                summary.append(String.format(" %d timed out", stats.timeouts));
+            }
+        }
+        if (unanswered > 0) {
+            summary.append(summary.length() > 0 ? ", " : "").append(unanswered).append(" unanswered");
+        }
+        if (unmatched > 0) {
+            summary.append(summary.length() > 0 ? ", " : "").append(unmatched).append(" unmatched responses");
+        }
+        return summary.toString();
+    }
+
+    private static class Pending {
+        private final String method;
+        private final long timeNanos;
+
+        Pending(String method, long timeNanos) {
+            this.method = method;
+            this.timeNanos = timeNanos;
+        }
+    }
+
+    private static class MethodStats {
+        private long calls;
+        private long errors;
+        private long timeouts;
+        private long totalNanos;
+        private long maxNanos;
+
+        void record(long latencyNanos, boolean error) {
+            calls++;
+            totalNanos += latencyNanos;
+            maxNanos = Math.max(maxNanos, latencyNanos);
+            if (error) {
+                errors++;
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.websocket.proxy;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// One log output split into segments by the limits of its LogStorage. The first segment has the
+// file's own name, later ones a sequence number before the extension (session_..._raw.1.log), so
+// every segment opens with the usual tools. Nothing rolls by itself: the owner checks shouldRoll()
+// at a record boundary, flushes what it buffers and calls roll(), so a segment never ends inside
+// a line or packet and formats with a file header can repeat it. Unbuffered and not thread-safe;
+// the owner serializes access.
+public class RollingFile extends OutputStream {
+    private final LogStorage storage;
+    private final String prefix;
+    private final String extension;
+    private int sequence = 0;
+    private Path path;
+    private FileOutputStream file;
+    private FileChannel channel;
+    private long size;
+    private long openedAt;
+
+    RollingFile(LogStorage storage, String filename, boolean append) throws IOException {
+        this.storage = storage;
+        int slash = Math.max(filename.lastIndexOf('/'), filename.lastIndexOf(File.separatorChar));
+        int dot = filename.lastIndexOf('.');
+        if (dot > slash + 1) {
+            this.prefix = filename.substring(0, dot);
+            this.extension = filename.substring(dot);
+        } else {
+            this.prefix = filename;
+            this.extension = "";
+        }
+        openSegment(filename, append);
+    }
+
+    private void openSegment(String filename, boolean append) throws IOException {
+        path = Paths.get(filename);
+        file = new FileOutputStream(filename, append);
+        channel = file.getChannel();
+        size = append ? channel.size() : 0;
+        openedAt = System.currentTimeMillis();
+        storage.written(size);
+    }
+
+    // Pending is what the owner still buffers for this segment
+    public boolean shouldRoll(long pending) {
+        return storage.shouldRoll(size + pending, openedAt);
+    }
+
+    // Finishes the current segment and continues in the next one
+    public void roll() throws IOException {
+        finish(true);
+        sequence++;
+        openSegment(prefix + "." + sequence + extension, false);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    // Bytes in the current segment, including what was there when it was opened for appending
+    public long size() {
+        return size;
+    }
+
+    public boolean isOpen() {
+        return file != null;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        file.write(b);
+        written(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        file.write(b, off, len);
+        written(len);
+    }
+
+    // Writes all of the buffer
+    public void write(ByteBuffer buffer) throws IOException {
+        ensureOpen();
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        written(length);
+    }
+
+    // Writes all of the buffers with gathering writes
+    public void write(ByteBuffer[] buffers) throws IOException {
+        ensureOpen();
+        long length = 0;
+        for (ByteBuffer buffer : buffers) {
+            length += buffer.remaining();
+        }
+        long remaining = length;
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+        written(length);
+    }
+
+    // Also after a failed roll, which leaves the file closed
+    private void ensureOpen() throws IOException {
+        if (file == null) {
+            throw new IOException("Log file " + path + " is closed");
+        }
+    }
+
+    private void written(long bytes) {
+        size += bytes;
+        storage.written(bytes);
+    }
+
+    private void finish(boolean rolled) throws IOException {
+        FileOutputStream closing = file;
+        file = null;
+        channel = null;
+        closing.close();
+        storage.finished(path, size, rolled);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            finish(false);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.websocket.proxy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.*;
+
+// Narrows the schemas worth a full validation for a message, using the discriminators each
+// SchemaEntry reads at load time: a const/enum on "method", the top-level "required" list and
+// "type". A schema is only ruled out when one of these alone proves it cannot validate the
+// message, so the candidates always include every schema that would have matched.
+// Read-only after loading.
+public class SchemaDispatchIndex {
+    private final List<SchemaEntry> all = new ArrayList<>();
+    private final Map<String, List<SchemaEntry>> byMethod = new HashMap<>();
+    private final List<SchemaEntry> anyMethod = new ArrayList<>();
+
+    // Entries must be added in load order
+    public void add(SchemaEntry entry) {
+        all.add(entry);
+        if (entry.getMethods() != null) {
+            for (String method : entry.getMethods()) {
+                byMethod.computeIfAbsent(method, m -> new ArrayList<>()).add(entry);
+            }
+        } else {
+            anyMethod.add(entry);
+        }
+    }
+
+    // Candidates in load order
+    public List<SchemaEntry> candidates(JsonNode message) {
+        List<SchemaEntry> source;
+        JsonNode method = message.isObject() ? message.get("method") : null;
+        if (method != null && method.isTextual()) {
+            source = merge(byMethod.getOrDefault(method.asText(), Collections.emptyList()), anyMethod);
+        } else if (method != null) {
+            source = anyMethod;
+        } else {
+            source = all;
+        }
+
+        List<SchemaEntry> result = new ArrayList<>(source.size());
+        for (SchemaEntry entry : source) {
+            if (entry.couldMatch(message)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return all.size();
+    }
+
+    public int getMethodKeyedCount() {
+        return all.size() - anyMethod.size();
+    }
+
+    private static List<SchemaEntry> merge(List<SchemaEntry> a, List<SchemaEntry> b) {
+        if (a.isEmpty()) {
+            return b;
+        }
+        List<SchemaEntry> merged = new ArrayList<>(a.size() + b.size());
+        int i = 0;
+        int j = 0;
+        while (i < a.size() || j < b.size()) {
+            if (j >= b.size() || (i < a.size() && a.get(i).getOrder() < b.get(j).getOrder())) {
+                merged.add(a.get(i++));
+            } else {
+                merged.add(b.get(j++));
+            }
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,153 @@
+package com.websocket.proxy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.networknt.schema.JsonSchema;
+
+import java.util.*;
+
+// A compiled schema plus metadata derived from it once at load time, so validation
+// never has to recompute anything that only depends on the schema
+public class SchemaEntry {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final String key;
+    private final JsonSchema schema;
+    private final int order;
+    private final String title;
+    private final boolean permissive;
+    // Dispatch discriminators, see SchemaDispatchIndex. Null sets mean unconstrained.
+    private final Set<String> methods;
+    private final List<String> required;
+    private final Set<String> types;
+
+    public SchemaEntry(String key, JsonNode schemaNode, JsonSchema schema, int order) {
+        this.key = key;
+        this.schema = schema;
+        this.order = order;
+        this.title = schemaNode.path("title").asText(key);
+
+        // A schema that accepts an empty object validates nothing meaningful and never counts as a match
+        this.permissive = schema.validate(objectMapper.createObjectNode()).isEmpty();
+
+        if (schemaNode.isObject()) {
+            this.methods = methodValues(schemaNode.path("properties").path("method"));
+            this.required = stringList(schemaNode.get("required"));
+            this.types = typeValues(schemaNode.get("type"));
+        } else {
+            this.methods = null;
+            this.required = Collections.emptyList();
+            this.types = null;
+        }
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public JsonSchema getSchema() {
+        return schema;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public boolean isPermissive() {
+        return permissive;
+    }
+
+    int getOrder() {
+        return order;
+    }
+
+    Set<String> getMethods() {
+        return methods;
+    }
+
+    // False only when the discriminators alone prove the schema cannot validate the message
+    boolean couldMatch(JsonNode message) {
+        if (types != null && !types.contains(typeOf(message))
+                && !(types.contains("number") && message.isNumber())) {
+            return false;
+        }
+        // Object keywords do not apply to other JSON types
+        if (!message.isObject()) {
+            return true;
+        }
+        for (String property : required) {
+            if (!message.has(property)) {
+                return false;
+            }
+        }
+        if (methods != null && message.has("method")) {
+            JsonNode method = message.get("method");
+            return method.isTextual() && methods.contains(method.asText());
+        }
+        return true;
+    }
+
+    // String values a schema pins "method" to, or null when it accepts any method
+    private static Set<String> methodValues(JsonNode methodSchema) {
+        if (methodSchema.has("const")) {
+            JsonNode value = methodSchema.get("const");
+            return value.isTextual() ? Collections.singleton(value.asText()) : null;
+        }
+        if (methodSchema.has("enum") && methodSchema.get("enum").isArray()) {
+            Set<String> values = new HashSet<>();
+            for (JsonNode value : methodSchema.get("enum")) {
+                if (!value.isTextual()) {
+                    return null;
+                }
+                values.add(value.asText());
+            }
+            return values;
+        }
+        return null;
+    }
+
+    private static List<String> stringList(JsonNode node) {
+        if (node == null || !node.isArray()) {
+            return Collections.emptyList();
+        }
+        List<String> values = new ArrayList<>();
+        for (JsonNode value : node) {
+            if (value.isTextual()) {
+                values.add(value.asText());
+            }
+        }
+        return values;
+    }
+
+    private static Set<String> typeValues(JsonNode node) {
+        if (node == null) {
+            return null;
+        }
+        if (node.isTextual()) {
+            return Collections.singleton(node.asText());
+        }
+        if (node.isArray()) {
+            Set<String> values = new HashSet<>(stringList(node));
+            return values.isEmpty() ? null : values;
+        }
+        return null;
+    }
+
+    private static String typeOf(JsonNode node) {
+        if (node.isObject()) {
+            return "object";
+        } else if (node.isArray()) {
+            return "array";
+        } else if (node.isTextual()) {
+            return "string";
+        } else if (node.isIntegralNumber()) {
+            return "integer";
+        } else if (node.isNumber()) {
+            // 1.0 is an integer to JSON Schema
+            return node.canConvertToExactIntegral() ? "integer" : "number";
+        } else if (node.isBoolean()) {
+            return "boolean";
+        }
+        return "null";
+    }
+}
@@ -9,11 +9,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class SchemaValidator {
     private static final Logger logger = LoggerFactory.getLogger(SchemaValidator.class);
@@ -24,26 +33,30 @@ public class SchemaValidator {
         "^\\[(.*?)\\] \\[CONN_(\\d+)\\] \\[(CLIENT_TO_SERVER|SERVER_TO_CLIENT)\\] (.*)$"
     );
     
-    private final Map<String, JsonSchema> schemaCache = new HashMap<>();
+    private static final int BINARY_BATCH_SIZE = 1024;
+    
+    // Compiled schemas with their load-time metadata, by key
+    private final Map<String, SchemaEntry> schemaCache = new HashMap<>();
+    private final SchemaDispatchIndex dispatchIndex = new SchemaDispatchIndex();
     private final Path schemaDirectory;
     private final JsonSchemaFactory schemaFactory;
     
-    // Validation statistics
-    private int totalMessages = 0;
-    private int validMessages = 0;
-    private int invalidMessages = 0;
-    private int partialMatches = 0;
-    private int recursiveValidations = 0;
-    private final List<ValidationError> errors = new ArrayList<>();
-    private final Set<String> seenMessages = new HashSet<>();
+    // Validation statistics of the whole run; parallel chunks are merged into it in file order
+    private final ValidationState results = new ValidationState(-1);
     private boolean deduplicateMessages = false;
+    private final ProxyMetrics metrics;
     
     public SchemaValidator(Path schemaDirectory) {
         this(schemaDirectory, false);
     }
 
     public SchemaValidator(Path schemaDirectory, boolean deduplicateMessages) {
+        this(schemaDirectory, deduplicateMessages, new ProxyMetrics());
+    }
+
+    public SchemaValidator(Path schemaDirectory, boolean deduplicateMessages, ProxyMetrics metrics) {
         this.schemaDirectory = schemaDirectory;
+        this.metrics = metrics;
         this.schemaFactory = JsonSchemaFactory.getInstance(SpecVersion.VersionFlag.V202012);
         this.deduplicateMessages = deduplicateMessages;
         loadSchemas();
@@ -56,12 +69,15 @@ public class SchemaValidator {
         }
         
         try {
-            // Load all schema files recursively
-            Files.walk(schemaDirectory)
-                .filter(path -> path.toString().endsWith(".json"))
-                .forEach(this::loadSchema);
+            // Load all schema files recursively, in a stable order so fallback matching is deterministic
+            try (Stream<Path> paths = Files.walk(schemaDirectory)) {
+                paths.filter(path -> path.toString().endsWith(".json"))
+                    .sorted()
+                    .forEach(this::loadSchema);
+            }
                 
-            logger.info("Loaded {} schemas from {}", schemaCache.size(), schemaDirectory);
+            logger.info("Loaded {} schemas from {} ({} keyed by method)", schemaCache.size(), schemaDirectory,
+                dispatchIndex.getMethodKeyedCount());
         } catch (IOException e) {
             logger.error("Failed to load schemas", e);
         }
@@ -72,12 +88,22 @@ public class SchemaValidator {
             String schemaContent = Files.readString(schemaPath);
             JsonNode schemaNode = objectMapper.readTree(schemaContent);
             
-            // Generate a key based on the relative path
+            // Generate a key based on the relative path, e.g. client-to-server/initialize
             Path relativePath = schemaDirectory.relativize(schemaPath);
-            String schemaKey = relativePath.toString().replace(".json", "").replace(File.separator, "/");
+            String schemaKey = relativePath.toString().replace(File.separator, "/");
+            schemaKey = schemaKey.substring(0, schemaKey.length() - ".json".length());
+            if (schemaKey.endsWith(".schema")) {
+                schemaKey = schemaKey.substring(0, schemaKey.length() - ".schema".length());
+            }
             
-            JsonSchema schema = schemaFactory.getSchema(schemaNode);
-            schemaCache.put(schemaKey, schema);
+            // The file URI is the base for relative $id and $ref values
+            JsonSchema schema = schemaFactory.getSchema(schemaPath.toAbsolutePath().toUri(), schemaNode);
+            SchemaEntry entry = new SchemaEntry(schemaKey, schemaNode, schema, schemaCache.size());
+            schemaCache.put(schemaKey, entry);
+            dispatchIndex.add(entry);
+            if (entry.isPermissive()) {
+                logger.debug("Schema {} accepts an empty object and will never count as a match", schemaKey);
+            }
             
             logger.debug("Loaded schema: {}", schemaKey);
         } catch (Exception e) {
@@ -88,13 +114,18 @@ public class SchemaValidator {
     public void validateLogFile(Path logFile, OutputFormat outputFormat) {
         logger.info("Validating log file: {}", logFile);
         
+        if (BinaryLogReader.isBinaryLog(logFile)) {
+            validateBinaryLogFile(logFile, outputFormat);
+            return;
+        }
+        
         try (BufferedReader reader = Files.newBufferedReader(logFile)) {
             String line;
             int lineNumber = 0;
             
             while ((line = reader.readLine()) != null) {
                 lineNumber++;
-                processLogLine(line, lineNumber);
+                processLogLine(results, line, lineNumber);
             }
             
             generateReport(outputFormat);
@@ -104,7 +135,244 @@ public class SchemaValidator {
         }
     }
     
-    private void processLogLine(String line, int lineNumber) {
+    // Binary logs carry direction and opcode per record, so frames are validated without regex parsing;
+    // the record number takes the place of the line number in reports
+    private void validateBinaryLogFile(Path logFile, OutputFormat outputFormat) {
+        SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        
+        try (BinaryLogReader reader = new BinaryLogReader(logFile)) {
+            BinaryLogEntry entry;
+            while ((entry = reader.next()) != null) {
+                if (!entry.isText()) {
+                    continue;
+                }
+                
+                int recordNumber = (int) reader.getRecordNumber();
+                try {
+                    JsonNode jsonNode = objectMapper.readTree(entry.getPayload());
+                    String timestamp = timestampFormat.format(new Date(entry.getTimeMillis()));
+                    validateMessage(results, jsonNode, entry.getDirection(), timestamp, recordNumber);
+                } catch (IOException e) {
+                    logger.debug("Skipping non-JSON content at record {}", recordNumber);
+                }
+            }
+            
+            generateReport(outputFormat);
+            
+        } catch (IOException e) {
+            logger.error("Failed to read binary log file", e);
+        }
+    }
+    
+    // Builds the schemas' validators up front instead of racing to initialize them lazily
+    public void prepareConcurrentValidation() {
+        for (SchemaEntry entry : schemaCache.values()) {
+            entry.getSchema().initializeValidators();
+        }
+    }
+    
+    // Loaded schemas, for the inline validator's startup log
+    public int getSchemaCount() {
+        return schemaCache.size();
+    }
+    
+    // Validates one message as the proxy forwards it, without touching the statistics of the run or
+    // logging per message. Returns null when a schema matched, otherwise PARTIAL_MATCH or
+    // NO_SCHEMA_MATCH. Safe to call from several threads after prepareConcurrentValidation().
+    public String validateInline(JsonNode message, String direction) {
+        return validateMessage(new ValidationState(-1, true), message, direction, null, 0);
+    }
+    
+    // Parallel mode: text logs are split into line-aligned, memory-mapped chunks and binary logs into
+    // record batches, validated on a ForkJoinPool and merged in file order, so the report is the same
+    // as the serial one
+    public void validateLogFileParallel(Path logFile, OutputFormat outputFormat, int threads, long chunkSize) {
+        logger.info("Validating log file: {} ({} threads)", logFile, threads);
+        
+        prepareConcurrentValidation();
+        
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            if (BinaryLogReader.isBinaryLog(logFile)) {
+                validateBinaryLogParallel(logFile, pool, Math.max(1, threads) * 4);
+            } else {
+                validateTextLogParallel(logFile, pool, chunkSize);
+            }
+            
+            generateReport(outputFormat);
+            
+        } catch (IOException e) {
+            logger.error("Failed to read log file", e);
+        } catch (ExecutionException e) {
+            logger.error("Failed to validate log file", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Validation interrupted");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    private void validateTextLogParallel(Path logFile, ForkJoinPool pool, long chunkSize)
+            throws IOException, InterruptedException, ExecutionException {
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            List<Long> boundaries = findChunkBoundaries(channel, chunkSize);
+            logger.info("Split {} into {} chunks", logFile, boundaries.size() - 1);
+            
+            List<ForkJoinTask<ValidationState>> chunks = new ArrayList<>();
+            for (int i = 0; i + 1 < boundaries.size(); i++) {
+                int chunk = i;
+                long start = boundaries.get(i);
+                long end = boundaries.get(i + 1);
+                chunks.add(pool.submit(() -> validateChunk(channel, chunk, start, end)));
+            }
+            
+            // Line numbers are chunk-relative until the chunks before are counted
+            int lineOffset = 0;
+            for (ForkJoinTask<ValidationState> chunk : chunks) {
+                ValidationState state = chunk.get();
+                results.merge(state, lineOffset);
+                lineOffset += state.lines;
+            }
+        }
+    }
+    
+    // Chunk start offsets, each just after a newline, followed by the file size
+    private List<Long> findChunkBoundaries(FileChannel channel, long chunkSize) throws IOException {
+        long size = channel.size();
+        // A mapped region is limited to 2 GB
+        long step = Math.max(1, Math.min(chunkSize, Integer.MAX_VALUE / 2));
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long next = step;
+        while (next < size) {
+            long boundary = -1;
+            long position = next;
+            while (boundary < 0 && position < size) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (buffer.get(i) == '\n') {
+                        boundary = position + i + 1;
+                        break;
+                    }
+                }
+                position += read;
+            }
+            if (boundary < 0 || boundary >= size) {
+                break;
+            }
+            boundaries.add(boundary);
+            next = boundary + step;
+        }
+        
+        boundaries.add(size);
+        return boundaries;
+    }
+    
+    private ValidationState validateChunk(FileChannel channel, int chunk, long start, long end) throws IOException {
+        ValidationState state = new ValidationState(chunk);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        byte[] lineBytes = new byte[1024];
+        int limit = buffer.limit();
+        int position = 0;
+        
+        // Same line splitting as BufferedReader.readLine for \n and \r\n terminated files
+        while (position < limit) {
+            int lineEnd = position;
+            while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int length = lineEnd - position;
+            if (length > 0 && buffer.get(lineEnd - 1) == '\r') {
+                length--;
+            }
+            if (lineBytes.length < length) {
+                lineBytes = new byte[Math.max(length, lineBytes.length * 2)];
+            }
+            buffer.position(position);
+            buffer.get(lineBytes, 0, length);
+            
+            state.lines++;
+            processLogLine(state, new String(lineBytes, 0, length, StandardCharsets.UTF_8), state.lines);
+            position = lineEnd + 1;
+        }
+        return state;
+    }
+    
+    private void validateBinaryLogParallel(Path logFile, ForkJoinPool pool, int maxPendingBatches)
+            throws IOException, InterruptedException, ExecutionException {
+        SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        Deque<ForkJoinTask<ValidationState>> pending = new ArrayDeque<>();
+        // Batches already merged leave pending, so it cannot number them
+        int batches = 0;
+        
+        try (BinaryLogReader reader = new BinaryLogReader(logFile)) {
+            List<PendingRecord> batch = new ArrayList<>(BINARY_BATCH_SIZE);
+            BinaryLogEntry entry;
+            while (true) {
+                entry = reader.next();
+                if (entry != null && entry.isText()) {
+                    batch.add(new PendingRecord((int) reader.getRecordNumber(), entry.getDirection(),
+                        timestampFormat.format(new Date(entry.getTimeMillis())), entry.getPayload()));
+                }
+                
+                if (batch.size() == BINARY_BATCH_SIZE || (entry == null && !batch.isEmpty())) {
+                    List<PendingRecord> records = batch;
+                    int chunk = batches++;
+                    pending.add(pool.submit(() -> validateRecords(chunk, records)));
+                    batch = new ArrayList<>(BINARY_BATCH_SIZE);
+                    
+                    // Bound the records held in memory; batches are merged strictly in order
+                    while (pending.size() >= maxPendingBatches) {
+                        results.merge(pending.removeFirst().get(), 0);
+                    }
+                }
+                
+                if (entry == null) {
+                    break;
+                }
+            }
+        }
+        
+        while (!pending.isEmpty()) {
+            results.merge(pending.removeFirst().get(), 0);
+        }
+    }
+    
+    private ValidationState validateRecords(int chunk, List<PendingRecord> records) {
+        ValidationState state = new ValidationState(chunk);
+        for (PendingRecord record : records) {
+            try {
+                JsonNode jsonNode = objectMapper.readTree(record.payload);
+                validateMessage(state, jsonNode, record.direction, record.timestamp, record.recordNumber);
+            } catch (IOException e) {
+                logger.debug("Skipping non-JSON content at record {}", record.recordNumber);
+            }
+        }
+        return state;
+    }
+    
+    private static class PendingRecord {
+        final int recordNumber;
+        final String direction;
+        final String timestamp;
+        final byte[] payload;
+        
+        PendingRecord(int recordNumber, String direction, String timestamp, byte[] payload) {
+            this.recordNumber = recordNumber;
+            this.direction = direction;
+            this.timestamp = timestamp;
+            this.payload = payload;
+        }
+    }
+    
+    private void processLogLine(ValidationState state, String line, int lineNumber) {
         Matcher matcher = LOG_LINE_PATTERN.matcher(line);
         if (!matcher.matches()) {
             // Skip non-matching lines (events, binary messages, etc.)
@@ -123,71 +391,85 @@ public class SchemaValidator {
         
         try {
             JsonNode jsonNode = objectMapper.readTree(jsonContent);
-            validateMessage(jsonNode, direction, timestamp, lineNumber);
+            validateMessage(state, jsonNode, direction, timestamp, lineNumber);
         } catch (Exception e) {
             // Not valid JSON, skip
-            logger.debug("Skipping non-JSON content at line {}", lineNumber);
+            logger.debug("Skipping non-JSON content at {}", state.describeLine(lineNumber));
         }
     }
     
-    private void validateMessage(JsonNode message, String direction, String timestamp, int lineNumber) {
-        totalMessages++;
+    void validateMessage(JsonNode message, String direction, String timestamp, int lineNumber) {
+        validateMessage(results, message, direction, timestamp, lineNumber);
+    }
+
+    // Null when the message matched a schema, otherwise the error type
+    private String validateMessage(ValidationState state, JsonNode message, String direction,
+                                   String timestamp, int lineNumber) {
+        state.totalMessages++;
 
         // Get preferred schema keys first
         List<String> preferredSchemaKeys = getPreferredSchemaKeys(message, direction);
 
         // Try preferred schemas first
         for (String schemaKey : preferredSchemaKeys) {
-            JsonSchema schema = schemaCache.get(schemaKey);
-            if (schema != null) {
-                Set<ValidationMessage> validationMessages = schema.validate(message);
-                if (validationMessages.isEmpty() && isValidSchemaMatch(schema, message)) {
-                    logger.info("Validated with preferred schema: {}", schemaKey);
-                    validMessages++;
-                    validateRecursively(message, direction, timestamp, lineNumber);
-                    return;
+            SchemaEntry entry = schemaCache.get(schemaKey);
+            if (entry != null && !entry.isPermissive()) {
+                Set<ValidationMessage> validationMessages = entry.getSchema().validate(message);
+                if (validationMessages.isEmpty()) {
+                    if (!state.quiet) {
+                        logger.info("Validated with preferred schema: {}", schemaKey);
+                    }
+                    metrics.recordSchemaPreferredHit();
+                    state.validMessages++;
+                    validateRecursively(state, message, direction, timestamp, lineNumber);
+                    return null;
                 }
             }
         }
 
-        // If no preferred schemas match, try all available schemas
-        for (Map.Entry<String, JsonSchema> entry : schemaCache.entrySet()) {
+        // If no preferred schemas match, try the schemas whose discriminators fit the message
+        for (SchemaEntry entry : dispatchIndex.candidates(message)) {
             String schemaKey = entry.getKey();
-            JsonSchema schema = entry.getValue();
 
-            // Skip if already tried as preferred
-            if (preferredSchemaKeys.contains(schemaKey)) {
+            // Skip if already tried as preferred, or too permissive to count as a match
+            if (preferredSchemaKeys.contains(schemaKey) || entry.isPermissive()) {
                 continue;
             }
 
-            Set<ValidationMessage> validationMessages = schema.validate(message);
-            if (validationMessages.isEmpty() && isValidSchemaMatch(schema, message)) {
+            Set<ValidationMessage> validationMessages = entry.getSchema().validate(message);
+            if (validationMessages.isEmpty()) {
                 logger.debug("Validated with fallback schema: {}", schemaKey);
-                validMessages++;
-                validateRecursively(message, direction, timestamp, lineNumber);
-                return;
+                metrics.recordSchemaFallbackHit();
+                state.validMessages++;
+                validateRecursively(state, message, direction, timestamp, lineNumber);
+                return null;
             }
         }
 
         // No schema matched, but still validate recursively
-        logger.warn("No matching schema found for message at line {} among {} schemas",
-                   lineNumber, schemaCache.size());
+        metrics.recordSchemaMiss();
+        if (!state.quiet) {
+            logger.warn("No matching schema found for message at {} among {} schemas",
+                       state.describeLine(lineNumber), schemaCache.size());
+        }
 
         // Track if any recursive validations occur
-        int recursiveCountBefore = recursiveValidations;
-        validateRecursively(message, direction, timestamp, lineNumber);
+        int recursiveCountBefore = state.recursiveValidations;
+        validateRecursively(state, message, direction, timestamp, lineNumber);
 
         // Determine if this was a partial match (some embedded content validated)
-        if (recursiveValidations > recursiveCountBefore) {
-            partialMatches++;
-            logger.info("Partial match at line {} - top-level failed but {} embedded validations succeeded",
-                       lineNumber, recursiveValidations - recursiveCountBefore);
+        if (state.recursiveValidations > recursiveCountBefore) {
+            state.partialMatches++;
+            if (!state.quiet) {
+                logger.info("Partial match at {} - top-level failed but {} embedded validations succeeded",
+                           state.describeLine(lineNumber), state.recursiveValidations - recursiveCountBefore);
+            }
         } else {
-            invalidMessages++;
+            state.invalidMessages++;
         }
 
         // Create error with appropriate message
-        String errorType = (recursiveValidations > recursiveCountBefore) ? "PARTIAL_MATCH" : "NO_SCHEMA_MATCH";
+        String errorType = (state.recursiveValidations > recursiveCountBefore) ? "PARTIAL_MATCH" : "NO_SCHEMA_MATCH";
         ValidationError error = new ValidationError(
             lineNumber,
             timestamp,
@@ -197,17 +479,8 @@ public class SchemaValidator {
             errorType
         );
 
-        // Check for duplicates if deduplication is enabled
-        if (deduplicateMessages) {
-            String messageHash = getMessageHashWithoutId(message);
-            if (seenMessages.contains(messageHash)) {
-                logger.debug("Skipping duplicate message at line {}", lineNumber);
-                return;
-            }
-            seenMessages.add(messageHash);
-        }
-
-        errors.add(error);
+        state.addError(error);
+        return errorType;
     }
     
     private List<String> getPreferredSchemaKeys(JsonNode message, String direction) {
@@ -235,21 +508,6 @@ public class SchemaValidator {
         return preferredKeys;
     }
 
-    private boolean isValidSchemaMatch(JsonSchema schema, JsonNode message) {
-        // Check if the schema actually validates something meaningful
-        // by testing against a minimal valid message that should fail
-
-        // Create a minimal valid JSON object that should fail most schemas
-        JsonNode minimalMessage = objectMapper.createObjectNode();
-
-        // Test if the schema rejects this minimal message
-        Set<ValidationMessage> minimalValidation = schema.validate(minimalMessage);
-
-        // If the schema accepts the minimal message, it's too permissive
-        // Only accept schemas that actually validate something
-        return !minimalValidation.isEmpty();
-    }
-
     private String getMessageHashWithoutId(JsonNode message) {
         if (!message.isObject()) {
             return message.toString();
@@ -269,7 +527,8 @@ public class SchemaValidator {
         return messageWithoutId.toString();
     }
 
-    private void validateRecursively(JsonNode node, String direction, String timestamp, int lineNumber) {
+    private void validateRecursively(ValidationState state, JsonNode node, String direction,
+                                     String timestamp, int lineNumber) {
         if (node.isObject()) {
             // Check all string values in the object
             Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
@@ -282,15 +541,15 @@ public class SchemaValidator {
                     if (isPotentialJsonString(textValue)) {
                         try {
                             JsonNode embeddedJson = objectMapper.readTree(textValue);
-                            recursiveValidations++;
-                            validateMessage(embeddedJson, direction, timestamp, lineNumber);
+                            state.recursiveValidations++;
+                            validateMessage(state, embeddedJson, direction, timestamp, lineNumber);
                         } catch (Exception e) {
                             // Not valid JSON, continue
                         }
                     }
                 } else if (value.isObject() || value.isArray()) {
                     // Recursively check nested objects and arrays
-                    validateRecursively(value, direction, timestamp, lineNumber);
+                    validateRecursively(state, value, direction, timestamp, lineNumber);
                 }
             }
         } else if (node.isArray()) {
@@ -301,15 +560,15 @@ public class SchemaValidator {
                     if (isPotentialJsonString(textValue)) {
                         try {
                             JsonNode embeddedJson = objectMapper.readTree(textValue);
-                            recursiveValidations++;
-                            validateMessage(embeddedJson, direction, timestamp, lineNumber);
+                            state.recursiveValidations++;
+                            validateMessage(state, embeddedJson, direction, timestamp, lineNumber);
                         } catch (Exception e) {
                             // Not valid JSON, continue
                         }
                     }
                 } else if (element.isObject() || element.isArray()) {
                     // Recursively check nested objects and arrays
-                    validateRecursively(element, direction, timestamp, lineNumber);
+                    validateRecursively(state, element, direction, timestamp, lineNumber);
                 }
             }
         }
@@ -341,15 +600,17 @@ public class SchemaValidator {
     
     private void generateSummaryReport() {
         System.out.println("\n=== Schema Validation Summary ===");
-        System.out.println("Total messages: " + totalMessages);
-        System.out.println("Valid messages: " + validMessages);
-        System.out.println("Partial matches: " + partialMatches);
-        System.out.println("Invalid messages: " + invalidMessages);
-        System.out.println("Recursive validations: " + recursiveValidations);
-
-        if (!errors.isEmpty()) {
+        System.out.println("Total messages: " + results.totalMessages);
+        System.out.println("Valid messages: " + results.validMessages);
+        System.out.println("Partial matches: " + results.partialMatches);
+        System.out.println("Invalid messages: " + results.invalidMessages);
+        System.out.println("Recursive validations: " + results.recursiveValidations);
+        System.out.println("Schema lookups: " + metrics.getSchemaPreferredHits() + " preferred hits, "
+            + metrics.getSchemaFallbackHits() + " fallback hits, " + metrics.getSchemaMisses() + " misses");
+
+        if (!results.errors.isEmpty()) {
             System.out.println("\nValidation errors by type:");
-            Map<String, Long> errorTypes = errors.stream()
+            Map<String, Long> errorTypes = results.errors.stream()
                 .flatMap(e -> e.validationMessages.stream())
                 .collect(Collectors.groupingBy(
                     ValidationMessage::getType,
@@ -360,14 +621,14 @@ public class SchemaValidator {
                 System.out.println("  " + type + ": " + count));
         }
 
-        double successRate = totalMessages > 0
-            ? (100.0 * validMessages / totalMessages)
+        double successRate = results.totalMessages > 0
+            ? (100.0 * results.validMessages / results.totalMessages)
             : 100.0;
         System.out.printf("\nValidation success rate: %.2f%%\n", successRate);
 
-        if (partialMatches > 0) {
-            double partialRate = totalMessages > 0
-                ? (100.0 * partialMatches / totalMessages)
+        if (results.partialMatches > 0) {
+            double partialRate = results.totalMessages > 0
+                ? (100.0 * results.partialMatches / results.totalMessages)
                 : 0.0;
             System.out.printf("Partial match rate: %.2f%%\n", partialRate);
         }
@@ -376,10 +637,10 @@ public class SchemaValidator {
     private void generateDetailedReport() {
         generateSummaryReport();
 
-        if (!errors.isEmpty()) {
+        if (!results.errors.isEmpty()) {
             System.out.println("\n=== Detailed Validation Errors ===");
 
-            for (ValidationError error : errors) {
+            for (ValidationError error : results.errors) {
                 System.out.println("\nLine " + error.lineNumber + " [" + error.timestamp + "] " + error.direction);
                 System.out.println("Error Type: " + error.errorType);
                 System.out.println("Message: " + error.message.toString());
@@ -406,15 +667,15 @@ public class SchemaValidator {
     private void generateJsonReport() {
         try {
             Map<String, Object> report = new HashMap<>();
-            report.put("totalMessages", totalMessages);
-            report.put("validMessages", validMessages);
-            report.put("partialMatches", partialMatches);
-            report.put("invalidMessages", invalidMessages);
-            report.put("recursiveValidations", recursiveValidations);
+            report.put("totalMessages", results.totalMessages);
+            report.put("validMessages", results.validMessages);
+            report.put("partialMatches", results.partialMatches);
+            report.put("invalidMessages", results.invalidMessages);
+            report.put("recursiveValidations", results.recursiveValidations);
 
-            if (!errors.isEmpty()) {
+            if (!results.errors.isEmpty()) {
                 List<Map<String, Object>> errorList = new ArrayList<>();
-                for (ValidationError error : errors) {
+                for (ValidationError error : results.errors) {
                     Map<String, Object> errorMap = new HashMap<>();
                     errorMap.put("line", error.lineNumber);
                     errorMap.put("timestamp", error.timestamp);
@@ -447,6 +708,67 @@ public class SchemaValidator {
         }
     }
     
+    // Counters and errors of one unit of work: the whole run, or one chunk in parallel mode
+    private final class ValidationState {
+        final int chunk;
+        // Inline validation logs nothing per message
+        final boolean quiet;
+        int lines = 0;
+        int totalMessages = 0;
+        int validMessages = 0;
+        int invalidMessages = 0;
+        int partialMatches = 0;
+        int recursiveValidations = 0;
+        final List<ValidationError> errors = new ArrayList<>();
+        // Deduplication key per error, null when deduplication is off
+        private final List<String> errorKeys = new ArrayList<>();
+        private final Set<String> seenMessages = new HashSet<>();
+
+        ValidationState(int chunk) {
+            this(chunk, false);
+        }
+
+        ValidationState(int chunk, boolean quiet) {
+            this.chunk = chunk;
+            this.quiet = quiet;
+        }
+
+        void addError(ValidationError error) {
+            String key = null;
+            if (deduplicateMessages) {
+                key = getMessageHashWithoutId(error.message);
+                if (!seenMessages.add(key)) {
+                    logger.debug("Skipping duplicate message at {}", describeLine(error.lineNumber));
+                    return;
+                }
+            }
+            errors.add(error);
+            errorKeys.add(key);
+        }
+
+        // Chunks must be merged in file order so deduplication keeps the same first occurrence
+        void merge(ValidationState other, int lineOffset) {
+            totalMessages += other.totalMessages;
+            validMessages += other.validMessages;
+            invalidMessages += other.invalidMessages;
+            partialMatches += other.partialMatches;
+            recursiveValidations += other.recursiveValidations;
+
+            for (int i = 0; i < other.errors.size(); i++) {
+                String key = other.errorKeys.get(i);
+                if (key != null && !seenMessages.add(key)) {
+                    continue;
+                }
+                errors.add(other.errors.get(i).withLineOffset(lineOffset));
+                errorKeys.add(key);
+            }
+        }
+
+        String describeLine(int lineNumber) {
+            return chunk < 0 ? "line " + lineNumber : "line " + lineNumber + " of chunk " + chunk;
+        }
+    }
+    
     // Inner class to hold validation error information
     private static class ValidationError {
         final int lineNumber;
@@ -465,6 +787,14 @@ public class SchemaValidator {
             this.validationMessages = validationMessages;
             this.errorType = errorType;
         }
+
+        ValidationError withLineOffset(int lineOffset) {
+            if (lineOffset == 0) {
+                return this;
+            }
+            return new ValidationError(lineNumber + lineOffset, timestamp, direction, message,
+                validationMessages, errorType);
+        }
     }
     
     // Output format enum
@@ -476,7 +806,7 @@ public class SchemaValidator {
     public static void main(String[] args) {
         Options options = new Options();
         
-        Option logFile = new Option("l", "log-file", true, "Log file to validate");
+        Option logFile = new Option("l", "log-file", true, "Log file to validate (text _raw.log or binary .wslog)");
         logFile.setRequired(true);
         options.addOption(logFile);
         
@@ -494,6 +824,21 @@ public class SchemaValidator {
         deduplicate.setRequired(false);
         options.addOption(deduplicate);
         
+        Option parallel = new Option("p", "parallel", false,
+            "Validate chunks of the log file in parallel; the report is the same as in serial mode");
+        parallel.setRequired(false);
+        options.addOption(parallel);
+        
+        Option threads = new Option("t", "threads", true,
+            "Worker threads in parallel mode (default: number of processors)");
+        threads.setRequired(false);
+        options.addOption(threads);
+        
+        Option chunkMb = new Option(null, "chunk-mb", true,
+            "Size of the text log chunks in parallel mode, in megabytes (default: 64)");
+        chunkMb.setRequired(false);
+        options.addOption(chunkMb);
+        
         CommandLineParser parser = new DefaultParser();
         HelpFormatter formatter = new HelpFormatter();
         CommandLine cmd;
@@ -522,6 +867,13 @@ public class SchemaValidator {
         }
 
         SchemaValidator validator = new SchemaValidator(schemaPath, shouldDeduplicate);
-        validator.validateLogFile(logPath, format);
+        if (cmd.hasOption("parallel")) {
+            int threadCount = Integer.parseInt(cmd.getOptionValue("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+            long chunkSize = Long.parseLong(cmd.getOptionValue("chunk-mb", "64")) * 1024 * 1024;
+            validator.validateLogFileParallel(logPath, format, threadCount, chunkSize);
+        } else {
+            validator.validateLogFile(logPath, format);
+        }
     }
 }
\ No newline at end of file
@@ -1,52 +1,129 @@
 package com.websocket.proxy;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Base64;
 import java.util.Date;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
 
 public class SessionLogger {
     private static final Logger logger = LoggerFactory.getLogger(SessionLogger.class);
     
-    private final ObjectMapper objectMapper;
+    public enum LogFormat {
+        TEXT, BINARY
+    }
+    
+    public enum PcapFormat {
+        PCAP, PCAPNG
+    }
+    
+    // One per direction, so interleaved fragments from both sides are reassembled separately
+    private final JsonRpcClassifier clientJsonClassifier;
+    private final JsonRpcClassifier serverJsonClassifier;
+    private final RollingFile rawLogFile;
+    private final RollingFile jsonLogFile;
+    private final Utf8CountingWriter rawLogCounter;
     private final PrintWriter rawLogWriter;
+    private final LogIndexWriter rawLogIndex;
     private final PrintWriter jsonLogWriter;
+    private final BinaryLogWriter binaryLogWriter;
     private final SimpleDateFormat timestampFormat;
     private final int connectionId;
     private final PcapWriter pcapWriter;
+    private final AsyncLogWriter asyncLogWriter;
+    private final RequestTracker requestTracker;
+    private final int binaryLogMaxBytes;
+    private final int binaryLogSampleBytes;
+    // A lock rather than synchronized so blocking file I/O does not pin virtual thread carriers
+    private final ReentrantLock lock = new ReentrantLock();
     
-    private StringBuilder partialJsonBuffer = new StringBuilder();
+    // Guarded by lock; events can still arrive from the upstream side after the session is closed
+    private boolean closed = false;
     
     public SessionLogger(String logDirectory, String sessionId, int connectionId, 
                         String serverHost, int clientPort, int serverPort) {
+        this(logDirectory, sessionId, connectionId, serverHost, clientPort, serverPort, new ProxyConfig(), null,
+             new LogStorage(), null, null, new ProxyMetrics());
+    }
+    
+    public SessionLogger(String logDirectory, String sessionId, int connectionId, 
+                        String serverHost, int clientPort, int serverPort,
+                        ProxyConfig config, AsyncLogWriter asyncLogWriter, LogStorage logStorage,
+                        LogShards logShards, PcapNgWriter pcapNgWriter, ProxyMetrics metrics) {
         this.connectionId = connectionId;
-        this.objectMapper = new ObjectMapper();
-        this.objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
+        this.asyncLogWriter = asyncLogWriter;
+        this.binaryLogMaxBytes = config.getBinaryLogMaxBytes();
+        this.binaryLogSampleBytes = config.getBinaryLogSampleBytes();
+        this.clientJsonClassifier = new JsonRpcClassifier(config.getJsonLogMaxMessageBytes(), metrics);
+        this.serverJsonClassifier = new JsonRpcClassifier(config.getJsonLogMaxMessageBytes(), metrics);
         this.timestampFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        this.requestTracker = config.isRpcTracking()
+            ? new RequestTracker(config.getRpcTimeoutMs(), config.getRpcMaxPending(), metrics) : null;
         
         File logDir = new File(logDirectory);
         if (!logDir.exists()) {
             logDir.mkdirs();
         }
         
-        String rawLogFile = String.format("%s/session_%s_conn_%d_raw.log", 
+        String rawLogPath = String.format("%s/session_%s_conn_%d_raw.log", 
+            logDirectory, sessionId, connectionId);
+        String jsonLogPath = String.format("%s/session_%s_conn_%d_json.log", 
+            logDirectory, sessionId, connectionId);
+        String pcapPath = String.format("%s/session_%s_conn_%d.pcap",
+            logDirectory, sessionId, connectionId);
+        String binaryLogPath = String.format("%s/session_%s_conn_%d.wslog",
             logDirectory, sessionId, connectionId);
-        String jsonLogFile = String.format("%s/session_%s_conn_%d_json.log", 
+        String rawIndexPath = String.format("%s/session_%s_conn_%d_raw.idx",
             logDirectory, sessionId, connectionId);
-        String pcapFile = String.format("%s/session_%s_conn_%d.pcap",
+        String binaryIndexPath = String.format("%s/session_%s_conn_%d.idx",
             logDirectory, sessionId, connectionId);
         
         try {
-            this.rawLogWriter = new PrintWriter(new FileWriter(rawLogFile, true));
-            this.jsonLogWriter = new PrintWriter(new FileWriter(jsonLogFile, true));
-            this.pcapWriter = new PcapWriter(pcapFile, serverHost, clientPort, serverPort);
+            // The binary format replaces both text logs; the PCAP is written either way.
+            // Sharded logs always use the binary format.
+            if (logShards != null) {
+                this.rawLogFile = null;
+                this.jsonLogFile = null;
+                this.rawLogCounter = null;
+                this.rawLogWriter = null;
+                this.rawLogIndex = null;
+                this.jsonLogWriter = null;
+                this.binaryLogWriter = logShards.forConnection(connectionId);
+            } else if (config.getLogFormat() == LogFormat.BINARY) {
+                this.rawLogFile = null;
+                this.jsonLogFile = null;
+                this.rawLogCounter = null;
+                this.rawLogWriter = null;
+                this.rawLogIndex = null;
+                this.jsonLogWriter = null;
+                this.binaryLogWriter = new BinaryLogWriter(logStorage.open(binaryLogPath, false),
+                    config.isLogIndex() ? new LogIndexWriter(logStorage.open(binaryIndexPath, false)) : null);
+            } else {
+                this.rawLogFile = logStorage.open(rawLogPath, true);
+                this.jsonLogFile = logStorage.open(jsonLogPath, true);
+                // The raw log index needs byte offsets, so the count starts at the size of an appended file
+                this.rawLogCounter = new Utf8CountingWriter(
+                    new OutputStreamWriter(rawLogFile, StandardCharsets.UTF_8), rawLogFile.size());
+                this.rawLogWriter = new PrintWriter(rawLogCounter);
+                this.rawLogIndex = config.isLogIndex()
+                    ? new LogIndexWriter(logStorage.open(rawIndexPath, true)) : null;
+                this.jsonLogWriter = new PrintWriter(new OutputStreamWriter(jsonLogFile, StandardCharsets.UTF_8));
+                this.binaryLogWriter = null;
+            }
+            // With pcapng the connection is an interface of the session's capture file
+            if (pcapNgWriter != null) {
+                this.pcapWriter = pcapNgWriter.openConnection(connectionId, serverHost, clientPort, serverPort);
+            } else {
+                this.pcapWriter = new PcapWriter(logStorage.open(pcapPath, false), serverHost, clientPort, serverPort,
+                                                 metrics);
+                this.pcapWriter.setFlushIntervalMs(config.getPcapFlushIntervalMs());
+            }
             
             logEvent("SESSION_START", String.format("Connection #%d logging started", connectionId));
             
@@ -55,183 +132,433 @@ public class SessionLogger {
         }
     }
     
-    public synchronized void logMessage(String direction, String message) {
-        String timestamp = timestampFormat.format(new Date());
-        
-        rawLogWriter.printf("[%s] [CONN_%d] [%s] %s%n", timestamp, connectionId, direction, message);
-        rawLogWriter.flush();
-        
-        // Write to PCAP
-        try {
-            byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
-            if ("CLIENT_TO_SERVER".equals(direction)) {
-                pcapWriter.writeClientToServer(messageBytes);
-            } else if ("SERVER_TO_CLIENT".equals(direction)) {
-                pcapWriter.writeServerToClient(messageBytes);
-            }
-        } catch (IOException e) {
-            logger.warn("Failed to write to PCAP file", e);
+    public void logMessage(String direction, String message) {
+        if (asyncLogWriter != null) {
+            asyncLogWriter.submit(LogRecord.message(this, direction, message));
+        } else {
+            writeMessage(BinaryLogFormat.currentTimeNanos(), direction, message);
         }
-        
+    }
+    
+    public void logBinaryMessage(String direction, byte[] data) {
+        logBinaryMessage(direction, ByteBuffer.wrap(data));
+    }
+    
+    // The buffer is read through its own view and never copied on the caller's thread,
+    // so callers may forward the original buffer right after this returns
+    public void logBinaryMessage(String direction, ByteBuffer data) {
+        if (asyncLogWriter != null) {
+            asyncLogWriter.submit(LogRecord.binary(this, direction, data.duplicate()));
+        } else {
+            writeBinaryMessage(BinaryLogFormat.currentTimeNanos(), direction, data.duplicate());
+        }
+    }
+    
+    public void logEvent(String eventType, String description) {
+        if (asyncLogWriter != null) {
+            asyncLogWriter.submit(LogRecord.event(this, eventType, description));
+        } else {
+            writeEvent(BinaryLogFormat.currentTimeNanos(), eventType, description);
+        }
+    }
+    
+    void writeMessage(long timeNanos, String direction, String message) {
+        lock.lock();
         try {
-            JsonNode jsonNode = objectMapper.readTree(message);
+            if (closed) {
+                return;
+            }
             
-            if (isJsonRpcMessage(jsonNode)) {
-                logJsonRpcMessage(timestamp, direction, jsonNode);
-            } else {
-                logJsonMessage(timestamp, direction, jsonNode);
+            long time = timeNanos / 1_000_000L;
+            byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+            
+            if (binaryLogWriter != null) {
+                // Only the top-level fields, for the packet comment, the index and request tracking
+                JsonRpcClassifier.Envelope envelope =
+                    pcapWriter.hasComments() || binaryLogWriter.hasIndex() || requestTracker != null
+                    ? JsonRpcClassifier.peek(messageBytes) : null;
+                trackRequest(timeNanos, direction, envelope);
+                try {
+                    binaryLogWriter.writeText(timeNanos, connectionId,
+                        BinaryLogFormat.directionCode(direction), messageBytes,
+                        indexMethod(envelope), indexId(envelope));
+                    flushBinaryIfSync();
+                } catch (IOException e) {
+                    logger.warn("Failed to write to binary session log", e);
+                }
+                String annotation = pcapWriter.hasComments() ? pcapAnnotation(envelope) : null;
+                writePcap(timeNanos, direction, messageBytes, annotation);
+                return;
             }
             
-            partialJsonBuffer.setLength(0);
+            String timestamp = timestampFormat.format(new Date(time));
+        
+            JsonRpcClassifier classifier = "SERVER_TO_CLIENT".equals(direction)
+                ? serverJsonClassifier : clientJsonClassifier;
+            JsonRpcClassifier.Envelope envelope = classifier.classify(messageBytes);
+            trackRequest(timeNanos, direction, envelope);
             
-        } catch (Exception e) {
-            partialJsonBuffer.append(message);
+            long offset = rawLogCounter.getCount();
+            rawLogWriter.printf("[%s] [CONN_%d] [%s] %s%n", timestamp, connectionId, direction, message);
+            indexRawLine(offset, timeNanos, indexMethod(envelope), indexId(envelope));
+            flushIfSync(rawLogWriter);
             
-            if (partialJsonBuffer.length() > 0) {
-                try {
-                    JsonNode jsonNode = objectMapper.readTree(partialJsonBuffer.toString());
-                    
-                    if (isJsonRpcMessage(jsonNode)) {
-                        logJsonRpcMessage(timestamp, direction, jsonNode);
-                    } else {
-                        logJsonMessage(timestamp, direction, jsonNode);
-                    }
-                    
-                    partialJsonBuffer.setLength(0);
-                    
-                } catch (Exception ex) {
-                    if (partialJsonBuffer.length() > 100000) {
-                        logger.warn("Partial JSON buffer too large, clearing");
-                        partialJsonBuffer.setLength(0);
-                    }
+            writePcap(timeNanos, direction, messageBytes, pcapWriter.hasComments() ? pcapAnnotation(envelope) : null);
+        
+            if (envelope != null) {
+                if (envelope.isJsonRpc()) {
+                    logJsonRpcMessage(timestamp, direction, envelope);
+                } else {
+                    logJsonMessage(timestamp, direction, envelope);
                 }
             }
+            rollTextLogsIfNeeded();
+        } finally {
+            lock.unlock();
         }
     }
     
-    public synchronized void logBinaryMessage(String direction, byte[] data) {
-        String timestamp = timestampFormat.format(new Date());
-        String base64Data = Base64.getEncoder().encodeToString(data);
+    void writeBinaryMessage(long timeNanos, String direction, ByteBuffer data) {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            
+            long time = timeNanos / 1_000_000L;
+            
+            if (binaryLogWriter != null) {
+                try {
+                    binaryLogWriter.writeBinary(timeNanos, connectionId,
+                        BinaryLogFormat.directionCode(direction), data);
+                    flushBinaryIfSync();
+                } catch (IOException e) {
+                    logger.warn("Failed to write to binary session log", e);
+                }
+                writePcap(timeNanos, direction, data);
+                return;
+            }
+            
+            String timestamp = timestampFormat.format(new Date(time));
+            int length = data.remaining();
         
-        rawLogWriter.printf("[%s] [CONN_%d] [%s] [BINARY] %d bytes: %s%n", 
-            timestamp, connectionId, direction, data.length, base64Data);
-        rawLogWriter.flush();
+            long offset = rawLogCounter.getCount();
+            if (binaryLogMaxBytes < 0 || length <= binaryLogMaxBytes) {
+                String base64Data = encodeBase64(data, length);
+                rawLogWriter.printf("[%s] [CONN_%d] [%s] [BINARY] %d bytes: %s%n", 
+                    timestamp, connectionId, direction, length, base64Data);
+            } else {
+                // Large frames are referenced by length and checksum with only a leading sample
+                CRC32 crc = new CRC32();
+                crc.update(data.duplicate());
+                String sample = encodeBase64(data, Math.min(length, binaryLogSampleBytes));
+                rawLogWriter.printf("[%s] [CONN_%d] [%s] [BINARY] %d bytes (crc32 %08x, first %d bytes): %s%n", 
+                    timestamp, connectionId, direction, length, crc.getValue(),
+                    Math.min(length, binaryLogSampleBytes), sample);
+            }
+            indexRawLine(offset, timeNanos, null, null);
+            flushIfSync(rawLogWriter);
         
-        jsonLogWriter.printf("[%s] [CONN_%d] [%s] [BINARY] %d bytes%n", 
-            timestamp, connectionId, direction, data.length);
-        jsonLogWriter.flush();
+            jsonLogWriter.printf("[%s] [CONN_%d] [%s] [BINARY] %d bytes%n", 
+                timestamp, connectionId, direction, length);
+            flushIfSync(jsonLogWriter);
         
-        // Write to PCAP
+            writePcap(timeNanos, direction, data);
+            rollTextLogsIfNeeded();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void writePcap(long timeNanos, String direction, byte[] messageBytes, String annotation) {
+        try {
+            if ("CLIENT_TO_SERVER".equals(direction)) {
+                pcapWriter.writeText(timeNanos, true, messageBytes, annotation);
+            } else if ("SERVER_TO_CLIENT".equals(direction)) {
+                pcapWriter.writeText(timeNanos, false, messageBytes, annotation);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to write to PCAP file", e);
+        }
+    }
+    
+    private void writePcap(long timeNanos, String direction, ByteBuffer data) {
         try {
             if ("CLIENT_TO_SERVER".equals(direction)) {
-                pcapWriter.writeClientToServer(data);
+                pcapWriter.writeBinary(timeNanos, true, data, null);
             } else if ("SERVER_TO_CLIENT".equals(direction)) {
-                pcapWriter.writeServerToClient(data);
+                pcapWriter.writeBinary(timeNanos, false, data, null);
             }
         } catch (IOException e) {
             logger.warn("Failed to write binary data to PCAP file", e);
         }
     }
     
-    public synchronized void logEvent(String eventType, String description) {
-        String timestamp = timestampFormat.format(new Date());
+    // JSON-RPC method and id for the packet comment
+    private static String pcapAnnotation(JsonRpcClassifier.Envelope envelope) {
+        if (envelope == null || !envelope.isJsonRpc()) {
+            return null;
+        }
+        if (envelope.isRequest()) {
+            return envelope.hasId() ? "method=" + envelope.getMethod() + " id=" + envelope.getId()
+                : "method=" + envelope.getMethod();
+        }
+        return envelope.hasId() ? "id=" + envelope.getId() : null;
+    }
+    
+    // Requests from the client are matched to the server's responses and errors
+    private void trackRequest(long timeNanos, String direction, JsonRpcClassifier.Envelope envelope) {
+        if (requestTracker == null || envelope == null || !envelope.isJsonRpc() || !envelope.hasId()) {
+            return;
+        }
+        if (envelope.isRequest()) {
+            if ("CLIENT_TO_SERVER".equals(direction)) {
+                requestTracker.onRequest(timeNanos, envelope.getId(), envelope.getMethod());
+            }
+        } else if ("SERVER_TO_CLIENT".equals(direction)) {
+            requestTracker.onResponse(timeNanos, envelope.getId(), envelope.isError());
+        }
+    }
+    
+    // JSON-RPC keys for the index: the method of requests and the id of requests and responses
+    private static String indexMethod(JsonRpcClassifier.Envelope envelope) {
+        return envelope != null && envelope.isJsonRpc() && envelope.isRequest() ? envelope.getMethod() : null;
+    }
+    
+    private static String indexId(JsonRpcClassifier.Envelope envelope) {
+        return envelope != null && envelope.isJsonRpc() && envelope.hasId() ? envelope.getId() : null;
+    }
+    
+    private void indexRawLine(long offset, long timeNanos, String method, String id) {
+        if (rawLogIndex == null) {
+            return;
+        }
+        try {
+            rawLogIndex.record(offset, rawLogCounter.getCount() - offset, timeNanos, connectionId, method, id);
+        } catch (IOException e) {
+            logger.warn("Failed to write raw log index", e);
+        }
+    }
+    
+    void writeEvent(long timeNanos, String eventType, String description) {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            
+            if (binaryLogWriter != null) {
+                try {
+                    binaryLogWriter.writeEvent(timeNanos, connectionId, eventType, description);
+                    flushBinaryIfSync();
+                } catch (IOException e) {
+                    logger.warn("Failed to write to binary session log", e);
+                }
+                return;
+            }
+            
+            String timestamp = timestampFormat.format(new Date(timeNanos / 1_000_000L));
         
-        rawLogWriter.printf("[%s] [CONN_%d] [EVENT] [%s] %s%n", 
-            timestamp, connectionId, eventType, description);
-        rawLogWriter.flush();
+            long offset = rawLogCounter.getCount();
+            rawLogWriter.printf("[%s] [CONN_%d] [EVENT] [%s] %s%n", 
+                timestamp, connectionId, eventType, description);
+            indexRawLine(offset, timeNanos, null, null);
+            flushIfSync(rawLogWriter);
         
-        jsonLogWriter.printf("[%s] [CONN_%d] [EVENT] [%s] %s%n", 
-            timestamp, connectionId, eventType, description);
-        jsonLogWriter.flush();
+            jsonLogWriter.printf("[%s] [CONN_%d] [EVENT] [%s] %s%n", 
+                timestamp, connectionId, eventType, description);
+            flushIfSync(jsonLogWriter);
+            rollTextLogsIfNeeded();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private String encodeBase64(ByteBuffer data, int length) {
+        ByteBuffer slice = data.duplicate();
+        slice.limit(slice.position() + length);
+        ByteBuffer encoded = Base64.getEncoder().encode(slice);
+        return new String(encoded.array(), encoded.arrayOffset(), encoded.remaining(), StandardCharsets.ISO_8859_1);
+    }
+    
+    private void flushIfSync(PrintWriter writer) {
+        if (asyncLogWriter == null) {
+            writer.flush();
+        }
+    }
+    
+    // Between records, so no line is split across segments
+    private void rollTextLogsIfNeeded() {
+        if (rollIfNeeded(rawLogWriter, rawLogFile)) {
+            rawLogCounter.reset();
+            if (rawLogIndex != null) {
+                try {
+                    rawLogIndex.roll();
+                } catch (IOException e) {
+                    logger.warn("Failed to roll over raw log index", e);
+                }
+            }
+        }
+        rollIfNeeded(jsonLogWriter, jsonLogFile);
+    }
+    
+    private boolean rollIfNeeded(PrintWriter writer, RollingFile file) {
+        if (file.isOpen() && file.shouldRoll(0)) {
+            writer.flush();
+            try {
+                file.roll();
+                return true;
+            } catch (IOException e) {
+                logger.warn("Failed to roll over log file {}", file.getPath(), e);
+            }
+        }
+        return false;
+    }
+    
+    private void flushBinaryIfSync() throws IOException {
+        if (asyncLogWriter == null) {
+            binaryLogWriter.flush();
+        }
     }
     
-    private boolean isJsonRpcMessage(JsonNode node) {
-        return node.has("jsonrpc") && 
-               (node.has("method") || node.has("result") || node.has("error"));
+    void flush() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (binaryLogWriter != null) {
+                try {
+                    binaryLogWriter.flush();
+                } catch (IOException e) {
+                    logger.warn("Failed to flush binary session log", e);
+                }
+            } else {
+                rawLogWriter.flush();
+                jsonLogWriter.flush();
+                if (rawLogIndex != null) {
+                    try {
+                        rawLogIndex.flush();
+                    } catch (IOException e) {
+                        logger.warn("Failed to flush raw log index", e);
+                    }
+                }
+            }
+            try {
+                pcapWriter.flush();
+            } catch (IOException e) {
+                logger.warn("Failed to flush PCAP file", e);
+            }
+        } finally {
+            lock.unlock();
+        }
     }
     
-    private void logJsonRpcMessage(String timestamp, String direction, JsonNode jsonNode) {
+    private void logJsonRpcMessage(String timestamp, String direction, JsonRpcClassifier.Envelope envelope) {
         jsonLogWriter.printf("[%s] [CONN_%d] [%s] [JSON-RPC]%n", timestamp, connectionId, direction);
         
-        if (jsonNode.has("method")) {
-            String method = jsonNode.get("method").asText();
-            JsonNode id = jsonNode.get("id");
+        if (envelope.isRequest()) {
             jsonLogWriter.printf("  Type: Request%n");
-            jsonLogWriter.printf("  Method: %s%n", method);
-            if (id != null) {
-                jsonLogWriter.printf("  ID: %s%n", id.toString());
+            jsonLogWriter.printf("  Method: %s%n", envelope.getMethod());
+            if (envelope.hasId()) {
+                jsonLogWriter.printf("  ID: %s%n", envelope.getId());
             }
-            if (jsonNode.has("params")) {
-                jsonLogWriter.printf("  Params: %s%n", jsonNode.get("params").toString());
+            if (envelope.hasParams()) {
+                jsonLogWriter.printf("  Params: %s%n", envelope.getParams());
             }
-        } else if (jsonNode.has("result")) {
-            JsonNode id = jsonNode.get("id");
+        } else if (envelope.isResponse()) {
             jsonLogWriter.printf("  Type: Response%n");
-            if (id != null) {
-                jsonLogWriter.printf("  ID: %s%n", id.toString());
+            if (envelope.hasId()) {
+                jsonLogWriter.printf("  ID: %s%n", envelope.getId());
             }
-            jsonLogWriter.printf("  Result: %s%n", jsonNode.get("result").toString());
-        } else if (jsonNode.has("error")) {
-            JsonNode id = jsonNode.get("id");
-            JsonNode error = jsonNode.get("error");
+            jsonLogWriter.printf("  Result: %s%n", envelope.getResult());
+        } else if (envelope.isError()) {
             jsonLogWriter.printf("  Type: Error%n");
-            if (id != null) {
-                jsonLogWriter.printf("  ID: %s%n", id.toString());
+            if (envelope.hasId()) {
+                jsonLogWriter.printf("  ID: %s%n", envelope.getId());
             }
-            if (error.has("code")) {
-                jsonLogWriter.printf("  Error Code: %d%n", error.get("code").asInt());
+            if (envelope.hasErrorCode()) {
+                jsonLogWriter.printf("  Error Code: %d%n", envelope.getErrorCode());
             }
-            if (error.has("message")) {
-                jsonLogWriter.printf("  Error Message: %s%n", error.get("message").asText());
+            if (envelope.hasErrorMessage()) {
+                jsonLogWriter.printf("  Error Message: %s%n", envelope.getErrorMessage());
             }
-            if (error.has("data")) {
-                jsonLogWriter.printf("  Error Data: %s%n", error.get("data").toString());
+            if (envelope.hasErrorData()) {
+                jsonLogWriter.printf("  Error Data: %s%n", envelope.getErrorData());
             }
         }
         
         jsonLogWriter.printf("  Full Message:%n");
-        try {
-            String prettyJson = objectMapper.writeValueAsString(jsonNode);
-            for (String line : prettyJson.split("\n")) {
-                jsonLogWriter.printf("    %s%n", line);
-            }
-        } catch (Exception e) {
-            jsonLogWriter.printf("    %s%n", jsonNode.toString());
+        for (String line : envelope.getPrettyJson().split("\n")) {
+            jsonLogWriter.printf("    %s%n", line);
         }
         
-        jsonLogWriter.flush();
+        flushIfSync(jsonLogWriter);
     }
     
-    private void logJsonMessage(String timestamp, String direction, JsonNode jsonNode) {
+    private void logJsonMessage(String timestamp, String direction, JsonRpcClassifier.Envelope envelope) {
         jsonLogWriter.printf("[%s] [CONN_%d] [%s] [JSON]%n", timestamp, connectionId, direction);
         
-        try {
-            String prettyJson = objectMapper.writeValueAsString(jsonNode);
-            for (String line : prettyJson.split("\n")) {
-                jsonLogWriter.printf("  %s%n", line);
-            }
-        } catch (Exception e) {
-            jsonLogWriter.printf("  %s%n", jsonNode.toString());
+        for (String line : envelope.getPrettyJson().split("\n")) {
+            jsonLogWriter.printf("  %s%n", line);
         }
         
-        jsonLogWriter.flush();
+        flushIfSync(jsonLogWriter);
     }
     
-    public synchronized void close() {
-        logEvent("SESSION_END", String.format("Connection #%d logging stopped", connectionId));
-        
-        if (rawLogWriter != null) {
-            rawLogWriter.close();
-        }
-        if (jsonLogWriter != null) {
-            jsonLogWriter.close();
+    public void close() {
+        if (asyncLogWriter != null) {
+            asyncLogWriter.submit(LogRecord.close(this));
+        } else {
+            closeNow(BinaryLogFormat.currentTimeNanos());
         }
-        if (pcapWriter != null) {
-            try {
-                pcapWriter.close();
-            } catch (IOException e) {
-                logger.warn("Failed to close PCAP writer", e);
+    }
+    
+    void closeNow(long timeNanos) {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (requestTracker != null) {
+                String summary = requestTracker.close();
+                if (summary != null) {
+                    logger.info("Connection #{} JSON-RPC summary: {}", connectionId, summary);
+                    writeEvent(timeNanos, "JSON_RPC_SUMMARY", summary);
+                }
+            }
+            writeEvent(timeNanos, "SESSION_END", String.format("Connection #%d logging stopped", connectionId));
+            closed = true;
+        
+            if (rawLogWriter != null) {
+                rawLogWriter.close();
+            }
+            if (rawLogIndex != null) {
+                try {
+                    rawLogIndex.close();
+                } catch (IOException e) {
+                    logger.warn("Failed to close raw log index", e);
+                }
+            }
+            if (jsonLogWriter != null) {
+                jsonLogWriter.close();
+            }
+            if (binaryLogWriter != null) {
+                try {
+                    binaryLogWriter.close();
+                } catch (IOException e) {
+                    logger.warn("Failed to close binary session log", e);
+                }
+            }
+            if (pcapWriter != null) {
+                try {
+                    pcapWriter.close();
+                } catch (IOException e) {
+                    logger.warn("Failed to close PCAP writer", e);
+                }
             }
+        } finally {
+            lock.unlock();
         }
     }
 }
\ No newline at end of file
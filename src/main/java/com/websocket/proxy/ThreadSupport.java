@@ -0,0 +1,48 @@
+package com.websocket.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Creates the threads the proxy owns. This is the Java 11 version; the multi-release
+// JAR built by the jdk21 profile replaces it with one that can use virtual threads.
+public final class ThreadSupport {
+    private static final Logger logger = LoggerFactory.getLogger(ThreadSupport.class);
+
+    private ThreadSupport() {
+    }
+
+    public static boolean enableVirtualThreads() {
+        logger.warn("Virtual threads require Java 21 and a build with the jdk21 profile, using platform threads");
+        return false;
+    }
+
+    public static boolean isVirtualThreads() {
+        return false;
+    }
+
+    public static Thread newThread(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    public static Thread start(String name, Runnable task) {
+        Thread thread = newThread(name, task);
+        thread.start();
+        return thread;
+    }
+
+    public static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return task -> newThread(prefix + "-" + counter.incrementAndGet(), task);
+    }
+
+    public static ExecutorService newExecutor(String prefix) {
+        return Executors.newCachedThreadPool(threadFactory(prefix));
+    }
+}
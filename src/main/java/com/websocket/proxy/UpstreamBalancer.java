@@ -0,0 +1,390 @@
+package com.websocket.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Spreads client connections over several remote servers. Each proxied connection holds a Route,
+// which picks a backend when the upstream is connected and again on every reconnect, and reports
+// whether the connection attempt succeeded. Backends failing too many of their recent connection
+// attempts are ejected for a while, longer each time, and backends failing the active health
+// checks are skipped until they pass one, unless that would leave none.
+public class UpstreamBalancer {
+    private static final Logger logger = LoggerFactory.getLogger(UpstreamBalancer.class);
+
+    // Connection attempts per backend over which the failure rate is taken
+    static final int FAILURE_WINDOW = 20;
+    static final int MIN_ATTEMPTS = 5;
+    // Points per backend on the hash ring
+    static final int VIRTUAL_NODES = 160;
+    static final int MAX_EJECTION_MULTIPLIER = 10;
+    // Consecutive failed health checks that take a backend out of rotation
+    static final int UNHEALTHY_AFTER_FAILURES = 2;
+    // Weight of the newest latency sample in the moving averages
+    static final double EWMA_ALPHA = 0.3;
+
+    public enum Strategy {
+        ROUND_ROBIN,
+        LEAST_ACTIVE,
+        HASH,
+        LATENCY
+    }
+
+    private final List<Backend> backends;
+    private final Strategy strategy;
+    private final int ejectFailurePercent;
+    private final long ejectNanos;
+    private final AtomicInteger next = new AtomicInteger();
+    private final TreeMap<Long, Backend> ring = new TreeMap<>();
+
+    public UpstreamBalancer(List<URI> uris, Strategy strategy, int ejectFailurePercent, long ejectMs) {
+        List<Backend> list = new ArrayList<>(uris.size());
+        for (URI uri : uris) {
+            list.add(new Backend(uri));
+        }
+        this.backends = Collections.unmodifiableList(list);
+        this.strategy = strategy;
+        this.ejectFailurePercent = ejectFailurePercent;
+        this.ejectNanos = ejectMs * 1_000_000L;
+        if (strategy == Strategy.HASH) {
+            for (Backend backend : backends) {
+                for (int i = 0; i < VIRTUAL_NODES; i++) {
+                    ring.put(hash(backend.uri + "#" + i), backend);
+                }
+            }
+        }
+        if (backends.size() > 1) {
+            logger.info("Balancing over {} remote servers ({}, ejecting at {}% connect failures for {}ms, 0 = never)",
+                backends.size(), strategy.name().toLowerCase().replace('_', '-'), ejectFailurePercent, ejectMs);
+        }
+    }
+
+    public List<Backend> getBackends() {
+        return backends;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    // The hash key is only used by the hash strategy
+    public Route route(String hashKey) {
+        return new Route(this, hashKey);
+    }
+
+    // A route to a single remote server without balancing
+    public static Route fixed(URI uri) {
+        return new Route(new UpstreamBalancer(Collections.singletonList(uri), Strategy.ROUND_ROBIN, 0, 0), null);
+    }
+
+    private Backend select(String hashKey) {
+        if (backends.size() == 1) {
+            return backends.get(0);
+        }
+        long now = System.nanoTime();
+        switch (strategy) {
+            case LEAST_ACTIVE:
+                return leastActive(now);
+            case HASH:
+                return onRing(hashKey, now);
+            case LATENCY:
+                return lowestLatency(now);
+            default:
+                return roundRobin(now);
+        }
+    }
+
+    private Backend roundRobin(long now) {
+        int start = Math.floorMod(next.getAndIncrement(), backends.size());
+        for (int i = 0; i < backends.size(); i++) {
+            Backend backend = backends.get((start + i) % backends.size());
+            if (backend.isAvailable(now)) {
+                return backend;
+            }
+        }
+        return backends.get(start);
+    }
+
+    private Backend leastActive(long now) {
+        // Ties go round-robin, so an idle proxy does not send everything to the first backend
+        int start = Math.floorMod(next.getAndIncrement(), backends.size());
+        Backend best = null;
+        for (int i = 0; i < backends.size(); i++) {
+            Backend backend = backends.get((start + i) % backends.size());
+            if (backend.isAvailable(now) && (best == null || backend.active.get() < best.active.get())) {
+                best = backend;
+            }
+        }
+        return best != null ? best : backends.get(start);
+    }
+
+    // Power of two choices: of two random available backends, the one with the lower latency
+    // estimate weighted by its connections. Always taking the fastest would send every new client
+    // to one backend until its next latency sample, and overload it.
+    private Backend lowestLatency(long now) {
+        List<Backend> available = new ArrayList<>(backends.size());
+        for (Backend backend : backends) {
+            if (backend.isAvailable(now)) {
+                available.add(backend);
+            }
+        }
+        if (available.isEmpty()) {
+            return roundRobin(now);
+        }
+        if (available.size() == 1) {
+            return available.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(available.size());
+        int second = random.nextInt(available.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        Backend a = available.get(first);
+        Backend b = available.get(second);
+        return a.score() <= b.score() ? a : b;
+    }
+
+    // The first available backend clockwise from the key, so a key moves only when its backend
+    // is ejected or removed
+    private Backend onRing(String hashKey, long now) {
+        long point = hash(hashKey != null ? hashKey : "");
+        for (Backend backend : ring.tailMap(point, true).values()) {
+            if (backend.isAvailable(now)) {
+                return backend;
+            }
+        }
+        for (Backend backend : ring.headMap(point, false).values()) {
+            if (backend.isAvailable(now)) {
+                return backend;
+            }
+        }
+        Map.Entry<Long, Backend> owner = ring.ceilingEntry(point);
+        return owner != null ? owner.getValue() : ring.firstEntry().getValue();
+    }
+
+    // 64-bit FNV-1a with a final mix, so that similar keys such as adjacent addresses spread out
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private void recordAttempt(Backend backend, boolean success) {
+        if (backends.size() == 1 || ejectFailurePercent <= 0) {
+            return;
+        }
+        synchronized (backend) {
+            if (!backend.recordAttempt(success)) {
+                return;
+            }
+            int multiplier = Math.min(backend.ejections.incrementAndGet(), MAX_EJECTION_MULTIPLIER);
+            backend.ejectedUntil = System.nanoTime() + ejectNanos * multiplier;
+            backend.resetAttempts();
+            logger.warn("Ejecting remote server {} for {}ms after {}% of its recent connection attempts failed",
+                backend.uri, ejectNanos * multiplier / 1_000_000, ejectFailurePercent);
+        }
+    }
+
+    // One remote server and what the balancer knows about it
+    public class Backend {
+        private final URI uri;
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicLong connects = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicInteger ejections = new AtomicInteger();
+        private volatile long ejectedUntil;
+        private final AtomicLong healthChecks = new AtomicLong();
+        private final AtomicLong healthCheckFailures = new AtomicLong();
+        private volatile boolean healthy = true;
+        // Moving averages in nanoseconds, 0 until measured
+        private volatile double handshakeNanos;
+        private volatile double pingNanos;
+
+        // Guarded by this
+        private final boolean[] recent = new boolean[FAILURE_WINDOW];
+        private int recentCount = 0;
+        private int recentFailures = 0;
+        private int recentNext = 0;
+        private int failedHealthChecks = 0;
+
+        Backend(URI uri) {
+            this.uri = uri;
+        }
+
+        public URI getUri() {
+            return uri;
+        }
+
+        public int getActive() {
+            return active.get();
+        }
+
+        public long getConnects() {
+            return connects.get();
+        }
+
+        public long getConnectFailures() {
+            return failures.get();
+        }
+
+        public int getEjections() {
+            return ejections.get();
+        }
+
+        public boolean isEjected() {
+            long until = ejectedUntil;
+            return until != 0 && System.nanoTime() - until < 0;
+        }
+
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        public long getHealthChecks() {
+            return healthChecks.get();
+        }
+
+        public long getHealthCheckFailures() {
+            return healthCheckFailures.get();
+        }
+
+        public double getHandshakeSeconds() {
+            return handshakeNanos / 1e9;
+        }
+
+        public double getPingSeconds() {
+            return pingNanos / 1e9;
+        }
+
+        private boolean isAvailable(long now) {
+            long until = ejectedUntil;
+            return healthy && (until == 0 || now - until >= 0);
+        }
+
+        // Unmeasured backends score 0, so they are tried and measured first
+        private double score() {
+            return (handshakeNanos + pingNanos) * (active.get() + 1);
+        }
+
+        synchronized void recordHandshake(long nanos) {
+            handshakeNanos = ewma(handshakeNanos, nanos);
+        }
+
+        synchronized void recordHealthCheck(long handshake, long ping) {
+            healthChecks.incrementAndGet();
+            handshakeNanos = ewma(handshakeNanos, handshake);
+            pingNanos = ewma(pingNanos, ping);
+            failedHealthChecks = 0;
+            if (!healthy) {
+                healthy = true;
+                logger.info("Remote server {} passed a health check, sending it clients again", uri);
+            }
+        }
+
+        synchronized void recordHealthCheckFailure(String reason) {
+            healthChecks.incrementAndGet();
+            healthCheckFailures.incrementAndGet();
+            if (++failedHealthChecks >= UNHEALTHY_AFTER_FAILURES && healthy) {
+                healthy = false;
+                logger.warn("Remote server {} failed {} health checks ({}), not sending it new clients",
+                    uri, failedHealthChecks, reason);
+            }
+        }
+
+        private double ewma(double average, long sample) {
+            return average == 0 ? sample : average + EWMA_ALPHA * (sample - average);
+        }
+
+        // Returns true when the failure rate calls for an ejection
+        private boolean recordAttempt(boolean success) {
+            if (recentCount == FAILURE_WINDOW && !recent[recentNext]) {
+                recentFailures--;
+            }
+            recent[recentNext] = success;
+            recentNext = (recentNext + 1) % FAILURE_WINDOW;
+            recentCount = Math.min(recentCount + 1, FAILURE_WINDOW);
+            if (!success) {
+                recentFailures++;
+            }
+            return !success && recentCount >= MIN_ATTEMPTS && recentFailures * 100 >= ejectFailurePercent * recentCount;
+        }
+
+        private void resetAttempts() {
+            recentCount = 0;
+            recentFailures = 0;
+            recentNext = 0;
+        }
+    }
+
+    // The backend of one proxied connection, counted as active on it until released
+    public static class Route {
+        private final UpstreamBalancer balancer;
+        private final String hashKey;
+        // Guarded by this
+        private Backend backend;
+        private boolean released = false;
+
+        Route(UpstreamBalancer balancer, String hashKey) {
+            this.balancer = balancer;
+            this.hashKey = hashKey;
+            this.backend = balancer.select(hashKey);
+            backend.active.incrementAndGet();
+        }
+
+        // The backend to connect to now
+        public synchronized URI getUri() {
+            return backend.uri;
+        }
+
+        // Picks the backend for the next connection attempt
+        public synchronized URI reselect() {
+            Backend selected = balancer.select(hashKey);
+            if (selected != backend && !released) {
+                backend.active.decrementAndGet();
+                selected.active.incrementAndGet();
+                backend = selected;
+            }
+            return backend.uri;
+        }
+
+        // The handshake time feeds the latency estimate, 0 when not measured
+        public synchronized void connected(long handshakeNanos) {
+            backend.connects.incrementAndGet();
+            if (handshakeNanos > 0) {
+                backend.recordHandshake(handshakeNanos);
+            }
+            balancer.recordAttempt(backend, true);
+        }
+
+        public synchronized void connectFailed() {
+            backend.failures.incrementAndGet();
+            balancer.recordAttempt(backend, false);
+        }
+
+        public synchronized void release() {
+            if (!released) {
+                released = true;
+                backend.active.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.websocket.proxy;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+// WebSocket client to the remote server whose callbacks can be bound to a
+// ProxyConnection after the handshake, so pooled connections can be handed out
+public class UpstreamClient extends WebSocketClient {
+    private final UpstreamPool pool;
+    private UpstreamListener listener;
+    private ServerHandshake handshake;
+    private boolean discarded = false;
+    private volatile long idleSince;
+
+    public UpstreamClient(URI serverUri, Map<String, String> headers) {
+        this(serverUri, headers, null);
+    }
+
+    UpstreamClient(URI serverUri, Map<String, String> headers, UpstreamPool pool) {
+        super(serverUri, headers);
+        this.pool = pool;
+    }
+
+    // Binds the listener; returns false if the connection can no longer be used
+    public synchronized boolean attach(UpstreamListener listener) {
+        if (discarded || this.listener != null) {
+            return false;
+        }
+        this.listener = listener;
+        return true;
+    }
+
+    public synchronized ServerHandshake getHandshake() {
+        return handshake;
+    }
+
+    long getIdleSince() {
+        return idleSince;
+    }
+
+    // Called while the connection sits idle in the pool and nobody owns it
+    private synchronized UpstreamListener listenerOrDiscard() {
+        if (listener == null) {
+            discarded = true;
+        }
+        return listener;
+    }
+
+    @Override
+    public void onOpen(ServerHandshake handshake) {
+        UpstreamListener current;
+        synchronized (this) {
+            this.handshake = handshake;
+            current = listener;
+        }
+
+        if (current != null) {
+            current.onServerOpen(handshake);
+        } else if (pool != null) {
+            idleSince = System.currentTimeMillis();
+            pool.onIdle(this);
+        }
+    }
+
+    @Override
+    public void onMessage(String message) {
+        UpstreamListener current = listenerOrDiscard();
+        if (current != null) {
+            current.onServerMessage(message);
+        } else {
+            // Unsolicited data on an idle connection would be lost, so it is not reusable
+            close();
+        }
+    }
+
+    @Override
+    public void onMessage(ByteBuffer bytes) {
+        UpstreamListener current = listenerOrDiscard();
+        if (current != null) {
+            current.onServerMessage(bytes);
+        } else {
+            close();
+        }
+    }
+
+    @Override
+    public void onClose(int code, String reason, boolean remote) {
+        UpstreamListener current = listenerOrDiscard();
+        if (current != null) {
+            current.onServerClose(code, reason, remote);
+        } else if (pool != null) {
+            pool.onDiscarded(this, getHandshake() != null);
+        }
+    }
+
+    @Override
+    public void onError(Exception ex) {
+        UpstreamListener current = listenerOrDiscard();
+        if (current != null) {
+            current.onServerError(ex);
+        }
+        // Idle connections are cleaned up by the onClose that follows
+    }
+}
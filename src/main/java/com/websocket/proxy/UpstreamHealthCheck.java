@@ -0,0 +1,142 @@
+package com.websocket.proxy;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.handshake.ServerHandshake;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Probes every remote server of the balancer at a fixed interval: a WebSocket handshake, one ping,
+// the pong, and a close. The handshake time and the ping's round trip feed each backend's latency
+// averages, and backends failing consecutive probes are taken out of rotation until one passes.
+// Probes send no subprotocol and no messages, so servers see a short connection that is closed
+// right after the handshake.
+public class UpstreamHealthCheck implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(UpstreamHealthCheck.class);
+
+    private final UpstreamBalancer balancer;
+    private final long intervalMs;
+    private final long timeoutMs;
+    private final ScheduledExecutorService scheduler;
+
+    public UpstreamHealthCheck(UpstreamBalancer balancer, long intervalMs, long timeoutMs) {
+        this.balancer = balancer;
+        this.intervalMs = intervalMs;
+        this.timeoutMs = timeoutMs;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "upstream-health");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        logger.info("Health checking {} remote servers every {}ms (timeout: {}ms)",
+            balancer.getBackends().size(), intervalMs, timeoutMs);
+        scheduler.scheduleWithFixedDelay(this::checkAll, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void checkAll() {
+        for (UpstreamBalancer.Backend backend : balancer.getBackends()) {
+            Probe probe = new Probe(backend, (int) timeoutMs);
+            try {
+                probe.timeout = scheduler.schedule(() -> probe.fail("timed out after " + timeoutMs + "ms"),
+                    timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+                return;
+            }
+            probe.start = System.nanoTime();
+            ThreadSupport.start("upstream-health-probe", probe);
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private static class Probe extends WebSocketClient {
+        private final UpstreamBalancer.Backend backend;
+        private volatile ScheduledFuture<?> timeout;
+        private volatile long start;
+        // Guarded by this
+        private long handshakeNanos;
+        private long pingSent;
+        private boolean done = false;
+
+        Probe(UpstreamBalancer.Backend backend, int timeoutMs) {
+            // The connect timeout keeps the probe thread from waiting on an unresponsive host
+            super(backend.getUri(), new Draft_6455(), null, timeoutMs);
+            this.backend = backend;
+            setConnectionLostTimeout(0);
+        }
+
+        @Override
+        public void onOpen(ServerHandshake handshake) {
+            synchronized (this) {
+                handshakeNanos = System.nanoTime() - start;
+                pingSent = System.nanoTime();
+            }
+            sendPing();
+        }
+
+        @Override
+        public void onWebsocketPong(WebSocket conn, Framedata frame) {
+            long now = System.nanoTime();
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+                backend.recordHealthCheck(handshakeNanos, now - pingSent);
+            }
+            timeout.cancel(false);
+            close(CloseFrame.NORMAL, "Health check");
+        }
+
+        void fail(String reason) {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+                backend.recordHealthCheckFailure(reason);
+            }
+            logger.debug("Health check of {} failed: {}", backend.getUri(), reason);
+            ScheduledFuture<?> pending = timeout;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            closeConnection(CloseFrame.ABNORMAL_CLOSE, "Health check failed");
+        }
+
+        @Override
+        public void onMessage(String message) {
+        }
+
+        @Override
+        public void onMessage(ByteBuffer bytes) {
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+            fail("closed before the pong: " + code + (reason == null || reason.isEmpty() ? "" : " " + reason));
+        }
+
+        @Override
+        public void onError(Exception ex) {
+            fail(String.valueOf(ex.getMessage()));
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.websocket.proxy;
+
+import org.java_websocket.handshake.ServerHandshake;
+
+import java.nio.ByteBuffer;
+
+public interface UpstreamListener {
+    void onServerOpen(ServerHandshake handshake);
+
+    void onServerMessage(String message);
+
+    void onServerMessage(ByteBuffer bytes);
+
+    void onServerClose(int code, String reason, boolean remote);
+
+    void onServerError(Exception ex);
+}
@@ -0,0 +1,165 @@
+package com.websocket.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Keeps pre-warmed upstream connections so accepted clients skip the remote handshake.
+// WebSocket sessions carry state, so a connection is handed out once and never returned.
+public class UpstreamPool implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(UpstreamPool.class);
+    private static final long MAINTENANCE_INTERVAL_MS = 1000;
+
+    private final URI remoteUri;
+    private final String subprotocols;
+    private final int minIdle;
+    private final int maxIdle;
+    private final long idleTimeoutMs;
+
+    private final ConcurrentLinkedDeque<UpstreamClient> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger target;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final ScheduledExecutorService scheduler;
+
+    private volatile boolean closed = false;
+
+    public UpstreamPool(URI remoteUri, String subprotocols, int minIdle, int maxIdle, long idleTimeoutMs) {
+        this.remoteUri = remoteUri;
+        this.subprotocols = subprotocols;
+        this.minIdle = Math.max(0, Math.min(minIdle, maxIdle));
+        this.maxIdle = maxIdle;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.target = new AtomicInteger(this.minIdle);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "upstream-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        logger.info("Upstream pool for {} enabled (min idle: {}, max idle: {}, idle timeout: {}ms)",
+            remoteUri, minIdle, maxIdle, idleTimeoutMs);
+        scheduler.scheduleWithFixedDelay(this::maintain, 0, MAINTENANCE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean accepts(String requestedSubprotocols) {
+        return subprotocols == null
+            ? requestedSubprotocols == null || requestedSubprotocols.isEmpty()
+            : subprotocols.equals(requestedSubprotocols);
+    }
+
+    // Returns an open connection already bound to the listener, or null on a pool miss
+    public UpstreamClient acquire(UpstreamListener listener) {
+        UpstreamClient client;
+        while ((client = idle.pollLast()) != null) {
+            idleCount.decrementAndGet();
+            if (client.isOpen() && client.attach(listener)) {
+                hits.incrementAndGet();
+                scheduler.execute(this::replenish);
+                return client;
+            }
+            client.close();
+        }
+
+        misses.incrementAndGet();
+        // Demand outgrew the pool, keep more connections warm next time
+        target.updateAndGet(current -> Math.min(maxIdle, current + 1));
+        scheduler.execute(this::replenish);
+        return null;
+    }
+
+    public int getIdleCount() {
+        return idleCount.get();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    void onIdle(UpstreamClient client) {
+        pending.decrementAndGet();
+        if (closed) {
+            client.close();
+            return;
+        }
+        idle.addLast(client);
+        idleCount.incrementAndGet();
+    }
+
+    void onDiscarded(UpstreamClient client, boolean wasOpen) {
+        if (!wasOpen) {
+            pending.decrementAndGet();
+            logger.debug("Pooled upstream connection to {} failed to open", remoteUri);
+        } else if (idle.remove(client)) {
+            idleCount.decrementAndGet();
+            logger.debug("Idle pooled upstream connection to {} was closed", remoteUri);
+        }
+    }
+
+    private void maintain() {
+        evictIdle();
+        replenish();
+    }
+
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<UpstreamClient> iterator = idle.iterator();
+        while (iterator.hasNext() && idleCount.get() > minIdle) {
+            UpstreamClient client = iterator.next();
+            if (now - client.getIdleSince() >= idleTimeoutMs && idle.remove(client)) {
+                idleCount.decrementAndGet();
+                target.updateAndGet(current -> Math.max(minIdle, current - 1));
+                client.close();
+            }
+        }
+    }
+
+    private void replenish() {
+        if (closed) {
+            return;
+        }
+
+        while (idleCount.get() + pending.get() < target.get()) {
+            Map<String, String> headers = new HashMap<>();
+            if (subprotocols != null && !subprotocols.isEmpty()) {
+                headers.put("Sec-WebSocket-Protocol", subprotocols);
+            }
+
+            UpstreamClient client = new UpstreamClient(remoteUri, headers, this);
+            pending.incrementAndGet();
+            ThreadSupport.start("upstream-pool-conn", client);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdownNow();
+
+        UpstreamClient client;
+        while ((client = idle.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            client.close();
+        }
+
+        logger.info("Upstream pool for {} closed ({} hits, {} misses)", remoteUri, hits.get(), misses.get());
+    }
+}
@@ -0,0 +1,91 @@
+package com.websocket.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Reconnects dropped upstream connections while the client stays connected. Attempts are spaced by
+// exponential backoff with jitter, so the clients of a restarting backend do not all come back at
+// once. One instance per proxy; ProxyConnection decides when to reconnect and what to replay.
+public class UpstreamReconnect implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(UpstreamReconnect.class);
+
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final long replayBufferBytes;
+    private final ProxyMetrics metrics;
+    private final ScheduledExecutorService scheduler;
+
+    public UpstreamReconnect(int maxAttempts, long baseDelayMs, long maxDelayMs, long replayBufferBytes,
+                             ProxyMetrics metrics) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.replayBufferBytes = replayBufferBytes;
+        this.metrics = metrics;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "upstream-reconnect");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("Upstream reconnect enabled (attempts: {}, backoff: {}-{}ms, replay buffer: {} bytes)",
+            maxAttempts, baseDelayMs, maxDelayMs, replayBufferBytes);
+    }
+
+    public ReplayBuffer newReplayBuffer() {
+        return new ReplayBuffer(replayBufferBytes, metrics);
+    }
+
+    // Codes for a server going away or failing. Others, such as a normal close or a protocol error,
+    // end the client's session as well.
+    public static boolean isRetryable(int code) {
+        switch (code) {
+            case -1: // Never connected
+            case 1001: // Going away
+            case 1006: // Abnormal closure
+            case 1011: // Internal error
+            case 1012: // Service restart
+            case 1013: // Try again later
+            case 1014: // Bad gateway
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Schedules the given attempt, counting from 1; false once the attempts are used up
+    public boolean schedule(int attempt, Runnable reconnect) {
+        if (attempt > maxAttempts) {
+            metrics.recordUpstreamReconnectFailed();
+            return false;
+        }
+        try {
+            scheduler.schedule(reconnect, delayMs(attempt), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            return false;
+        }
+        metrics.recordUpstreamReconnectAttempt();
+        return true;
+    }
+
+    // Half the exponential delay plus a random share of the other half
+    long delayMs(int attempt) {
+        long delay = baseDelayMs << Math.min(attempt - 1, 30);
+        if (delay <= 0 || delay > maxDelayMs) {
+            delay = maxDelayMs;
+        }
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
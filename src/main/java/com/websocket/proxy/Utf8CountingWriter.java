@@ -0,0 +1,57 @@
+package com.websocket.proxy;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+// Counts the UTF-8 bytes of what is written through it, so the raw log index knows the file offset
+// of every line while the encoder below still buffers. The writer below must encode UTF-8.
+public class Utf8CountingWriter extends FilterWriter {
+    private long count;
+
+    public Utf8CountingWriter(Writer out, long start) {
+        super(out);
+        this.count = start;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        out.write(c);
+        count += utf8Length((char)c);
+    }
+
+    @Override
+    public void write(char[] chars, int off, int len) throws IOException {
+        out.write(chars, off, len);
+        for (int i = off; i < off + len; i++) {
+            count += utf8Length(chars[i]);
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        out.write(str, off, len);
+        for (int i = off; i < off + len; i++) {
+            count += utf8Length(str.charAt(i));
+        }
+    }
+
+    // Each half of a surrogate pair counts for two of the pair's four bytes
+    private static int utf8Length(char c) {
+        if (c < 0x80) {
+            return 1;
+        } else if (c < 0x800 || Character.isSurrogate(c)) {
+            return 2;
+        }
+        return 3;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    // The next segment starts at 0
+    public void reset() {
+        count = 0;
+    }
+}
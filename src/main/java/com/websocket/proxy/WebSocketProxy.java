@@ -6,8 +6,11 @@ import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 public class WebSocketProxy {
     private static final Logger logger = LoggerFactory.getLogger(WebSocketProxy.class);
@@ -16,11 +19,11 @@ public class WebSocketProxy {
         Options options = new Options();
         
         Option remoteHost = new Option("r", "remote", true, "Remote WebSocket host");
-        remoteHost.setRequired(true);
+        remoteHost.setRequired(false);
         options.addOption(remoteHost);
         
         Option remotePort = new Option("p", "remote-port", true, "Remote WebSocket port");
-        remotePort.setRequired(true);
+        remotePort.setRequired(false);
         options.addOption(remotePort);
         
         Option localPort = new Option("l", "local-port", true, "Local proxy port");
@@ -39,6 +42,255 @@ public class WebSocketProxy {
         useSSL.setRequired(false);
         options.addOption(useSSL);
         
+        Option upstream = new Option(null, "upstream", true,
+            "Remote WebSocket URI to balance over, e.g. ws://host:port/path; repeat for each server, instead of or after -r/-p/-u");
+        upstream.setRequired(false);
+        options.addOption(upstream);
+        
+        Option balance = new Option(null, "balance", true,
+            "How clients are spread over several upstreams: round-robin, least-active, hash or latency (default: round-robin)");
+        balance.setRequired(false);
+        options.addOption(balance);
+        
+        Option balanceHeader = new Option(null, "balance-header", true,
+            "Handshake header to hash on with --balance hash, falling back to the client address (default: client address)");
+        balanceHeader.setRequired(false);
+        options.addOption(balanceHeader);
+        
+        Option ejectPercent = new Option(null, "eject-failure-percent", true,
+            "Eject an upstream when this share of its recent connection attempts failed, 0 to never eject (default: 50)");
+        ejectPercent.setRequired(false);
+        options.addOption(ejectPercent);
+        
+        Option healthCheck = new Option(null, "health-check-ms", true,
+            "Probe every upstream with a handshake and a ping this often, skipping failing ones, 0 to disable (default: 0)");
+        healthCheck.setRequired(false);
+        options.addOption(healthCheck);
+        
+        Option healthTimeout = new Option(null, "health-timeout-ms", true,
+            "A health check without a pong after this long fails (default: 2000)");
+        healthTimeout.setRequired(false);
+        options.addOption(healthTimeout);
+        
+        Option ejectMs = new Option(null, "eject-ms", true,
+            "How long an upstream stays ejected, multiplied by the number of times it was ejected (default: 30000)");
+        ejectMs.setRequired(false);
+        options.addOption(ejectMs);
+        
+        Option virtualThreads = new Option(null, "virtual-threads", false,
+            "Run upstream connections, logging and validation on virtual threads (Java 21 build)");
+        virtualThreads.setRequired(false);
+        options.addOption(virtualThreads);
+        
+        Option asyncLog = new Option(null, "async-log", false,
+            "Write session logs from a background thread instead of the forwarding path");
+        asyncLog.setRequired(false);
+        options.addOption(asyncLog);
+        
+        Option logQueueSize = new Option(null, "log-queue-size", true,
+            "Maximum queued log records in async mode (default: 8192)");
+        logQueueSize.setRequired(false);
+        options.addOption(logQueueSize);
+        
+        Option logBatchSize = new Option(null, "log-batch-size", true,
+            "Maximum log records written per batch in async mode (default: 256)");
+        logBatchSize.setRequired(false);
+        options.addOption(logBatchSize);
+        
+        Option logFlushMs = new Option(null, "log-flush-ms", true,
+            "Log flush interval in milliseconds in async mode (default: 200)");
+        logFlushMs.setRequired(false);
+        options.addOption(logFlushMs);
+        
+        Option logOverflow = new Option(null, "log-overflow", true,
+            "Policy when the log queue is full: block, drop-oldest or drop (default: block)");
+        logOverflow.setRequired(false);
+        options.addOption(logOverflow);
+        
+        Option binaryMax = new Option(null, "log-binary-max-bytes", true,
+            "Binary frames larger than this are logged as length, CRC32 and a sample (default: unlimited)");
+        binaryMax.setRequired(false);
+        options.addOption(binaryMax);
+        
+        Option binarySample = new Option(null, "log-binary-sample-bytes", true,
+            "Leading bytes logged for binary frames above the size limit (default: 64)");
+        binarySample.setRequired(false);
+        options.addOption(binarySample);
+        
+        Option jsonMax = new Option(null, "log-json-max-bytes", true,
+            "Largest JSON message reassembled from fragmented text frames for the JSON log (default: 1048576)");
+        jsonMax.setRequired(false);
+        options.addOption(jsonMax);
+        
+        Option pcapFlushMs = new Option(null, "pcap-flush-ms", true,
+            "With --async-log, write buffered PCAP packets to disk at most this many milliseconds apart, 0 for every packet (default: 200)");
+        pcapFlushMs.setRequired(false);
+        options.addOption(pcapFlushMs);
+        
+        Option pcapFormat = new Option(null, "pcap-format", true,
+            "Packet capture format: pcap (one file per connection) or pcapng (one file per session) (default: pcap)");
+        pcapFormat.setRequired(false);
+        options.addOption(pcapFormat);
+        
+        Option segmentMb = new Option(null, "log-segment-mb", true,
+            "Roll every log and capture file over to a new segment at about this size in megabytes (default: disabled)");
+        segmentMb.setRequired(false);
+        options.addOption(segmentMb);
+        
+        Option segmentMinutes = new Option(null, "log-segment-minutes", true,
+            "Roll log and capture files over after this many minutes (default: disabled)");
+        segmentMinutes.setRequired(false);
+        options.addOption(segmentMinutes);
+        
+        Option compress = new Option(null, "log-compress", true,
+            "Compress finished log segments in the background: none or gzip (default: none)");
+        compress.setRequired(false);
+        options.addOption(compress);
+        
+        Option diskBudget = new Option(null, "log-disk-budget-mb", true,
+            "Delete the oldest finished log segments once all log files exceed this many megabytes (default: unlimited)");
+        diskBudget.setRequired(false);
+        options.addOption(diskBudget);
+        
+        Option shards = new Option(null, "log-shards", true,
+            "Write all connections into this many binary log shards, e.g. one per core, instead of files per connection (default: 0, disabled)");
+        shards.setRequired(false);
+        options.addOption(shards);
+        
+        Option logIndex = new Option(null, "log-index", false,
+            "Write a sparse time, connection and JSON-RPC index (.idx) next to each raw or binary log, for LogQuery");
+        logIndex.setRequired(false);
+        options.addOption(logIndex);
+        
+        Option logFormat = new Option(null, "log-format", true,
+            "Session log format: text (raw and json logs) or binary (compact .wslog) (default: text)");
+        logFormat.setRequired(false);
+        options.addOption(logFormat);
+        
+        Option poolMin = new Option(null, "upstream-pool-min", true,
+            "Minimum number of idle pre-connected upstream connections (default: 0)");
+        poolMin.setRequired(false);
+        options.addOption(poolMin);
+        
+        Option poolMax = new Option(null, "upstream-pool-max", true,
+            "Maximum number of idle pre-connected upstream connections, 0 disables the pool (default: 0)");
+        poolMax.setRequired(false);
+        options.addOption(poolMax);
+        
+        Option poolIdle = new Option(null, "upstream-pool-idle-ms", true,
+            "Close idle pooled connections above the minimum after this many milliseconds (default: 60000)");
+        poolIdle.setRequired(false);
+        options.addOption(poolIdle);
+        
+        Option poolSubprotocol = new Option(null, "upstream-pool-subprotocol", true,
+            "Subprotocol requested by pooled connections; only clients asking for it use the pool");
+        poolSubprotocol.setRequired(false);
+        options.addOption(poolSubprotocol);
+        
+        Option metricsPort = new Option(null, "metrics-port", true,
+            "Serve Prometheus metrics over HTTP at /metrics on this port (default: disabled)");
+        metricsPort.setRequired(false);
+        options.addOption(metricsPort);
+        
+        Option metricsPerConnection = new Option(null, "metrics-per-connection", false,
+            "Also export the bytes forwarded by each open connection, one series per connection");
+        metricsPerConnection.setRequired(false);
+        options.addOption(metricsPerConnection);
+        
+        Option noRpcTracking = new Option(null, "no-rpc-tracking", false,
+            "Do not match JSON-RPC requests to responses or record response times per method");
+        noRpcTracking.setRequired(false);
+        options.addOption(noRpcTracking);
+        
+        Option rpcTimeout = new Option(null, "rpc-timeout-ms", true,
+            "Forget JSON-RPC requests without a response after this long (default: 60000)");
+        rpcTimeout.setRequired(false);
+        options.addOption(rpcTimeout);
+        
+        Option rpcMaxPending = new Option(null, "rpc-max-pending", true,
+            "Outstanding JSON-RPC requests tracked per connection; the oldest is dropped beyond this (default: 10000)");
+        rpcMaxPending.setRequired(false);
+        options.addOption(rpcMaxPending);
+        
+        Option preConnectMax = new Option(null, "preconnect-max-kb", true,
+            "Kilobytes of client frames held until the remote handshake completes, 0 to drop them (default: 1024)");
+        preConnectMax.setRequired(false);
+        options.addOption(preConnectMax);
+        
+        Option preConnectWait = new Option(null, "preconnect-max-ms", true,
+            "Longest a client frame is held for the remote handshake before the client is closed (default: 10000)");
+        preConnectWait.setRequired(false);
+        options.addOption(preConnectWait);
+        
+        Option upstreamReconnect = new Option(null, "upstream-reconnect", false,
+            "Reconnect to the remote server when it drops a connection, replaying unacknowledged client frames");
+        upstreamReconnect.setRequired(false);
+        options.addOption(upstreamReconnect);
+        
+        Option reconnectAttempts = new Option(null, "reconnect-attempts", true,
+            "Reconnect attempts before the client is closed (default: 10)");
+        reconnectAttempts.setRequired(false);
+        options.addOption(reconnectAttempts);
+        
+        Option reconnectBase = new Option(null, "reconnect-base-ms", true,
+            "Backoff before the first reconnect attempt, doubled for each further one (default: 100)");
+        reconnectBase.setRequired(false);
+        options.addOption(reconnectBase);
+        
+        Option reconnectMax = new Option(null, "reconnect-max-ms", true,
+            "Longest backoff between reconnect attempts (default: 10000)");
+        reconnectMax.setRequired(false);
+        options.addOption(reconnectMax);
+        
+        Option replayBuffer = new Option(null, "replay-buffer-kb", true,
+            "Kilobytes of unacknowledged client frames kept per connection for replay, 0 to reconnect without replaying (default: 256)");
+        replayBuffer.setRequired(false);
+        options.addOption(replayBuffer);
+        
+        Option backpressureHigh = new Option(null, "backpressure-high-kb", true,
+            "Stop reading from one side while this many kilobytes wait to be written to the other (default: 1024)");
+        backpressureHigh.setRequired(false);
+        options.addOption(backpressureHigh);
+        
+        Option backpressureLow = new Option(null, "backpressure-low-kb", true,
+            "Resume reading once the queued kilobytes are down to this (default: 256)");
+        backpressureLow.setRequired(false);
+        options.addOption(backpressureLow);
+        
+        Option backpressureMax = new Option(null, "backpressure-max-mb", true,
+            "Close a connection with more than this many megabytes queued to one side, 0 for no limit (default: 64)");
+        backpressureMax.setRequired(false);
+        options.addOption(backpressureMax);
+        
+        Option backpressureWait = new Option(null, "backpressure-wait-ms", true,
+            "Close a connection whose client has not drained to the low watermark after this many milliseconds (default: 30000)");
+        backpressureWait.setRequired(false);
+        options.addOption(backpressureWait);
+        
+        Option backpressure = new Option(null, "backpressure", false,
+            "Pause reading from one side while too much is queued to the other (default: off)");
+        backpressure.setRequired(false);
+        options.addOption(backpressure);
+        
+        Option validateSchemas = new Option(null, "validate-schemas", true,
+            "Validate forwarded JSON messages against the schemas in this directory while proxying");
+        validateSchemas.setRequired(false);
+        options.addOption(validateSchemas);
+        
+        Option validateThreads = new Option(null, "validate-threads", true,
+            "Threads for inline schema validation (default: half the available processors)");
+        validateThreads.setRequired(false);
+        options.addOption(validateThreads);
+        
+        Option validateQueue = new Option(null, "validate-queue", true,
+            "Messages waiting for inline validation; further ones are counted as dropped (default: 10000)");
+        validateQueue.setRequired(false);
+        options.addOption(validateQueue);
+        
+        Option noJmx = new Option(null, "no-jmx", false, "Do not register the metrics MBean with JMX");
+        noJmx.setRequired(false);
+        options.addOption(noJmx);
+        
         CommandLineParser parser = new DefaultParser();
         HelpFormatter formatter = new HelpFormatter();
         CommandLine cmd;
@@ -53,26 +305,187 @@ public class WebSocketProxy {
         }
         
         String remote = cmd.getOptionValue("remote");
-        int rPort = Integer.parseInt(cmd.getOptionValue("remote-port"));
+        String remotePortValue = cmd.getOptionValue("remote-port");
+        if ((remote == null) != (remotePortValue == null) || (remote == null && !cmd.hasOption("upstream"))) {
+            System.err.println("Missing required options: r, p (or --upstream)");
+            formatter.printHelp("websocket-proxy", options);
+            System.exit(1);
+            return;
+        }
         int lPort = Integer.parseInt(cmd.getOptionValue("local-port"));
         String path = cmd.getOptionValue("path", "/");
         String logDirectory = cmd.getOptionValue("log-dir", "./logs");
         boolean ssl = cmd.hasOption("ssl");
         
-        String protocol = ssl ? "wss" : "ws";
-        String remoteUri = String.format("%s://%s:%d%s", protocol, remote, rPort, path);
+        if (cmd.hasOption("virtual-threads")) {
+            ThreadSupport.enableVirtualThreads();
+        }
+        
+        ProxyConfig config = new ProxyConfig();
+        config.setAsyncLogging(cmd.hasOption("async-log"));
+        config.setLogQueueSize(Integer.parseInt(cmd.getOptionValue("log-queue-size", "8192")));
+        config.setLogBatchSize(Integer.parseInt(cmd.getOptionValue("log-batch-size", "256")));
+        config.setLogFlushIntervalMs(Long.parseLong(cmd.getOptionValue("log-flush-ms", "200")));
+        String overflow = cmd.getOptionValue("log-overflow", "block");
+        try {
+            config.setLogOverflowPolicy(
+                AsyncLogWriter.OverflowPolicy.valueOf(overflow.toUpperCase().replace("-", "_")));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid log overflow policy: " + overflow);
+            System.exit(1);
+            return;
+        }
+        
+        config.setLogShards(Integer.parseInt(cmd.getOptionValue("log-shards", "0")));
+        config.setLogIndex(cmd.hasOption("log-index"));
+        String format = cmd.getOptionValue("log-format", config.getLogShards() > 0 ? "binary" : "text");
+        try {
+            config.setLogFormat(SessionLogger.LogFormat.valueOf(format.toUpperCase()));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid log format: " + format);
+            System.exit(1);
+            return;
+        }
+        if (config.getLogShards() > 0 && config.getLogFormat() != SessionLogger.LogFormat.BINARY) {
+            System.err.println("Sharded logs use the binary log format");
+            System.exit(1);
+            return;
+        }
+        
+        String captureFormat = cmd.getOptionValue("pcap-format", "pcap");
+        try {
+            config.setPcapFormat(SessionLogger.PcapFormat.valueOf(captureFormat.toUpperCase()));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid PCAP format: " + captureFormat);
+            System.exit(1);
+            return;
+        }
+        
+        String compression = cmd.getOptionValue("log-compress", "none");
+        try {
+            config.setLogCompression(LogStorage.Compression.valueOf(compression.toUpperCase()));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid log compression: " + compression);
+            System.exit(1);
+            return;
+        }
+        config.setLogSegmentMaxBytes(Long.parseLong(cmd.getOptionValue("log-segment-mb", "0")) * 1024 * 1024);
+        config.setLogSegmentMaxAgeMs(Long.parseLong(cmd.getOptionValue("log-segment-minutes", "0")) * 60_000L);
+        config.setLogDiskBudgetBytes(Long.parseLong(cmd.getOptionValue("log-disk-budget-mb", "0")) * 1024 * 1024);
+        
+        config.setBinaryLogMaxBytes(Integer.parseInt(cmd.getOptionValue("log-binary-max-bytes", "-1")));
+        config.setBinaryLogSampleBytes(Integer.parseInt(cmd.getOptionValue("log-binary-sample-bytes", "64")));
+        config.setJsonLogMaxMessageBytes(Integer.parseInt(cmd.getOptionValue("log-json-max-bytes", "1048576")));
+        config.setPcapFlushIntervalMs(Long.parseLong(cmd.getOptionValue("pcap-flush-ms", "200")));
+        config.setUpstreamPoolMin(Integer.parseInt(cmd.getOptionValue("upstream-pool-min", "0")));
+        config.setUpstreamPoolMax(Integer.parseInt(cmd.getOptionValue("upstream-pool-max", "0")));
+        config.setUpstreamPoolIdleTimeoutMs(Long.parseLong(cmd.getOptionValue("upstream-pool-idle-ms", "60000")));
+        config.setUpstreamPoolSubprotocols(cmd.getOptionValue("upstream-pool-subprotocol"));
+        config.setMetricsPort(Integer.parseInt(cmd.getOptionValue("metrics-port", "-1")));
+        config.setMetricsJmx(!cmd.hasOption("no-jmx"));
+        config.setMetricsPerConnection(cmd.hasOption("metrics-per-connection"));
+        config.setRpcTracking(!cmd.hasOption("no-rpc-tracking"));
+        config.setRpcTimeoutMs(Long.parseLong(cmd.getOptionValue("rpc-timeout-ms", "60000")));
+        config.setRpcMaxPending(Integer.parseInt(cmd.getOptionValue("rpc-max-pending", "10000")));
+        config.setPreConnectMaxBytes(Long.parseLong(cmd.getOptionValue("preconnect-max-kb", "1024")) * 1024);
+        config.setPreConnectMaxWaitMs(Long.parseLong(cmd.getOptionValue("preconnect-max-ms", "10000")));
+        config.setUpstreamReconnect(cmd.hasOption("upstream-reconnect"));
+        config.setReconnectAttempts(Integer.parseInt(cmd.getOptionValue("reconnect-attempts", "10")));
+        config.setReconnectBaseDelayMs(Long.parseLong(cmd.getOptionValue("reconnect-base-ms", "100")));
+        config.setReconnectMaxDelayMs(Long.parseLong(cmd.getOptionValue("reconnect-max-ms", "10000")));
+        config.setReplayBufferBytes(Long.parseLong(cmd.getOptionValue("replay-buffer-kb", "256")) * 1024);
+        if (config.getReconnectAttempts() < 1 || config.getReconnectBaseDelayMs() < 1
+                || config.getReconnectMaxDelayMs() < config.getReconnectBaseDelayMs() || config.getReplayBufferBytes() < 0) {
+            System.err.println("Invalid reconnect settings: attempts and backoff must be positive, and the maximum backoff not below the base");
+            System.exit(1);
+            return;
+        }
+        config.setBackpressure(cmd.hasOption("backpressure"));
+        config.setBackpressureHighBytes(Long.parseLong(cmd.getOptionValue("backpressure-high-kb", "1024")) * 1024);
+        config.setBackpressureLowBytes(Long.parseLong(cmd.getOptionValue("backpressure-low-kb", "256")) * 1024);
+        config.setBackpressureMaxBytes(Long.parseLong(cmd.getOptionValue("backpressure-max-mb", "64")) * 1024 * 1024);
+        config.setBackpressureMaxWaitMs(Long.parseLong(cmd.getOptionValue("backpressure-wait-ms", "30000")));
+        if (config.getBackpressureLowBytes() < 0 || config.getBackpressureLowBytes() >= config.getBackpressureHighBytes()
+                || config.getBackpressureMaxBytes() < 0
+                || (config.getBackpressureMaxBytes() > 0 && config.getBackpressureMaxBytes() < config.getBackpressureHighBytes())
+                || config.getBackpressureMaxWaitMs() < 1) {
+            System.err.println("Invalid backpressure limits: the low watermark must be below the high one, the high one not above the maximum, and the wait positive");
+            System.exit(1);
+            return;
+        }
+        config.setValidateSchemaDirectory(cmd.getOptionValue("validate-schemas"));
+        if (cmd.hasOption("validate-threads")) {
+            config.setValidateThreads(Integer.parseInt(cmd.getOptionValue("validate-threads")));
+        }
+        config.setValidateQueueSize(Integer.parseInt(cmd.getOptionValue("validate-queue", "10000")));
+        if (config.getValidateThreads() < 1 || config.getValidateQueueSize() < 1) {
+            System.err.println("Invalid inline validation threads or queue size");
+            System.exit(1);
+            return;
+        }
+        
+        List<URI> remoteUris = new ArrayList<>();
+        if (remote != null) {
+            String protocol = ssl ? "wss" : "ws";
+            remoteUris.add(URI.create(String.format("%s://%s:%d%s", protocol, remote, Integer.parseInt(remotePortValue), path)));
+        }
+        if (cmd.hasOption("upstream")) {
+            for (String value : cmd.getOptionValues("upstream")) {
+                try {
+                    URI uri = new URI(value);
+                    if (!"ws".equals(uri.getScheme()) && !"wss".equals(uri.getScheme()) || uri.getHost() == null) {
+                        throw new URISyntaxException(value, "Expected ws:// or wss:// with a host");
+                    }
+                    remoteUris.add(uri);
+                } catch (URISyntaxException e) {
+                    System.err.println("Invalid upstream: " + value);
+                    System.exit(1);
+                    return;
+                }
+            }
+        }
+        
+        String strategy = cmd.getOptionValue("balance", "round-robin");
+        try {
+            config.setBalanceStrategy(UpstreamBalancer.Strategy.valueOf(strategy.toUpperCase().replace("-", "_")));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid balance strategy: " + strategy);
+            System.exit(1);
+            return;
+        }
+        config.setBalanceHashHeader(cmd.getOptionValue("balance-header"));
+        config.setEjectFailurePercent(Integer.parseInt(cmd.getOptionValue("eject-failure-percent", "50")));
+        config.setEjectMs(Long.parseLong(cmd.getOptionValue("eject-ms", "30000")));
+        if (config.getEjectFailurePercent() < 0 || config.getEjectFailurePercent() > 100 || config.getEjectMs() < 1) {
+            System.err.println("Invalid ejection settings: the failure percentage must be 0 to 100 and the time positive");
+            System.exit(1);
+            return;
+        }
+        config.setHealthCheckIntervalMs(Long.parseLong(cmd.getOptionValue("health-check-ms", "0")));
+        config.setHealthCheckTimeoutMs(Long.parseLong(cmd.getOptionValue("health-timeout-ms", "2000")));
+        if (config.getHealthCheckIntervalMs() < 0 || config.getHealthCheckTimeoutMs() < 1
+                || config.getHealthCheckTimeoutMs() > Integer.MAX_VALUE) {
+            System.err.println("Invalid health check settings: the interval must not be negative and the timeout must be positive");
+            System.exit(1);
+            return;
+        }
+        if (remoteUris.size() > 1 && config.getUpstreamPoolMax() > 0) {
+            System.err.println("The upstream pool supports a single remote server");
+            System.exit(1);
+            return;
+        }
         
         SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss");
         String sessionId = dateFormat.format(new Date());
         
         try {
-            URI uri = new URI(remoteUri);
             InetSocketAddress localAddress = new InetSocketAddress("0.0.0.0", lPort);
             
-            ProxyServer proxyServer = new ProxyServer(localAddress, uri, logDirectory, sessionId);
+            ProxyServer proxyServer = new ProxyServer(localAddress, remoteUris, logDirectory, sessionId, config);
             proxyServer.start();
             
-            logger.info("WebSocket proxy started on port {} forwarding to {}", lPort, remoteUri);
+            logger.info("WebSocket proxy started on port {} forwarding to {}", lPort,
+                remoteUris.size() == 1 ? remoteUris.get(0) : remoteUris);
             logger.info("Session logs will be saved to: {}/session_{}_*.log", logDirectory, sessionId);
             logger.info("Press Ctrl+C to stop the proxy");
             
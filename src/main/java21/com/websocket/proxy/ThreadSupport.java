@@ -0,0 +1,59 @@
+package com.websocket.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Java 21 version of ThreadSupport, packaged under META-INF/versions/21
+public final class ThreadSupport {
+    private static final Logger logger = LoggerFactory.getLogger(ThreadSupport.class);
+
+    private static volatile boolean virtualThreads = false;
+
+    private ThreadSupport() {
+    }
+
+    public static boolean enableVirtualThreads() {
+        virtualThreads = true;
+        logger.info("Using virtual threads for upstream connections, logging and validation");
+        return true;
+    }
+
+    public static boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public static Thread newThread(String name, Runnable task) {
+        if (virtualThreads) {
+            return Thread.ofVirtual().name(name).unstarted(task);
+        }
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    public static Thread start(String name, Runnable task) {
+        Thread thread = newThread(name, task);
+        thread.start();
+        return thread;
+    }
+
+    public static ThreadFactory threadFactory(String prefix) {
+        if (virtualThreads) {
+            return Thread.ofVirtual().name(prefix + "-", 1).factory();
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return task -> newThread(prefix + "-" + counter.incrementAndGet(), task);
+    }
+
+    public static ExecutorService newExecutor(String prefix) {
+        if (virtualThreads) {
+            return Executors.newThreadPerTaskExecutor(threadFactory(prefix));
+        }
+        return Executors.newCachedThreadPool(threadFactory(prefix));
+    }
+}